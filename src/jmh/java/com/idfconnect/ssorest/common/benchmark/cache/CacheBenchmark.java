@@ -0,0 +1,128 @@
+package com.idfconnect.ssorest.common.benchmark.cache;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.idfconnect.ssorest.common.cache.Cache;
+import com.idfconnect.ssorest.common.cache.CacheConcurrentImpl;
+import com.idfconnect.ssorest.common.cache.CacheConstant;
+import com.idfconnect.ssorest.common.cache.CacheLocalImpl;
+
+/**
+ * <p>
+ * Throughput of the local cache implementations.
+ * </p>
+ * <p>
+ * {@link #mixed(Cursor)} reads through the cache, putting the key back on a miss, with the given share of operations being unconditional writes; keys
+ * follow a Zipfian or uniform distribution over ten times the cache capacity. {@link #evictingPut(Cursor)} only writes keys that are not cached, so every
+ * put evicts. Run with <code>-t 1</code> to <code>-t N</code> to vary the number of threads, and with <code>-prof gc</code> to report allocation rates.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+    static final int SAMPLES = 1 << 16;
+    static final int MASK    = SAMPLES - 1;
+
+    @Param({ "local", "concurrent", "concurrent-tinylfu" })
+    String           implementation;
+
+    @Param({ "zipfian", "uniform" })
+    String           distribution;
+
+    @Param({ "100", "90", "50" })
+    int              readPercent;
+
+    @Param({ "10000" })
+    int              capacity;
+
+    Cache            cache;
+    String[]         keys;
+    int[]            samples;
+    boolean[]        writes;
+
+    /**
+     * Per-thread position in the precomputed samples
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index = new Random().nextInt(SAMPLES);
+
+        int next() {
+            return index++ & MASK;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (implementation) {
+            case "local":
+                cache = new CacheLocalImpl(capacity, Integer.MAX_VALUE);
+                break;
+            case "concurrent":
+                cache = new CacheConcurrentImpl(capacity, Integer.MAX_VALUE);
+                break;
+            case "concurrent-tinylfu":
+                cache = new CacheConcurrentImpl(capacity, Integer.MAX_VALUE, CacheConcurrentImpl.DEFAULT_CONCURRENCY_LEVEL,
+                        CacheConstant.CACHE_EVICTION_TINY_LFU);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown implementation " + implementation);
+        }
+        int keySpace = capacity * 10;
+        keys = new String[keySpace];
+        for (int k = 0; k < keySpace; k++)
+            keys[k] = "key" + k;
+        samples = KeyDistribution.sample(distribution, keySpace, SAMPLES, 42);
+        writes = new boolean[SAMPLES];
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++)
+            writes[i] = random.nextInt(100) >= readPercent;
+        // warm the cache up with the sampled keys
+        for (int i = 0; i < SAMPLES; i++)
+            cache.put(keys[samples[i]], keys[samples[i]]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Benchmark
+    public Object mixed(Cursor cursor) {
+        int i = cursor.next();
+        String key = keys[samples[i]];
+        if (writes[i])
+            return cache.put(key, key);
+        Object value = cache.get(key);
+        if (value == null)
+            cache.put(key, key);
+        return value;
+    }
+
+    @Benchmark
+    public Object evictingPut(Cursor cursor) {
+        // walk the whole key space in order, so the key was evicted long ago
+        String key = keys[(cursor.index++ & Integer.MAX_VALUE) % keys.length];
+        return cache.put(key, key);
+    }
+}
@@ -0,0 +1,69 @@
+package com.idfconnect.ssorest.common.benchmark.cache;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>
+ * Precomputed sequences of key indexes, so that benchmarks do not measure the random number generator.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public final class KeyDistribution {
+    /** Constant <code>ZIPFIAN_EXPONENT=0.99</code>, the skew used by YCSB */
+    public static final double ZIPFIAN_EXPONENT = 0.99;
+
+    private KeyDistribution() {
+    }
+
+    /**
+     * Returns <code>samples</code> indexes below <code>keySpace</code>, drawn from the named distribution
+     *
+     * @param distribution
+     *            <code>zipfian</code> or <code>uniform</code>
+     * @param keySpace
+     *            number of distinct keys
+     * @param samples
+     *            number of indexes to draw
+     * @param seed
+     *            random seed, so runs are comparable
+     * @return the indexes
+     */
+    public static int[] sample(String distribution, int keySpace, int samples, long seed) {
+        Random random = new Random(seed);
+        int[] indexes = new int[samples];
+        if ("uniform".equals(distribution)) {
+            for (int i = 0; i < samples; i++)
+                indexes[i] = random.nextInt(keySpace);
+            return indexes;
+        }
+        if (!"zipfian".equals(distribution))
+            throw new IllegalArgumentException("Unknown distribution " + distribution);
+        // inverse transform sampling over the cumulative zipf weights
+        double[] cumulative = new double[keySpace];
+        double sum = 0;
+        for (int k = 0; k < keySpace; k++) {
+            sum += 1 / Math.pow(k + 1, ZIPFIAN_EXPONENT);
+            cumulative[k] = sum;
+        }
+        for (int i = 0; i < samples; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            indexes[i] = k >= 0 ? k : Math.min(-k - 1, keySpace - 1);
+        }
+        // scatter the popular keys, otherwise they would all be neighbours
+        int[] permutation = new int[keySpace];
+        for (int k = 0; k < keySpace; k++)
+            permutation[k] = k;
+        for (int k = keySpace - 1; k > 0; k--) {
+            int j = random.nextInt(k + 1);
+            int swap = permutation[k];
+            permutation[k] = permutation[j];
+            permutation[j] = swap;
+        }
+        for (int i = 0; i < samples; i++)
+            indexes[i] = permutation[indexes[i]];
+        return indexes;
+    }
+}
@@ -0,0 +1,129 @@
+package com.idfconnect.ssorest.common.benchmark.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.idfconnect.ssorest.common.cache.BinaryValueCodec;
+import com.idfconnect.ssorest.common.cache.CacheJedisImpl;
+import com.idfconnect.ssorest.common.cache.JsonValueCodec;
+
+/**
+ * <p>
+ * Throughput of {@link CacheJedisImpl} against a real Redis server, by default <code>localhost:6379</code>; point it elsewhere with
+ * <code>-Dssorest.benchmark.redis=host:port</code>, for example at a throwaway <code>redis-server</code> or container. All keys are written under the
+ * <code>ssorest-benchmark:</code> prefix and removed afterwards, other keys on the server are left alone.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class RedisCacheBenchmark {
+    static final String KEY_PREFIX = "ssorest-benchmark:";
+    static final int    KEY_SPACE  = 10000;
+    static final int    SAMPLES    = 1 << 16;
+    static final int    MASK       = SAMPLES - 1;
+    static final int    BATCH      = 16;
+
+    /**
+     * A typical cached value: a few scalar fields and an opaque payload
+     */
+    public static class Value {
+        String   id;
+        long     created;
+        String[] attributes;
+        String   payload;
+    }
+
+    @Param({ "json", "binary" })
+    String              codec;
+
+    @Param({ "128", "4096" })
+    int                 payloadSize;
+
+    CacheJedisImpl      cache;
+    Value               value;
+    String[]            keys;
+    int[]               samples;
+
+    /**
+     * Per-thread position in the precomputed samples
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index = new Random().nextInt(SAMPLES);
+
+        int next() {
+            return index++ & MASK;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String endPoint = System.getProperty("ssorest.benchmark.redis", "localhost:6379");
+        cache = new CacheJedisImpl(endPoint, Collections.singletonList(endPoint));
+        if (!cache.isConnected())
+            throw new IllegalStateException("No redis server at " + endPoint + ", set -Dssorest.benchmark.redis=host:port");
+        cache.setKeyPrefix(KEY_PREFIX);
+        cache.setValueCodec("binary".equals(codec) ? new BinaryValueCodec() : new JsonValueCodec());
+        value = new Value();
+        value.id = "session-1";
+        value.created = System.currentTimeMillis();
+        value.attributes = new String[] { "uid=jdoe", "ou=people", "role=admin" };
+        char[] payload = new char[payloadSize];
+        Random random = new Random(42);
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (char) ('a' + random.nextInt(26));
+        value.payload = new String(payload);
+        keys = new String[KEY_SPACE];
+        for (int k = 0; k < KEY_SPACE; k++) {
+            keys[k] = "key" + k;
+            cache.put(keys[k], value);
+        }
+        samples = KeyDistribution.sample("zipfian", KEY_SPACE, SAMPLES, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        cache.close();
+    }
+
+    @Benchmark
+    public Object get(Cursor cursor) {
+        return cache.get(keys[samples[cursor.next()]]);
+    }
+
+    @Benchmark
+    public Object put(Cursor cursor) {
+        return cache.put(keys[samples[cursor.next()]], value);
+    }
+
+    @Benchmark
+    public Object getAll(Cursor cursor) {
+        List<String> batch = new ArrayList<String>(BATCH);
+        for (int i = 0; i < BATCH; i++)
+            batch.add(keys[samples[cursor.next()]]);
+        return cache.getAll(batch);
+    }
+}
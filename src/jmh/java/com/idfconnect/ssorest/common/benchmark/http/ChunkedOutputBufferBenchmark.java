@@ -0,0 +1,99 @@
+package com.idfconnect.ssorest.common.benchmark.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.idfconnect.ssorest.common.http.ChunkedOutputBuffer;
+
+/**
+ * <p>
+ * Cost per response of capturing a body of <code>size</code> bytes, written in 1 KB writes, and handing it on, comparing {@link ChunkedOutputBuffer} with
+ * the {@link ByteArrayOutputStream} it replaced in the response wrapper.
+ * </p>
+ * <p>
+ * The <code>string</code> benchmarks decode the body as the agent did; the <code>write</code> benchmarks pass the bytes on to a stream. Run with
+ * <code>-prof gc</code> to report the bytes allocated per operation.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class ChunkedOutputBufferBenchmark {
+    @Param({ "4096", "65536", "1048576" })
+    int                 size;
+
+    byte[]              chunk;
+    final OutputStream  sink = new OutputStream() {
+                                 @Override
+                                 public void write(int b) {
+                                 }
+
+                                 @Override
+                                 public void write(byte[] b, int off, int len) {
+                                 }
+                             };
+
+    @Setup(Level.Trial)
+    public void setup() {
+        chunk = new byte[1024];
+        Arrays.fill(chunk, (byte) 'x');
+    }
+
+    private void fill(OutputStream out) throws IOException {
+        for (int written = 0; written < size; written += chunk.length)
+            out.write(chunk, 0, Math.min(chunk.length, size - written));
+    }
+
+    @Benchmark
+    public void stringByteArrayOutputStream(Blackhole blackhole) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        fill(baos);
+        blackhole.consume(baos.toString("UTF-8"));
+    }
+
+    @Benchmark
+    public void stringChunkedOutputBuffer(Blackhole blackhole) throws IOException {
+        ChunkedOutputBuffer buffer = new ChunkedOutputBuffer();
+        fill(buffer);
+        blackhole.consume(buffer.toString(StandardCharsets.UTF_8));
+        buffer.release();
+    }
+
+    @Benchmark
+    public void writeByteArrayOutputStream() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        fill(baos);
+        sink.write(baos.toString("UTF-8").getBytes("UTF-8"));
+    }
+
+    @Benchmark
+    public long writeChunkedOutputBuffer() throws IOException {
+        ChunkedOutputBuffer buffer = new ChunkedOutputBuffer();
+        fill(buffer);
+        long written = buffer.writeTo(sink);
+        buffer.release();
+        return written;
+    }
+}
@@ -0,0 +1,92 @@
+package com.idfconnect.ssorest.common.benchmark.http;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.idfconnect.ssorest.common.http.HeaderMap;
+import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
+
+/**
+ * <p>
+ * Cost per request of the header table of the request wrappers, comparing {@link HeaderMap} with the {@link CaseInsensitiveHashtable} of
+ * {@link CopyOnWriteArrayList} it replaced.
+ * </p>
+ * <p>
+ * The <code>build</code> benchmarks copy the headers of a typical browser request, the <code>lookup</code> benchmarks read the headers an agent checks on
+ * every request, in a different case than they were sent. Run with <code>-prof gc</code> to report the bytes allocated per operation.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class HeaderMapBenchmark {
+    static final String[][]                HEADERS = { { "Host", "www.example.com" }, { "Connection", "keep-alive" },
+            { "Upgrade-Insecure-Requests", "1" }, { "User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/61.0 Safari/537.36" },
+            { "Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8" }, { "Referer", "https://www.example.com/login" },
+            { "Accept-Encoding", "gzip, deflate, br" }, { "Accept-Language", "en-US,en;q=0.8" }, { "Cookie", "SMSESSION=abc" },
+            { "Cookie", "JSESSIONID=def" }, { "X-Forwarded-For", "10.0.0.1" }, { "X-Forwarded-Proto", "https" } };
+    static final String[]                  LOOKUPS = { "cookie", "HOST", "user-agent", "x-forwarded-for", "Authorization", "SMSESSION" };
+
+    CaseInsensitiveHashtable<List<String>> hashtable;
+    HeaderMap                              headerMap;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hashtable = buildHashtable();
+        headerMap = buildHeaderMap();
+    }
+
+    @Benchmark
+    public CaseInsensitiveHashtable<List<String>> buildHashtable() {
+        CaseInsensitiveHashtable<List<String>> headers = new CaseInsensitiveHashtable<List<String>>();
+        for (String[] header : HEADERS) {
+            List<String> values = headers.get(header[0]);
+            if (values == null) {
+                values = new CopyOnWriteArrayList<String>();
+                headers.put(header[0], values);
+            }
+            values.add(header[1]);
+        }
+        return headers;
+    }
+
+    @Benchmark
+    public HeaderMap buildHeaderMap() {
+        HeaderMap headers = new HeaderMap();
+        for (String[] header : HEADERS)
+            headers.add(header[0], header[1]);
+        return headers;
+    }
+
+    @Benchmark
+    public void lookupHashtable(Blackhole blackhole) {
+        for (String name : LOOKUPS) {
+            List<String> values = hashtable.get(name);
+            blackhole.consume(values == null ? null : values.get(0));
+        }
+    }
+
+    @Benchmark
+    public void lookupHeaderMap(Blackhole blackhole) {
+        for (String name : LOOKUPS)
+            blackhole.consume(headerMap.getFirst(name));
+    }
+}
@@ -0,0 +1,205 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.idfconnect.ssorest.common.thread.LifecycleThread;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
+
+/**
+ * <p>
+ * Base class of the {@link RedisTopology} implementations, refreshing the topology from a background {@link LifecycleThread} every
+ * {@link CacheConstant#REDIS_HEALTH_CHECK_INTERVAL_MILLIS_DEFAULT} milliseconds and whenever {@link #requestRefresh()} is called.
+ * </p>
+ * <p>
+ * Reads are balanced over the replicas with the policy set by {@link #setReadBalancing(int)}, by default {@link CacheConstant#REDIS_READ_EWMA}. A replica
+ * failing requests or health checks is ejected from the rotation and probed again in the background.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public abstract class AbstractRedisTopology implements RedisTopology {
+    protected final JedisPoolConfig poolConfig;
+    protected final int             connectTimeoutMillis;
+    protected final int             soTimeoutMillis;
+    private final HealthChecker     checker;
+    private final ReplicaBalancer   balancer = new ReplicaBalancer(CacheConstant.REDIS_READ_EWMA);
+
+    Logger                          logger   = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Refreshes the topology periodically and on request
+     */
+    static final class HealthChecker extends LifecycleThread {
+        private final AbstractRedisTopology topology;
+        private final long                  intervalMillis;
+        private boolean                     requested = false;
+        private volatile boolean            stopped   = false;
+
+        HealthChecker(AbstractRedisTopology topology, long intervalMillis) {
+            super(topology.getClass().getSimpleName() + "-health-" + Integer.toHexString(System.identityHashCode(topology)));
+            this.topology = topology;
+            this.intervalMillis = intervalMillis;
+            setDaemon(true);
+        }
+
+        @Override
+        public void runLifecycleThread() {
+            setRunning(true);
+            try {
+                while (!stopped) {
+                    synchronized (this) {
+                        if (!requested)
+                            wait(intervalMillis);
+                        requested = false;
+                    }
+                    if (stopped)
+                        break;
+                    try {
+                        topology.refresh();
+                    } catch (RuntimeException e) {
+                        topology.logger.warn("Caught exception refreshing redis topology", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+            setRunning(false);
+        }
+
+        synchronized void request() {
+            requested = true;
+            notifyAll();
+        }
+
+        void shutdown() {
+            stopped = true;
+            interrupt();
+        }
+    }
+
+    /**
+     * Constructor for AbstractRedisTopology.
+     *
+     * @param poolConfig
+     *            configuration of the connection pool of each server
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two background refreshes
+     */
+    protected AbstractRedisTopology(JedisPoolConfig poolConfig, long healthCheckIntervalMillis) {
+        this(poolConfig, CacheConstant.REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT, CacheConstant.REDIS_SO_TIMEOUT_MILLIS_DEFAULT, healthCheckIntervalMillis);
+    }
+
+    /**
+     * Constructor for AbstractRedisTopology.
+     *
+     * @param poolConfig
+     *            configuration of the connection pool of each server
+     * @param connectTimeoutMillis
+     *            milliseconds allowed to open a connection
+     * @param soTimeoutMillis
+     *            milliseconds allowed for a server to answer a command
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two background refreshes
+     */
+    protected AbstractRedisTopology(JedisPoolConfig poolConfig, int connectTimeoutMillis, int soTimeoutMillis, long healthCheckIntervalMillis) {
+        this.poolConfig = poolConfig;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.soTimeoutMillis = soTimeoutMillis;
+        checker = new HealthChecker(this, healthCheckIntervalMillis);
+    }
+
+    /**
+     * Starts the background health checks, to be called by subclasses once the topology was first discovered
+     */
+    protected void startHealthChecks() {
+        checker.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void requestRefresh() {
+        checker.request();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        checker.shutdown();
+        closePools();
+    }
+
+    /**
+     * Closes every pool of the topology
+     */
+    protected abstract void closePools();
+
+    /**
+     * <p>
+     * getReadBalancing.
+     * </p>
+     *
+     * @return the policy spreading reads over the replicas
+     */
+    public int getReadBalancing() {
+        return balancer.getPolicy();
+    }
+
+    /**
+     * <p>
+     * setReadBalancing.
+     * </p>
+     *
+     * @param policy
+     *            {@link CacheConstant#REDIS_READ_ROUND_ROBIN}, {@link CacheConstant#REDIS_READ_LEAST_OUTSTANDING} or {@link CacheConstant#REDIS_READ_EWMA}
+     */
+    public void setReadBalancing(int policy) {
+        balancer.setPolicy(policy);
+    }
+
+    /**
+     * Returns the replica to read from, or null if none is available
+     */
+    ReplicaPool choose(List<ReplicaPool> replicas) {
+        return balancer.choose(replicas);
+    }
+
+    /**
+     * Checks that a server of the pool answers a PING
+     *
+     * @param pool
+     *            a {@link redis.clients.util.Pool} object.
+     * @return a boolean.
+     */
+    protected boolean ping(Pool<Jedis> pool) {
+        try (Jedis jedis = pool.getResource()) {
+            jedis.ping();
+            return true;
+        } catch (Exception e) {
+            logger.debug("Health check failed: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Closes a pool, logging rather than throwing on failure
+     *
+     * @param pool
+     *            a {@link redis.clients.util.Pool} object, may be null
+     */
+    protected void closeQuietly(Pool<Jedis> pool) {
+        if (pool == null)
+            return;
+        try {
+            pool.close();
+        } catch (Exception e) {
+            logger.debug("Error closing pool: {}", e.getMessage());
+        }
+    }
+}
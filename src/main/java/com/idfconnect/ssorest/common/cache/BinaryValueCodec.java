@@ -0,0 +1,211 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.gson.Gson;
+
+/**
+ * <p>
+ * Compact, type-preserving {@link CacheValueCodec}.
+ * </p>
+ * <p>
+ * The first byte is a type tag. Strings, byte arrays, booleans and the boxed numbers are stored in their natural binary form, so they come back as the
+ * same type; any other object is stored as its length-prefixed class name followed by its Gson JSON, and decoded back into an instance of that class.
+ * Encodings larger than the compression threshold are deflated when that makes them smaller, which is flagged by the high bit of the tag and followed by
+ * the uncompressed length.
+ * </p>
+ * <p>
+ * Decoding instantiates the class named in the stored value, so the Redis server must only be writable by trusted clients.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class BinaryValueCodec implements CacheValueCodec {
+    /** Constant <code>DEFAULT_COMPRESSION_THRESHOLD=1024</code>, in bytes */
+    public static final int   DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    static final byte         TAG_STRING                    = 1;
+    static final byte         TAG_BYTES                     = 2;
+    static final byte         TAG_INTEGER                   = 3;
+    static final byte         TAG_LONG                      = 4;
+    static final byte         TAG_DOUBLE                    = 5;
+    static final byte         TAG_FLOAT                     = 6;
+    static final byte         TAG_BOOLEAN                   = 7;
+    static final byte         TAG_OBJECT                    = 8;
+    static final byte         COMPRESSED                    = (byte) 0x80;
+    // deflate expands its input at most about 1032 times, which bounds the uncompressed length a valid value can declare
+    static final int          MAX_DEFLATE_RATIO             = 1032;
+
+    private final int         compressionThreshold;
+    private final Gson        gson;
+
+    /**
+     * Constructor for BinaryValueCodec.
+     */
+    public BinaryValueCodec() {
+        this(DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Constructor for BinaryValueCodec.
+     *
+     * @param compressionThreshold
+     *            encodings larger than this many bytes are compressed, or never if negative
+     */
+    public BinaryValueCodec(int compressionThreshold) {
+        this(compressionThreshold, new Gson());
+    }
+
+    /**
+     * Constructor for BinaryValueCodec.
+     *
+     * @param compressionThreshold
+     *            encodings larger than this many bytes are compressed, or never if negative
+     * @param gson
+     *            the Gson used for values that have no binary form
+     */
+    public BinaryValueCodec(int compressionThreshold, Gson gson) {
+        this.compressionThreshold = compressionThreshold;
+        this.gson = gson;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte[] encode(Object value) {
+        byte[] encoded = encodeRaw(value);
+        if (compressionThreshold < 0 || encoded.length <= compressionThreshold)
+            return encoded;
+        byte[] compressed = compress(encoded);
+        return compressed.length < encoded.length ? compressed : encoded;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * An empty array, such as an empty Redis string this codec never writes, decodes to null.
+     *
+     * @throws java.lang.IllegalArgumentException
+     *             if the bytes are not a value encoded by this codec
+     */
+    @Override
+    public Object decode(byte[] bytes) {
+        if (bytes.length == 0)
+            return null;
+        try {
+            return decodeRaw((bytes[0] & COMPRESSED) != 0 ? decompress(bytes) : bytes);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated cached value of " + bytes.length + " bytes", e);
+        }
+    }
+
+    private Object decodeRaw(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        switch (bytes[0]) {
+            case TAG_STRING:
+                return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+            case TAG_BYTES:
+                return Arrays.copyOfRange(bytes, 1, bytes.length);
+            case TAG_INTEGER:
+                return buffer.getInt();
+            case TAG_LONG:
+                return buffer.getLong();
+            case TAG_DOUBLE:
+                return buffer.getDouble();
+            case TAG_FLOAT:
+                return buffer.getFloat();
+            case TAG_BOOLEAN:
+                return buffer.get() != 0;
+            case TAG_OBJECT:
+                int nameLength = buffer.getInt();
+                String className = new String(bytes, buffer.position(), nameLength, StandardCharsets.UTF_8);
+                int offset = buffer.position() + nameLength;
+                String json = new String(bytes, offset, bytes.length - offset, StandardCharsets.UTF_8);
+                try {
+                    return gson.fromJson(json, Class.forName(className, false, getClass().getClassLoader()));
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Cached value of unknown class " + className, e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown cached value type " + bytes[0]);
+        }
+    }
+
+    private byte[] encodeRaw(Object value) {
+        if (value instanceof String)
+            return tagged(TAG_STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+        if (value instanceof byte[])
+            return tagged(TAG_BYTES, (byte[]) value);
+        if (value instanceof Integer)
+            return ByteBuffer.allocate(5).put(TAG_INTEGER).putInt((Integer) value).array();
+        if (value instanceof Long)
+            return ByteBuffer.allocate(9).put(TAG_LONG).putLong((Long) value).array();
+        if (value instanceof Double)
+            return ByteBuffer.allocate(9).put(TAG_DOUBLE).putDouble((Double) value).array();
+        if (value instanceof Float)
+            return ByteBuffer.allocate(5).put(TAG_FLOAT).putFloat((Float) value).array();
+        if (value instanceof Boolean)
+            return new byte[] { TAG_BOOLEAN, (byte) (((Boolean) value) ? 1 : 0) };
+        byte[] className = value.getClass().getName().getBytes(StandardCharsets.UTF_8);
+        byte[] json = gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(5 + className.length + json.length).put(TAG_OBJECT).putInt(className.length).put(className).put(json).array();
+    }
+
+    private static byte[] tagged(byte tag, byte[] payload) {
+        byte[] bytes = new byte[payload.length + 1];
+        bytes[0] = tag;
+        System.arraycopy(payload, 0, bytes, 1, payload.length);
+        return bytes;
+    }
+
+    private static byte[] compress(byte[] encoded) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length / 2 + 16);
+            out.write(encoded[0] | COMPRESSED);
+            out.write(encoded.length >>> 24);
+            out.write(encoded.length >>> 16);
+            out.write(encoded.length >>> 8);
+            out.write(encoded.length);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        int length = ByteBuffer.wrap(bytes, 1, 4).getInt();
+        // checked before allocating, as the value may come from any client of a shared server
+        if (length <= 0 || length > (long) (bytes.length - 5) * MAX_DEFLATE_RATIO)
+            throw new IllegalArgumentException("Corrupt compressed cache value of " + bytes.length + " bytes declaring " + length + " bytes uncompressed");
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, 5, bytes.length - 5);
+            byte[] decoded = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished() && !inflater.needsInput())
+                n += inflater.inflate(decoded, n, length - n);
+            if (n != length || decoded[0] != (byte) (bytes[0] & ~COMPRESSED))
+                throw new IllegalArgumentException("Corrupt compressed cache value");
+            return decoded;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed cache value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
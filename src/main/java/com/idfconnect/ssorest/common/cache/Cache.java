@@ -1,5 +1,13 @@
 package com.idfconnect.ssorest.common.cache;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>Cache interface.</p>
  *
@@ -18,6 +26,22 @@ public interface Cache {
      */
     public abstract Object put(Object key, Object entry) ;
 
+    /**
+     * Method put with a time to live for this entry only. The local caches expire the entry after <code>ttl</code>; implementations that cannot expire
+     * individual entries, the default, fall back to {@link #put(Object, Object)} and the cache-wide time out. A <code>ttl</code> of {@link Long#MAX_VALUE}
+     * means the entry never expires, whatever the cache-wide time out; {@link CacheJedisImpl} caps it at {@link Integer#MAX_VALUE} seconds.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @param entry a {@link java.lang.Object} object.
+     * @param ttl time to live of the entry
+     * @param unit unit of <code>ttl</code>
+     * @return the previous value, if the implementation reports one
+     * @since 3.0.2
+     */
+    public default Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        return put(key, entry);
+    }
+
     /**
      * <p>dumpKey.</p>
      *
@@ -58,6 +82,166 @@ public interface Cache {
      */
     public Object get(Object key);
 
+    /**
+     * <p>get.</p>
+     *
+     * Returns the value of the key, loading and caching it with the loader on a miss. Implementations coalesce concurrent misses of the same key into a
+     * single load, so an expiring popular entry does not send every request thread to the backend at once.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @param loader computes the value of a missing key
+     * @return the cached or loaded value, null if the loader returned null
+     * @throws com.idfconnect.ssorest.common.cache.CacheException if the loader failed; threads that waited for the same load get the same failure
+     * @since 3.0.2
+     */
+    public default Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        if (value != null)
+            return value;
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            throw new CacheException("Could not load " + key, e);
+        }
+        if (value != null)
+            put(key, value);
+        return value;
+    }
+
+    /**
+     * <p>getAsync.</p>
+     *
+     * Asynchronous {@link #get(Object)}. Remote caches perform the read on their own I/O thread so the caller can overlap it with other work; the default
+     * implementation reads synchronously and returns a completed future.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @return a future completed with the value, or null if there is none
+     * @since 3.0.2
+     */
+    public default CompletableFuture<Object> getAsync(Object key) {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            future.complete(get(key));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * <p>putAsync.</p>
+     *
+     * Asynchronous {@link #put(Object, Object)}; the future may be ignored for fire-and-forget writes.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @param entry a {@link java.lang.Object} object.
+     * @return a future completed with the result of the put once it was performed
+     * @since 3.0.2
+     */
+    public default CompletableFuture<Object> putAsync(Object key, Object entry) {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            future.complete(put(key, entry));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * <p>removeAsync.</p>
+     *
+     * Asynchronous {@link #remove(Object)}.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @return a future completed with the removed value, or null if there was none
+     * @since 3.0.2
+     */
+    public default CompletableFuture<Object> removeAsync(Object key) {
+        CompletableFuture<Object> future = new CompletableFuture<Object>();
+        try {
+            future.complete(remove(key));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * <p>getAll.</p>
+     *
+     * Looks up several keys at once. Implementations override this to fetch them in a single round trip or lock acquisition.
+     *
+     * @param keys the keys to look up
+     * @return a map of the keys that were found to their values; keys with no live entry are absent
+     * @since 3.0.2
+     */
+    public default Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        for (Object key : keys) {
+            Object value = get(key);
+            if (value != null)
+                result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * <p>putAll.</p>
+     *
+     * Stores several entries at once. Implementations override this to write them in a single round trip or lock acquisition.
+     *
+     * @param entries the keys and values to store
+     * @since 3.0.2
+     */
+    public default void putAll(Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * <p>getStats.</p>
+     *
+     * @return the statistics recorded by this cache; implementations that record none return an empty {@link CacheStats}
+     * @since 3.0.2
+     */
+    public default CacheStats getStats() {
+        return new CacheStats();
+    }
+
+    /**
+     * Method addRemovalListener, notifying the listener on the common fork/join pool.
+     *
+     * @param listener notified of every entry leaving the cache
+     * @throws java.lang.UnsupportedOperationException if the implementation cannot tell when entries leave it
+     * @since 3.0.2
+     */
+    public default void addRemovalListener(CacheRemovalListener listener) {
+        addRemovalListener(listener, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Method addRemovalListener. The listener is called on the executor after the entry left the cache, so its work never delays the cache; the
+     * notifications of different entries may be delivered in any order.
+     *
+     * @param listener notified of every entry leaving the cache
+     * @param executor runs the notifications
+     * @throws java.lang.UnsupportedOperationException if the implementation cannot tell when entries leave it, the default
+     * @since 3.0.2
+     */
+    public default void addRemovalListener(CacheRemovalListener listener, Executor executor) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not report removals");
+    }
+
+    /**
+     * Method removeRemovalListener.
+     *
+     * @param listener a listener previously added
+     * @since 3.0.2
+     */
+    public default void removeRemovalListener(CacheRemovalListener listener) {
+    }
+
     /**
      * Method size.
      *
@@ -0,0 +1,1087 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.idfconnect.ssorest.common.thread.LifecycleThread;
+
+/**
+ * <p>
+ * Lock-striped local cache, intended as a drop-in replacement for {@link CacheLocalImpl} under heavy concurrent load.
+ * </p>
+ * <p>
+ * Reads are lock-free: entries are indexed by a {@link ConcurrentHashMap} and a read only sets the entry's reference bit. Writes lock only the segment that
+ * owns the key, and updating an existing key replaces the value in place in O(1). Eviction is approximate LRU using the CLOCK algorithm: each segment keeps
+ * its entries on a circular list, and when the cache is over capacity the inserting segment sweeps its clock hand, giving referenced entries a second chance
+ * and evicting the first unreferenced one.
+ * </p>
+ * <p>
+ * With the {@link CacheConstant#CACHE_EVICTION_TINY_LFU} policy, each segment instead admits new entries into a small CLOCK window, about 1% of its
+ * capacity. Entries leaving the window only displace an entry of the main region if a {@link FrequencySketch} estimates they were accessed more often, so
+ * a burst of one-off keys (a crawler walking unique URLs) churns the window but leaves the popular long-tail entries in place.
+ * </p>
+ * <p>
+ * Besides the entry count, the cache can be bounded by total weight with {@link #setMaximumWeight(long, CacheWeigher)}, for example in estimated bytes
+ * using an {@link EstimatedSizeWeigher}. Eviction then continues until both bounds are satisfied.
+ * </p>
+ * <p>
+ * Every entry has its own time to live, defaulting to the cache-wide time out, and with sliding expiration enabled each read pushes the deadline back by
+ * the entry's time to live. Expiring entries are kept on a per-segment {@link TimerWheel} that a background {@link LifecycleThread} advances once per tick,
+ * so dead entries are reclaimed without waiting for a read or for eviction, and without scanning the cache.
+ * </p>
+ * <p>
+ * {@link #get(Object, CacheLoader)} coalesces concurrent misses of a key into one load, and with {@link #setRefreshAhead(double, Executor)} reloads
+ * entries in the background shortly before they expire, so popular entries are replaced without any reader missing.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CacheConcurrentImpl implements Cache {
+    /** Constant <code>DEFAULT_CONCURRENCY_LEVEL=16</code> */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    /** Resolution of entry expiry, in nanoseconds */
+    public static final long EXPIRY_TICK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Time to live of entries that never expire */
+    static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * Cache entry, linked into the clock ring of its segment
+     */
+    static final class Node {
+        final Object     key;
+        volatile Object  value;
+        // time to live in nanoseconds, NEVER if the entry does not expire
+        volatile long    ttl = NEVER;
+        // System.nanoTime() deadline, meaningful only when ttl is not NEVER
+        volatile long    expiresAt;
+        volatile boolean referenced;
+        // guarded by the segment lock
+        int              weight = 1;
+        Ring             ring;
+        Node             next;
+        Node             previous;
+        Node             wheelNext;
+        Node             wheelPrevious;
+
+        Node(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean isExpired(long now) {
+            return ttl != NEVER && now - expiresAt >= 0;
+        }
+
+        /**
+         * Method toString.
+         * @return String
+         */
+        public String toString() {
+            return key + ":" + value;
+        }
+    }
+
+    /**
+     * Circular list of nodes swept by a clock hand. Guarded by the lock of the owning segment.
+     */
+    static final class Ring {
+        Node hand;
+        int  count;
+
+        /**
+         * Links a new node into the ring just behind the clock hand, so it is the last to be examined
+         */
+        void link(Node node) {
+            if (hand == null) {
+                node.next = node;
+                node.previous = node;
+                hand = node;
+            } else {
+                node.next = hand;
+                node.previous = hand.previous;
+                hand.previous.next = node;
+                hand.previous = node;
+            }
+            node.ring = this;
+            count++;
+        }
+
+        void unlink(Node node) {
+            if (node.next == node) {
+                hand = null;
+            } else {
+                node.previous.next = node.next;
+                node.next.previous = node.previous;
+                if (hand == node)
+                    hand = node.next;
+            }
+            node.next = null;
+            node.previous = null;
+            node.ring = null;
+            count--;
+        }
+
+        /**
+         * Sweeps the clock hand to the first unreferenced node other than <code>exclude</code>, clearing reference bits on the way
+         *
+         * @return the node now under the hand, or null if the ring holds nothing else
+         */
+        Node sweep(Node exclude) {
+            if (hand == null || (count == 1 && hand == exclude))
+                return null;
+            for (;;) {
+                Node node = hand;
+                if (node != exclude) {
+                    if (!node.referenced)
+                        return node;
+                    node.referenced = false;
+                }
+                hand = node.next;
+            }
+        }
+
+        void clear() {
+            hand = null;
+            count = 0;
+        }
+    }
+
+    /**
+     * A stripe of the cache: the lock guarding writes to its keys plus the clock rings and timer wheel of its entries
+     */
+    static final class Segment extends ReentrantLock {
+        private static final long serialVersionUID = 6049738410387346720L;
+
+        final Ring                main             = new Ring();
+        // admission window and frequency sketch, only used by the TinyLFU policy
+        Ring                      window;
+        volatile FrequencySketch  sketch;
+        int                       sketchCapacity;
+        TimerWheel                wheel;
+
+        void unlink(Node node) {
+            node.ring.unlink(node);
+            if (wheel != null)
+                wheel.deschedule(node);
+        }
+
+        /**
+         * Unlinks the clock victim of the ring, never choosing <code>exclude</code>
+         *
+         * @return the victim, or null if the ring holds nothing else
+         */
+        Node evict(Ring ring, Node exclude) {
+            Node victim = ring.sweep(exclude);
+            if (victim != null)
+                unlink(victim);
+            return victim;
+        }
+
+        Node evictAny(Node exclude) {
+            Node victim = evict(main, exclude);
+            if (victim == null && window != null)
+                victim = evict(window, exclude);
+            return victim;
+        }
+
+        void clear() {
+            main.clear();
+            if (window != null)
+                window.clear();
+            wheel = null;
+        }
+    }
+
+    /**
+     * Background thread advancing the timer wheels. It only holds a weak reference to the cache so an unclosed cache can still be garbage collected, at
+     * which point the thread exits.
+     */
+    static final class ExpirySweeper extends LifecycleThread {
+        private final WeakReference<CacheConcurrentImpl> cacheRef;
+        private volatile boolean                         stopped = false;
+
+        ExpirySweeper(CacheConcurrentImpl cache) {
+            super("CacheConcurrentImpl-expiry-" + Integer.toHexString(System.identityHashCode(cache)));
+            cacheRef = new WeakReference<CacheConcurrentImpl>(cache);
+            setDaemon(true);
+        }
+
+        @Override
+        public void runLifecycleThread() {
+            setRunning(true);
+            try {
+                while (!stopped) {
+                    TimeUnit.NANOSECONDS.sleep(EXPIRY_TICK_NANOS);
+                    CacheConcurrentImpl cache = cacheRef.get();
+                    if (cache == null)
+                        break;
+                    try {
+                        cache.expireEntries();
+                    } catch (RuntimeException e) {
+                        cache.logger.warn("Caught exception expiring cache entries", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+            setRunning(false);
+        }
+
+        void shutdown() {
+            stopped = true;
+            interrupt();
+        }
+    }
+
+    protected volatile int                 maxsize;
+    protected volatile int                 cacheTimeOut;
+    protected volatile boolean             slidingExpiration;
+    protected final int                    evictionPolicy;
+    volatile int                           windowLimit;
+    final CacheStats                       stats         = new CacheStats();
+    final CacheLoadCoordinator             loads         = new CacheLoadCoordinator();
+    final RemovalNotifier                  removals      = new RemovalNotifier();
+    volatile double                        refreshAhead;
+    volatile Executor                      refreshExecutor;
+    final long                             origin        = System.nanoTime();
+    private volatile ExpirySweeper         sweeper;
+    private volatile boolean               closed;
+    final ConcurrentHashMap<Object, Node>  map;
+    final Segment[]                        segments;
+    final int                              segmentShift;
+    final AtomicInteger                    size          = new AtomicInteger();
+    final AtomicLong                       weightedSize  = new AtomicLong();
+    volatile long                          maximumWeight = Long.MAX_VALUE;
+    volatile CacheWeigher                  weigher;
+    final AtomicInteger                    evictCursor   = new AtomicInteger();
+
+    Logger                                 logger        = LoggerFactory.getLogger(getClass());
+
+    /**
+     * <p>
+     * Constructor for CacheConcurrentImpl.
+     * </p>
+     *
+     * @since 3.0.2
+     */
+    public CacheConcurrentImpl() {
+        this(100, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for CacheConcurrentImpl.
+     *
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            entry time to live in seconds
+     * @since 3.0.2
+     */
+    public CacheConcurrentImpl(int i, int timeOut) {
+        this(i, timeOut, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor for CacheConcurrentImpl.
+     *
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            entry time to live in seconds
+     * @param concurrencyLevel
+     *            the estimated number of concurrently writing threads, rounded up to a power of two to give the number of segments
+     * @since 3.0.2
+     */
+    public CacheConcurrentImpl(int i, int timeOut, int concurrencyLevel) {
+        this(i, timeOut, concurrencyLevel, CacheConstant.CACHE_EVICTION_LRU);
+    }
+
+    /**
+     * Constructor for CacheConcurrentImpl.
+     *
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            entry time to live in seconds
+     * @param concurrencyLevel
+     *            the estimated number of concurrently writing threads, rounded up to a power of two to give the number of segments
+     * @param evictionPolicy
+     *            {@link CacheConstant#CACHE_EVICTION_LRU} or {@link CacheConstant#CACHE_EVICTION_TINY_LFU}
+     * @since 3.0.2
+     */
+    public CacheConcurrentImpl(int i, int timeOut, int concurrencyLevel, int evictionPolicy) {
+        if (concurrencyLevel < 1)
+            throw new IllegalArgumentException("Concurrency level must be positive: " + concurrencyLevel);
+        int shift = 0;
+        int segmentCount = 1;
+        while (segmentCount < concurrencyLevel) {
+            segmentCount <<= 1;
+            shift++;
+        }
+        segmentShift = 32 - shift;
+        segments = new Segment[segmentCount];
+        for (int s = 0; s < segmentCount; s++)
+            segments[s] = new Segment();
+        maxsize = i;
+        cacheTimeOut = timeOut;
+        switch (evictionPolicy) {
+            case CacheConstant.CACHE_EVICTION_LRU:
+                break;
+            case CacheConstant.CACHE_EVICTION_TINY_LFU:
+                for (Segment segment : segments)
+                    segment.window = new Ring();
+                resizeAdmission();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown eviction policy: " + evictionPolicy);
+        }
+        this.evictionPolicy = evictionPolicy;
+        map = new ConcurrentHashMap<Object, Node>(Math.min(Math.max(i, 16), 1 << 16), 0.75f, segmentCount);
+    }
+
+    /**
+     * Method expanseCapacity.
+     *
+     * @param newSize
+     *            int
+     * @since 3.0.2
+     */
+    public void expanseCapacity(int newSize) {
+        if (newSize > maxsize) {
+            maxsize = newSize;
+            resizeAdmission();
+        }
+    }
+
+    /**
+     * Method elements.
+     *
+     * @return Enumeration<Object>
+     * @since 3.0.2
+     */
+    public Enumeration<Object> elements() {
+        List<Object> values = new ArrayList<Object>(map.size());
+        for (Node node : map.values())
+            values.add(node.value);
+        return Collections.enumeration(values);
+    }
+
+    /**
+     * Method keys.
+     *
+     * @return Enumeration<Object>
+     * @since 3.0.2
+     */
+    public Enumeration<Object> keys() {
+        return map.keys();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object get(Object key) {
+        long start = stats.startTimer();
+        Object value = getValue(key);
+        stats.recordLatency(CacheStats.Operation.GET, start);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Concurrent misses of the same key share a single load. If refresh-ahead is enabled and the entry is close to expiring, it is returned and reloaded
+     * in the background, keeping its time to live.
+     */
+    @Override
+    public Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        if (value == null)
+            return loads.load(key, loader, this::get, this::put);
+        double ahead = refreshAhead;
+        if (ahead > 0) {
+            Node node = map.get(key);
+            if (node != null && node.ttl != NEVER && node.expiresAt - System.nanoTime() < (long) (node.ttl * ahead)) {
+                long ttl = node.ttl;
+                loads.refresh(key, loader, (k, v) -> put(k, v, ttl), refreshExecutor);
+            }
+        }
+        return value;
+    }
+
+    private Object getValue(Object key) {
+        if (evictionPolicy == CacheConstant.CACHE_EVICTION_TINY_LFU)
+            segmentFor(key).sketch.increment(key);
+        Node node = map.get(key);
+        if (node == null) {
+            stats.recordMiss();
+            return null;
+        }
+        long ttl = node.ttl;
+        if (ttl != NEVER) {
+            long now = System.nanoTime();
+            if (node.isExpired(now)) {
+                expireNode(node);
+                stats.recordMiss();
+                return null;
+            }
+            // the wheel reschedules lazily, so sliding only costs a write here; skip even that unless the deadline moves noticeably
+            if (slidingExpiration && now + ttl - node.expiresAt > Math.min(EXPIRY_TICK_NANOS, ttl >>> 4))
+                node.expiresAt = now + ttl;
+        }
+        // avoid dirtying the cache line when the bit is already set
+        if (!node.referenced)
+            node.referenced = true;
+        stats.recordHit();
+        return node.value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry) {
+        return put(key, entry, defaultTtl());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A <code>ttl</code> of {@link Long#MAX_VALUE} means the entry never expires.
+     */
+    @Override
+    public Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        return put(key, entry, ttl == Long.MAX_VALUE ? NEVER : unit.toNanos(ttl));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The entries are grouped by segment so that each segment lock is taken once.
+     */
+    @Override
+    public void putAll(Map<?, ?> entries) {
+        long ttl = defaultTtl();
+        List<List<Map.Entry<?, ?>>> bySegment = new ArrayList<List<Map.Entry<?, ?>>>(Collections.nCopies(segments.length, (List<Map.Entry<?, ?>>) null));
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            if (entry.getValue() == null)
+                throw new NullPointerException();
+            int index = segmentIndex(entry.getKey());
+            if (bySegment.get(index) == null)
+                bySegment.set(index, new ArrayList<Map.Entry<?, ?>>());
+            bySegment.get(index).add(entry);
+        }
+        for (int index = 0; index < segments.length; index++) {
+            if (bySegment.get(index) == null)
+                continue;
+            Segment segment = segments[index];
+            segment.lock();
+            try {
+                long now = System.nanoTime();
+                for (Map.Entry<?, ?> entry : bySegment.get(index))
+                    putLocked(segment, entry.getKey(), entry.getValue(), ttl, now);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    private Object put(Object key, Object entry, long ttl) {
+        if (entry == null)
+            throw new NullPointerException();
+        long start = stats.startTimer();
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            return putLocked(segment, key, entry, ttl, System.nanoTime());
+        } finally {
+            segment.unlock();
+            stats.recordLatency(CacheStats.Operation.PUT, start);
+        }
+    }
+
+    /**
+     * Inserts or updates the entry. Called with the segment lock held.
+     */
+    private Object putLocked(Segment segment, Object key, Object entry, long ttl, long now) {
+        stats.recordPut();
+        int weight = weigh(key, entry);
+        Node node = map.get(key);
+        if (weight > maximumWeight) {
+            // could never fit, so do not flush the cache trying to make room
+            if (node == null)
+                return null;
+            map.remove(key);
+            segment.unlink(node);
+            removed(node, RemovalCause.SIZE);
+            stats.recordEviction();
+            return node.value;
+        }
+        if (node != null) {
+            Object old = node.value;
+            node.value = entry;
+            node.referenced = true;
+            weightedSize.addAndGet(weight - node.weight);
+            node.weight = weight;
+            setExpiry(segment, node, ttl, now);
+            removals.notify(key, old, RemovalCause.REPLACED);
+            while (isOverCapacity() && evict(segment, node, null))
+                ;
+            return old;
+        }
+        node = new Node(key, entry);
+        node.weight = weight;
+        map.put(key, node);
+        setExpiry(segment, node, ttl, now);
+        Node candidate = null;
+        if (segment.window == null) {
+            segment.main.link(node);
+        } else {
+            segment.sketch.increment(key);
+            segment.window.link(node);
+            candidate = overflowWindow(segment, node);
+        }
+        size.incrementAndGet();
+        weightedSize.addAndGet(weight);
+        while (isOverCapacity() && evict(segment, node, candidate))
+            candidate = null;
+        return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object remove(Object key) {
+        long start = stats.startTimer();
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            Node node = map.remove(key);
+            if (node == null)
+                return null;
+            segment.unlink(node);
+            removed(node, RemovalCause.EXPLICIT);
+            stats.recordRemoval();
+            return node.value;
+        } finally {
+            segment.unlock();
+            stats.recordLatency(CacheStats.Operation.REMOVE, start);
+        }
+    }
+
+    /**
+     * Evicts one entry chosen by the clock of the next non-empty segment
+     *
+     * @since 3.0.2
+     */
+    @Override
+    public void removeTail() {
+        evictOne();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dumpKey() {
+        logger.debug("size={} {}", size.get(), stats);
+        if (logger.isTraceEnabled())
+            logger.trace("hash={}", toString());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        for (Segment segment : segments)
+            segment.lock();
+        try {
+            if (removals.hasListeners()) {
+                for (Node node : map.values())
+                    removals.notify(node.key, node.value, RemovalCause.EXPLICIT);
+            }
+            map.clear();
+            for (Segment segment : segments)
+                segment.clear();
+            size.set(0);
+            weightedSize.set(0);
+        } finally {
+            for (Segment segment : segments)
+                segment.unlock();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(Object objKey, Object objValue) {
+        put(objKey, objValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assertMaxCacheSize(int maxSize) {
+        assertMaxCacheSize(maxSize, Integer.MAX_VALUE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assertMaxCacheSize(int maxSize, int timeOut) {
+        this.maxsize = maxSize;
+        this.cacheTimeOut = timeOut;
+        resizeAdmission();
+        while (isOverCapacity() && evictOne())
+            ;
+    }
+
+    /**
+     * Bounds the cache by the total weight of its entries, in addition to the maximum number of entries. Existing entries are reweighed, then evicted until
+     * the cache is within both bounds.
+     *
+     * @param maximumWeight
+     *            the maximum total weight, or {@link Long#MAX_VALUE} for no weight bound
+     * @param weigher
+     *            the weigher, or null to count each entry as weighing 1
+     * @since 3.0.2
+     */
+    public void setMaximumWeight(long maximumWeight, CacheWeigher weigher) {
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException("Maximum weight must not be negative: " + maximumWeight);
+        for (Segment segment : segments)
+            segment.lock();
+        try {
+            this.weigher = weigher;
+            this.maximumWeight = maximumWeight;
+            long total = 0;
+            for (Node node : map.values()) {
+                node.weight = weigh(node.key, node.value);
+                total += node.weight;
+            }
+            weightedSize.set(total);
+        } finally {
+            for (Segment segment : segments)
+                segment.unlock();
+        }
+        while (isOverCapacity() && evictOne())
+            ;
+    }
+
+    /**
+     * <p>
+     * getMaximumWeight.
+     * </p>
+     *
+     * @return the maximum total weight, {@link Long#MAX_VALUE} if the cache is only bounded by entry count
+     * @since 3.0.2
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * <p>
+     * getWeightedSize.
+     * </p>
+     *
+     * @return the current total weight of the entries, equal to {@link #size()} when no weigher is set
+     * @since 3.0.2
+     */
+    public long getWeightedSize() {
+        return weightedSize.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (Node node : map.values())
+            sb.append(node).append("; ");
+        sb.append(']');
+        sb.append('(').append(size()).append(')');
+        return sb.toString();
+    }
+
+    /**
+     * Stops the background expiry thread for good. Entries remain readable and still expire lazily when read.
+     *
+     * @since 3.0.2
+     */
+    @Override
+    public void close() {
+        ExpirySweeper current;
+        synchronized (this) {
+            closed = true;
+            current = sweeper;
+            sweeper = null;
+        }
+        if (current != null)
+            current.shutdown();
+    }
+
+    /**
+     * <p>
+     * getHitCount.
+     * </p>
+     *
+     * @return the number of reads that found a live entry
+     * @since 3.0.2
+     */
+    public long getHitCount() {
+        return stats.getHitCount();
+    }
+
+    /**
+     * <p>
+     * getMissCount.
+     * </p>
+     *
+     * @return the number of reads that found no entry or an expired one
+     * @since 3.0.2
+     */
+    public long getMissCount() {
+        return stats.getMissCount();
+    }
+
+    /**
+     * <p>
+     * getHitRatio.
+     * </p>
+     *
+     * @return the fraction of reads that were hits, or 1.0 if there were no reads
+     * @since 3.0.2
+     */
+    public double getHitRatio() {
+        return stats.getHitRatio();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The listener is notified from within the segment lock, which only costs handing the notification to the executor.
+     */
+    @Override
+    public void addRemovalListener(CacheRemovalListener listener, Executor executor) {
+        removals.add(listener, executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeRemovalListener(CacheRemovalListener listener) {
+        removals.remove(listener);
+    }
+
+    /**
+     * Enables refresh-ahead for {@link #get(Object, CacheLoader)}: an entry read when less than <code>fraction</code> of its time to live remains is
+     * reloaded in the background.
+     *
+     * @param fraction
+     *            between 0 and 1, for example 0.2 to refresh during the last fifth of the time to live; 0 disables refresh-ahead
+     * @param executor
+     *            runs the reloads, or null for the common fork-join pool; loaders that block on the network should be given a dedicated executor
+     * @since 3.0.2
+     */
+    public void setRefreshAhead(double fraction, Executor executor) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("Refresh-ahead fraction must be between 0 and 1: " + fraction);
+        this.refreshExecutor = executor;
+        this.refreshAhead = fraction;
+    }
+
+    /**
+     * <p>
+     * getRefreshAhead.
+     * </p>
+     *
+     * @return the fraction of the time to live during which entries are refreshed ahead of expiry, 0 if disabled
+     * @since 3.0.2
+     */
+    public double getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * <p>
+     * getEvictionPolicy.
+     * </p>
+     *
+     * @return {@link CacheConstant#CACHE_EVICTION_LRU} or {@link CacheConstant#CACHE_EVICTION_TINY_LFU}
+     * @since 3.0.2
+     */
+    public int getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * <p>
+     * isSlidingExpiration.
+     * </p>
+     *
+     * @return <code>true</code> if reading an entry extends its deadline by its time to live
+     * @since 3.0.2
+     */
+    public boolean isSlidingExpiration() {
+        return slidingExpiration;
+    }
+
+    /**
+     * <p>
+     * setSlidingExpiration.
+     * </p>
+     *
+     * @param slidingExpiration
+     *            <code>true</code> to have every read extend the entry's deadline by its time to live
+     * @since 3.0.2
+     */
+    public void setSlidingExpiration(boolean slidingExpiration) {
+        this.slidingExpiration = slidingExpiration;
+    }
+
+    /**
+     * Advances the timer wheel of every segment and removes the entries that have expired. This is normally called once per tick by the background expiry
+     * thread.
+     *
+     * @return the number of entries removed
+     * @since 3.0.2
+     */
+    public int expireEntries() {
+        int removed = 0;
+        long now = System.nanoTime();
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                if (segment.wheel == null)
+                    continue;
+                for (Node node : segment.wheel.advance(now)) {
+                    if (map.remove(node.key, node)) {
+                        segment.unlink(node);
+                        removed(node, RemovalCause.EXPIRED);
+                        stats.recordExpiration();
+                        removed++;
+                    }
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the segment owning the key. The hash is mixed and the segment taken from its high bits so that keys with poor hash codes still stripe evenly
+     */
+    final Segment segmentFor(Object key) {
+        return segments[segmentIndex(key)];
+    }
+
+    final int segmentIndex(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x9E3779B9;
+        return segments.length == 1 ? 0 : h >>> segmentShift;
+    }
+
+    private long defaultTtl() {
+        int timeOut = cacheTimeOut;
+        return timeOut == Integer.MAX_VALUE ? NEVER : TimeUnit.SECONDS.toNanos(timeOut);
+    }
+
+    /**
+     * Removes the node if it is still mapped to its key and has not been refreshed by a concurrent write
+     */
+    void expireNode(Node node) {
+        Segment segment = segmentFor(node.key);
+        segment.lock();
+        try {
+            if (node.isExpired(System.nanoTime()) && map.remove(node.key, node)) {
+                segment.unlink(node);
+                removed(node, RemovalCause.EXPIRED);
+                stats.recordExpiration();
+            }
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Sets the time to live of the node and (re)schedules it on the segment's wheel. Called with the segment lock held.
+     */
+    private void setExpiry(Segment segment, Node node, long ttl, long now) {
+        node.ttl = ttl;
+        if (ttl == NEVER) {
+            if (segment.wheel != null)
+                segment.wheel.deschedule(node);
+            return;
+        }
+        node.expiresAt = now + Math.max(ttl, 0);
+        if (segment.wheel == null)
+            segment.wheel = new TimerWheel(origin, EXPIRY_TICK_NANOS);
+        segment.wheel.schedule(node);
+        if (sweeper == null)
+            startSweeper();
+    }
+
+    private synchronized void startSweeper() {
+        // once closed, entries only expire lazily when read
+        if (sweeper != null || closed)
+            return;
+        sweeper = new ExpirySweeper(this);
+        sweeper.start();
+    }
+
+    /**
+     * Moves the clock victim of the admission window into the main region if the window is over its limit. Called with the segment lock held.
+     *
+     * @return the node moved into the main region, or null
+     */
+    private Node overflowWindow(Segment segment, Node added) {
+        if (segment.window.count <= windowLimit)
+            return null;
+        Node candidate = segment.window.sweep(added);
+        if (candidate == null)
+            return null;
+        segment.window.unlink(candidate);
+        segment.main.link(candidate);
+        return candidate;
+    }
+
+    /**
+     * Called with the lock of <code>segment</code> held while <code>added</code> has the cache over capacity. The victim is taken from the inserting
+     * segment, which samples the key space uniformly; other segments are only tried, never waited on, so no thread ever blocks on a second segment lock.
+     * Under TinyLFU, a <code>candidate</code> that just left the admission window only stays if it is estimated to be more popular than the main region's
+     * victim.
+     *
+     * @return false if no entry could be evicted
+     */
+    private boolean evict(Segment segment, Node added, Node candidate) {
+        Node victim;
+        if (candidate != null) {
+            victim = segment.main.sweep(candidate);
+            if (victim == null || segment.sketch.frequency(candidate.key) <= segment.sketch.frequency(victim.key))
+                victim = candidate;
+            segment.unlink(victim);
+        } else {
+            victim = segment.evictAny(added);
+        }
+        if (victim != null) {
+            map.remove(victim.key, victim);
+            removed(victim, RemovalCause.SIZE);
+            stats.recordEviction();
+            return true;
+        }
+        for (Segment other : segments) {
+            if (other == segment || !other.tryLock())
+                continue;
+            try {
+                victim = other.evictAny(null);
+                if (victim != null) {
+                    map.remove(victim.key, victim);
+                    removed(victim, RemovalCause.SIZE);
+                    stats.recordEviction();
+                    return true;
+                }
+            } finally {
+                other.unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts one entry chosen by the clock of the next non-empty segment
+     *
+     * @return false if the cache is empty
+     */
+    private boolean evictOne() {
+        for (int attempt = 0; attempt < segments.length; attempt++) {
+            Segment segment = segments[evictCursor.getAndIncrement() & (segments.length - 1)];
+            segment.lock();
+            try {
+                Node victim = segment.evictAny(null);
+                if (victim != null) {
+                    map.remove(victim.key, victim);
+                    removed(victim, RemovalCause.SIZE);
+                    stats.recordEviction();
+                    return true;
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+        return false;
+    }
+
+    private boolean isOverCapacity() {
+        return size.get() > maxsize || weightedSize.get() > maximumWeight;
+    }
+
+    private int weigh(Object key, Object value) {
+        CacheWeigher current = weigher;
+        if (current == null)
+            return 1;
+        int weight = current.weigh(key, value);
+        if (weight < 0)
+            throw new IllegalStateException("Negative weight " + weight + " for key " + key);
+        return weight;
+    }
+
+    /**
+     * Updates the size and weight after a node left the cache. Called with the segment lock held.
+     */
+    private void removed(Node node, RemovalCause cause) {
+        size.decrementAndGet();
+        weightedSize.addAndGet(-node.weight);
+        removals.notify(node.key, node.value, cause);
+    }
+
+    /**
+     * Sizes the admission windows and frequency sketches of the TinyLFU policy to the current maximum size
+     */
+    private void resizeAdmission() {
+        if (segments[0].window == null)
+            return;
+        int perSegment = Math.max(1, maxsize / segments.length);
+        windowLimit = Math.max(1, perSegment / 100);
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                // a sketch sized for a smaller cache would saturate, but a larger one can be kept
+                if (segment.sketch == null || perSegment > segment.sketchCapacity) {
+                    segment.sketch = new FrequencySketch(perSegment);
+                    segment.sketchCapacity = perSegment;
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+}
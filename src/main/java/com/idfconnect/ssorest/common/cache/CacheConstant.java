@@ -15,6 +15,56 @@ public class CacheConstant {
     public static final int CACHE_KEY_TYPE_BASE64 = 3;    
     /** Constant <code>CACHE_KEY_TYPE_STRING=4</code> */
     public static final int CACHE_KEY_TYPE_STRING = 4;
+    /** Constant <code>CACHE_KEY_TYPE_HASHED=5</code>, 128-bit hash of the key, see {@link HashedKeyEncoder} */
+    public static final int CACHE_KEY_TYPE_HASHED = 5;
+    /** Constant <code>CACHE_KEY_ENCODER_CACHE_SIZE_DEFAULT=10000</code>, number of encoded keys remembered by a {@link HashedKeyEncoder} */
+    public static final int CACHE_KEY_ENCODER_CACHE_SIZE_DEFAULT = 10000;
     /** Constant <code>REDIS_PORT_DEFAULT=6379</code> */
     public static final int REDIS_PORT_DEFAULT = 6379;
+    /** Constant <code>REDIS_POOL_MAX_TOTAL_DEFAULT=64</code> */
+    public static final int REDIS_POOL_MAX_TOTAL_DEFAULT = 64;
+    /** Constant <code>REDIS_POOL_MAX_IDLE_DEFAULT=16</code> */
+    public static final int REDIS_POOL_MAX_IDLE_DEFAULT = 16;
+    /** Constant <code>REDIS_POOL_MIN_IDLE_DEFAULT=0</code> */
+    public static final int REDIS_POOL_MIN_IDLE_DEFAULT = 0;
+    /** Constant <code>REDIS_POOL_MAX_WAIT_MILLIS_DEFAULT=2000</code> */
+    public static final long REDIS_POOL_MAX_WAIT_MILLIS_DEFAULT = 2000L;
+    /** Constant <code>REDIS_KEY_PREFIX_DEFAULT="ssorest:"</code>, namespace of the Redis keys of a {@link CacheJedisImpl} using hashed keys */
+    public static final String REDIS_KEY_PREFIX_DEFAULT = "ssorest:";
+    /** Constant <code>REDIS_SCAN_COUNT_DEFAULT=1000</code>, number of keys SCAN is asked to walk per call */
+    public static final int REDIS_SCAN_COUNT_DEFAULT = 1000;
+    /** Constant <code>REDIS_ASYNC_BATCH_MAX_DEFAULT=256</code>, most asynchronous commands sent to Redis in one round trip */
+    public static final int REDIS_ASYNC_BATCH_MAX_DEFAULT = 256;
+    /** Constant <code>REDIS_ASYNC_QUEUE_CAPACITY_DEFAULT=10000</code>, most asynchronous commands waiting to be sent before new ones are rejected */
+    public static final int REDIS_ASYNC_QUEUE_CAPACITY_DEFAULT = 10000;
+    /** Constant <code>REDIS_INVALIDATION_CHANNEL_DEFAULT="ssorest:cache:invalidate"</code> */
+    public static final String REDIS_INVALIDATION_CHANNEL_DEFAULT = "ssorest:cache:invalidate";
+    /** Constant <code>REDIS_HEALTH_CHECK_INTERVAL_MILLIS_DEFAULT=5000</code>, milliseconds between two background refreshes of a Redis topology */
+    public static final long REDIS_HEALTH_CHECK_INTERVAL_MILLIS_DEFAULT = 5000L;
+    /** Constant <code>REDIS_CLUSTER_SLOTS=16384</code>, number of hash slots of a Redis Cluster */
+    public static final int REDIS_CLUSTER_SLOTS = 16384;
+    /** Constant <code>REDIS_READ_ROUND_ROBIN=1</code>, reads go to each replica in turn */
+    public static final int REDIS_READ_ROUND_ROBIN = 1;
+    /** Constant <code>REDIS_READ_LEAST_OUTSTANDING=2</code>, reads go to the replica with the fewest requests in flight */
+    public static final int REDIS_READ_LEAST_OUTSTANDING = 2;
+    /** Constant <code>REDIS_READ_EWMA=3</code>, reads go to the replica with the lowest moving average latency weighted by its requests in flight */
+    public static final int REDIS_READ_EWMA = 3;
+    /** Constant <code>REDIS_REPLICA_EJECT_FAILURES_DEFAULT=3</code>, consecutive failures after which a replica is taken out of rotation */
+    public static final int REDIS_REPLICA_EJECT_FAILURES_DEFAULT = 3;
+    /** Constant <code>REDIS_REPLICA_EJECT_MILLIS_DEFAULT=10000</code>, milliseconds before an ejected replica is first probed again */
+    public static final long REDIS_REPLICA_EJECT_MILLIS_DEFAULT = 10000L;
+    /** Constant <code>REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT=500</code>, milliseconds allowed to open a connection to Redis */
+    public static final int REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT = 500;
+    /** Constant <code>REDIS_SO_TIMEOUT_MILLIS_DEFAULT=1000</code>, milliseconds allowed for Redis to answer a command */
+    public static final int REDIS_SO_TIMEOUT_MILLIS_DEFAULT = 1000;
+    /** Constant <code>REDIS_BREAKER_FAILURE_THRESHOLD_DEFAULT=5</code>, consecutive failures after which calls to Redis are short-circuited */
+    public static final int REDIS_BREAKER_FAILURE_THRESHOLD_DEFAULT = 5;
+    /** Constant <code>REDIS_BREAKER_OPEN_MILLIS_DEFAULT=5000</code>, milliseconds calls are short-circuited before Redis is probed again */
+    public static final long REDIS_BREAKER_OPEN_MILLIS_DEFAULT = 5000L;
+    /** Constant <code>REDIS_BREAKER_PENDING_REMOVALS_MAX=10000</code>, most removals remembered while Redis is short-circuited, to be replayed once it recovers */
+    public static final int REDIS_BREAKER_PENDING_REMOVALS_MAX = 10000;
+    /** Constant <code>CACHE_EVICTION_LRU=1</code>, approximate LRU using the CLOCK algorithm */
+    public static final int CACHE_EVICTION_LRU = 1;
+    /** Constant <code>CACHE_EVICTION_TINY_LFU=2</code>, W-TinyLFU: a small LRU window with frequency-based admission to the main region */
+    public static final int CACHE_EVICTION_TINY_LFU = 2;
 }
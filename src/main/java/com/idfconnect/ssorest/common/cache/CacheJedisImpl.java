@@ -2,8 +2,24 @@ package com.idfconnect.ssorest.common.cache;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -11,14 +27,70 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.idfconnect.ssorest.common.thread.LifecycleThread;
 import com.idfconnect.ssorest.common.validator.InetAddressValidator;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.Pool;
 
 /**
  * <p>
  * CacheJedisImpl class.
  * </p>
+ * <p>
+ * Reads go to the replicas and writes to the master, each through a bounded {@link JedisPool}, so every request thread borrows its own connection
+ * instead of sharing a single non thread-safe {@link Jedis}. The pools are sized by the {@link JedisPoolConfig} given to the constructor, see
+ * {@link #defaultPoolConfig()}; when the replica and master are the same server they share one pool.
+ * </p>
+ * <p>
+ * Reads are balanced over every endpoint with the policy set by {@link #setReadBalancing(int)}, by default {@link CacheConstant#REDIS_READ_EWMA}.
+ * Endpoints that fail {@link CacheConstant#REDIS_REPLICA_EJECT_FAILURES_DEFAULT} reads in a row, or do not answer when connecting, are ejected and probed
+ * again in the background.
+ * </p>
+ * <p>
+ * Keys are namespaced by a prefix, {@link CacheConstant#REDIS_KEY_PREFIX_DEFAULT} unless set with {@link #setKeyPrefix(String)}, so several caches
+ * can share a Redis database: {@link #size()} and {@link #clear()} walk the prefixed keys incrementally with SCAN, never blocking the server for longer
+ * than one batch. A cache given an empty prefix owns its whole database instead, and they are answered by DBSIZE and FLUSHDB.
+ * </p>
+ * <p>
+ * Values are converted to bytes by a {@link CacheValueCodec}, see {@link #setValueCodec(CacheValueCodec)}. Keys are stored as their 128-bit hash by a
+ * {@link HashedKeyEncoder}, see {@link #setKeyEncoder(CacheKeyEncoder)}, unless another key type is given to the constructor; the key prefix is their
+ * namespace. {@link CacheConstant#CACHE_KEY_TYPE_HASH_CODE} was the default before, and is only safe for few keys. Given one of the older key types, the
+ * cache has no prefix unless one is set, so that with the default {@link JsonValueCodec} it reads and writes the keys and values of older versions.
+ * </p>
+ * <p>
+ * Given a {@link RedisTopology}, such as a {@link RedisSentinelTopology} or a {@link RedisClusterTopology}, every command is routed by its key: writes to
+ * the master owning it and reads to one of its replicas, falling back to the master if the replica fails. Commands on several keys are split by server.
+ * Otherwise the static master and endpoint list given to the constructor are used. In neither case does the cache reconfigure replication on the
+ * servers.
+ * </p>
+ * <p>
+ * {@link #getAsync(Object)}, {@link #putAsync(Object, Object)} and {@link #removeAsync(Object)} queue their command for a background
+ * {@link LifecycleThread}, which sends everything that has queued up while the previous batch was in flight in one round trip: the reads as a single
+ * MGET on the replica and the writes as one pipeline on the master. A read of a key written earlier in the batch is held for the next round trip, so
+ * every read sees the writes submitted before it. The futures are completed on that thread, so callers should chain any slow work with
+ * the <code>...Async</code> methods of {@link CompletableFuture}.
+ * </p>
+ * <p>
+ * Connections time out after {@link CacheConstant#REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT} milliseconds and commands after
+ * {@link CacheConstant#REDIS_SO_TIMEOUT_MILLIS_DEFAULT}, unless other timeouts are given to the constructor. After
+ * {@link CacheConstant#REDIS_BREAKER_FAILURE_THRESHOLD_DEFAULT} consecutive failures the {@link CircuitBreaker} opens and every operation is served by
+ * a local fallback cache instead, so that request threads do not queue up behind a failing server. A background {@link LifecycleThread} then probes
+ * Redis every {@link CacheConstant#REDIS_BREAKER_OPEN_MILLIS_DEFAULT} milliseconds; once it answers, the removals and clears made meanwhile are
+ * replayed on it, the fallback is emptied and the breaker closes. Entries put during the outage only lived in the fallback and are not copied to Redis.
+ * </p>
  *
  * @author rsand
  * @since 1.4
@@ -26,22 +98,205 @@ import redis.clients.jedis.Jedis;
 public class CacheJedisImpl implements Cache {
     // TODO maxsize is unused
     //protected int     maxsize;
-    protected int     cacheTimeOut;
+    protected int                      cacheTimeOut;
+
+    protected volatile JedisPool       replica        = null;                                // for read
+    protected volatile JedisPool       master         = null;                                // for write
+    protected final RedisTopology      topology;
+    private volatile List<ReplicaPool> replicas       = Collections.emptyList();
+    private final ReplicaBalancer      balancer       = new ReplicaBalancer(CacheConstant.REDIS_READ_EWMA);
+    protected final JedisPoolConfig    poolConfig;
+    protected final int                connectTimeoutMillis;
+    protected final int                soTimeoutMillis;
+    protected volatile CircuitBreaker  breaker        = new CircuitBreaker();
+    protected volatile Cache           fallback;
+    private final Set<String>          pendingRemovals = ConcurrentHashMap.newKeySet();
+    private volatile boolean           pendingClear   = false;
+    protected Gson                     gson           = new Gson();
+    protected volatile CacheValueCodec codec          = new JsonValueCodec(gson);
+    protected final CacheStats         stats          = new CacheStats(true);
+    final CacheLoadCoordinator         loads          = new CacheLoadCoordinator();
+    List<String>                       endPoints;
+    protected String                   masterEndPoint = null;
+    protected String                   masterHost     = null;
+    protected int                      masterPort     = CacheConstant.REDIS_PORT_DEFAULT;
+    protected String                   slaveHost      = null;
+    protected int                      slavePort      = CacheConstant.REDIS_PORT_DEFAULT;
+    protected boolean                  slaveRunning   = false;
+    protected boolean                  masterRunning  = false;
+    protected boolean                  isConnected    = false;
 
-    protected Jedis   replica        = null;                               // for read
-    protected Jedis   master         = null;                               // for write
-    protected Gson    gson           = null;
-    List<String>      endPoints;
-    protected String  masterEndPoint = null;
-    protected String  masterHost     = null;
-    protected int     masterPort     = CacheConstant.REDIS_PORT_DEFAULT;
-    protected String  slaveHost      = null;
-    protected int     slavePort      = CacheConstant.REDIS_PORT_DEFAULT;
-    protected boolean slaveRunning   = false;
-    protected boolean masterRunning  = false;
-    protected boolean isConnected    = false;
+    private volatile CommandBatcher    batcher;
+    private volatile boolean           closed         = false;
+    private volatile RecoveryProbe     probe;
 
-    Logger            logger         = LoggerFactory.getLogger(getClass());
+    Logger                             logger         = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Asynchronous command waiting to be sent
+     */
+    static final class Command {
+        static final int                GET     = 0;
+        static final int                PUT     = 1;
+        static final int                REMOVE  = 2;
+
+        final int                       type;
+        final byte[]                    key;
+        final byte[]                    value;
+        final int                       seconds;
+        final Object                    entry;
+        final long                      start;
+        final CompletableFuture<Object> future  = new CompletableFuture<Object>();
+
+        Command(int type, byte[] key, byte[] value, int seconds, Object entry, long start) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.seconds = seconds;
+            this.entry = entry;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Failure of a command for which no server was reachable, counting towards opening the breaker like any connection failure
+     */
+    static final class NotConnectedException extends JedisConnectionException {
+        private static final long serialVersionUID = 1L;
+
+        NotConnectedException() {
+            super("Not connected to Redis: no server answered when the cache connected");
+        }
+    }
+
+    /**
+     * Sends the queued asynchronous commands in batches of up to {@link CacheConstant#REDIS_ASYNC_BATCH_MAX_DEFAULT}
+     */
+    static final class CommandBatcher extends LifecycleThread {
+        private final CacheJedisImpl         cache;
+        private final BlockingQueue<Command> queue   = new LinkedBlockingQueue<Command>(CacheConstant.REDIS_ASYNC_QUEUE_CAPACITY_DEFAULT);
+        private volatile boolean             stopped = false;
+
+        CommandBatcher(CacheJedisImpl cache) {
+            super("CacheJedisImpl-io-" + Integer.toHexString(System.identityHashCode(cache)));
+            this.cache = cache;
+            setDaemon(true);
+        }
+
+        boolean submit(Command command) {
+            return !stopped && queue.offer(command);
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        public void runLifecycleThread() {
+            setRunning(true);
+            List<Command> batch = new ArrayList<Command>();
+            try {
+                // keep draining after shutdown so queued writes are not lost
+                while (!stopped || !queue.isEmpty()) {
+                    Command first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null)
+                        continue;
+                    batch.add(first);
+                    queue.drainTo(batch, CacheConstant.REDIS_ASYNC_BATCH_MAX_DEFAULT - 1);
+                    try {
+                        cache.execute(batch);
+                    } catch (RuntimeException e) {
+                        cache.logger.warn("Caught exception executing cache commands", e);
+                        for (Command command : batch)
+                            command.future.completeExceptionally(e);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+            Command command;
+            while ((command = queue.poll()) != null)
+                command.future.completeExceptionally(new IllegalStateException("Cache closed"));
+            setRunning(false);
+        }
+
+        void shutdown() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Probes an open circuit breaker once its open period is over
+     */
+    static final class RecoveryProbe extends LifecycleThread {
+        private final CacheJedisImpl cache;
+        private volatile boolean     stopped = false;
+
+        RecoveryProbe(CacheJedisImpl cache) {
+            super("CacheJedisImpl-recovery-" + Integer.toHexString(System.identityHashCode(cache)));
+            this.cache = cache;
+            setDaemon(true);
+        }
+
+        @Override
+        public void runLifecycleThread() {
+            setRunning(true);
+            try {
+                while (!stopped) {
+                    CircuitBreaker breaker = cache.breaker;
+                    synchronized (this) {
+                        // the state is read under the lock wake() takes, so a trip cannot be missed
+                        if (breaker.getState() != CircuitBreaker.State.OPEN)
+                            wait();
+                        else if (breaker.getRemainingOpenMillis() > 0)
+                            wait(breaker.getRemainingOpenMillis());
+                    }
+                    if (stopped)
+                        break;
+                    if (breaker.getRemainingOpenMillis() > 0 || !breaker.attemptProbe())
+                        continue;
+                    boolean recovered = false;
+                    try {
+                        recovered = cache.probe();
+                    } catch (RuntimeException e) {
+                        cache.logger.debug("Redis is still down: {}", e.getMessage());
+                    }
+                    breaker.completeProbe(recovered);
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+            setRunning(false);
+        }
+
+        synchronized void wake() {
+            notifyAll();
+        }
+
+        void shutdown() {
+            stopped = true;
+            interrupt();
+        }
+    }
+
+    /**
+     * Returns a pool configuration suited to servlet request threads: up to {@link CacheConstant#REDIS_POOL_MAX_TOTAL_DEFAULT} connections, of which up to
+     * {@link CacheConstant#REDIS_POOL_MAX_IDLE_DEFAULT} are kept idle, with borrowers waiting at most {@link CacheConstant#REDIS_POOL_MAX_WAIT_MILLIS_DEFAULT}
+     * milliseconds for a free connection
+     *
+     * @return a new {@link redis.clients.jedis.JedisPoolConfig} object.
+     * @since 3.0.2
+     */
+    public static JedisPoolConfig defaultPoolConfig() {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(CacheConstant.REDIS_POOL_MAX_TOTAL_DEFAULT);
+        config.setMaxIdle(CacheConstant.REDIS_POOL_MAX_IDLE_DEFAULT);
+        config.setMinIdle(CacheConstant.REDIS_POOL_MIN_IDLE_DEFAULT);
+        config.setMaxWaitMillis(CacheConstant.REDIS_POOL_MAX_WAIT_MILLIS_DEFAULT);
+        config.setBlockWhenExhausted(true);
+        return config;
+    }
 
     /**
      * <p>
@@ -55,7 +310,11 @@ public class CacheJedisImpl implements Cache {
         return isConnected;
     }
 
-    protected int keyType = CacheConstant.CACHE_KEY_TYPE_HASH_CODE;
+    protected int keyType = CacheConstant.CACHE_KEY_TYPE_HASHED;
+
+    protected volatile CacheKeyEncoder keyEncoder = new HashedKeyEncoder();
+
+    protected volatile String keyPrefix = CacheConstant.REDIS_KEY_PREFIX_DEFAULT;
 
     /**
      * <p>
@@ -83,12 +342,15 @@ public class CacheJedisImpl implements Cache {
      * @param endPoints
      *            a {@link java.util.List} object.
      * @param keyType
-     *            a int.
+     *            a int, the keys of a type other than {@link CacheConstant#CACHE_KEY_TYPE_HASHED} having no prefix unless one is set
      * @since 1.4
      */
     public CacheJedisImpl(String master, List<String> endPoints, int keyType) {
         this(500, Integer.MAX_VALUE, master, endPoints);
         this.keyType = keyType;
+        // the older key types are stored as older versions stored them
+        if (keyType != CacheConstant.CACHE_KEY_TYPE_HASHED)
+            keyPrefix = "";
     }
 
     /**
@@ -105,8 +367,55 @@ public class CacheJedisImpl implements Cache {
      * @since 1.4
      */
     public CacheJedisImpl(int i, int timeOut, String master, List<String> endPoints) {
+        this(i, timeOut, master, endPoints, defaultPoolConfig());
+    }
+
+    /**
+     * Constructor for Cache.
+     *
+     * @param i
+     *            int
+     * @param timeOut
+     *            int
+     * @param master
+     *            a {@link java.lang.String} object.
+     * @param endPoints
+     *            a {@link java.util.List} object.
+     * @param poolConfig
+     *            configuration of the replica and master connection pools
+     * @since 3.0.2
+     */
+    public CacheJedisImpl(int i, int timeOut, String master, List<String> endPoints, JedisPoolConfig poolConfig) {
+        this(i, timeOut, master, endPoints, poolConfig, CacheConstant.REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT, CacheConstant.REDIS_SO_TIMEOUT_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Constructor for Cache.
+     *
+     * @param i
+     *            int
+     * @param timeOut
+     *            int
+     * @param master
+     *            a {@link java.lang.String} object.
+     * @param endPoints
+     *            a {@link java.util.List} object.
+     * @param poolConfig
+     *            configuration of the replica and master connection pools
+     * @param connectTimeoutMillis
+     *            milliseconds allowed to open a connection
+     * @param soTimeoutMillis
+     *            milliseconds allowed for a server to answer a command
+     * @since 3.0.2
+     */
+    public CacheJedisImpl(int i, int timeOut, String master, List<String> endPoints, JedisPoolConfig poolConfig, int connectTimeoutMillis, int soTimeoutMillis) {
         // TODO maxsize
         //maxsize = i;
+        this.poolConfig = poolConfig;
+        this.topology = null;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.soTimeoutMillis = soTimeoutMillis;
+        fallback = new CacheConcurrentImpl(i, timeOut);
         cacheTimeOut = timeOut;
         this.endPoints = endPoints;
         this.masterEndPoint = master;
@@ -114,40 +423,191 @@ public class CacheJedisImpl implements Cache {
 
     }
 
+    /**
+     * Constructor for Cache.
+     *
+     * @param i
+     *            int
+     * @param timeOut
+     *            int
+     * @param topology
+     *            routes the commands to the servers, and is closed with the cache; its timeouts apply
+     * @since 3.0.2
+     */
+    public CacheJedisImpl(int i, int timeOut, RedisTopology topology) {
+        this.poolConfig = null;
+        this.topology = topology;
+        this.connectTimeoutMillis = CacheConstant.REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT;
+        this.soTimeoutMillis = CacheConstant.REDIS_SO_TIMEOUT_MILLIS_DEFAULT;
+        fallback = new CacheConcurrentImpl(i, timeOut);
+        cacheTimeOut = timeOut;
+        this.endPoints = Collections.emptyList();
+        isConnected = topology.refresh();
+        masterRunning = isConnected;
+    }
+
     /** {@inheritDoc} */
     @Override
     public Object put(Object key, Object entry) {
+        return put(key, entry, null, cacheTimeOut);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        return put(key, entry, null, seconds(ttl, unit));
+    }
+
+    /**
+     * Converts a time to live to seconds, the resolution of redis expiry
+     */
+    static int seconds(long ttl, TimeUnit unit) {
+        return (int) Math.min(Math.max(unit.toSeconds(ttl), 1L), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Puts an entry already encoded with the value codec, or encodes it if <code>valueBytes</code> is null
+     */
+    Object put(Object key, Object entry, byte[] valueBytes, int seconds) {
         // TODO set cache key in the entry?
-        String keyStr = toJedisKey(key);
-        String valueStr = gson.toJson(entry);
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest()) {
+            fallback.put(key, entry, seconds, TimeUnit.SECONDS);
+            return entry;
+        }
+        long start = stats.startTimer();
+        byte[] keyBytes = toJedisKey(key).getBytes(StandardCharsets.UTF_8);
+        if (valueBytes == null)
+            valueBytes = codec.encode(entry);
+        byte[] value = valueBytes;
+        stats.recordPut();
         try {
-            master.setex(keyStr, cacheTimeOut, valueStr);
+            write(keyBytes, jedis -> jedis.setex(keyBytes, seconds, value));
+            breaker.recordSuccess();
+            stats.recordLatency(CacheStats.Operation.PUT, start);
         } catch (Exception e) {
-            logger.warn("Caught exception putting object into cache", e);
-            if (tryEndPoints()) { // if able to reattempt the connection, do it
-                logger.warn("Current endpoint is down: {} ", e.getMessage());
-            } else { // if not use the local way
-                     // TODO localway here
-            }
+            logFailure(e, "Caught exception putting object into cache");
+            recover(e);
         }
         return entry;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * All entries are written to their master in a single pipelined round trip per master.
+     */
+    @Override
+    public void putAll(Map<?, ?> entries) {
+        putAll(entries, null);
+    }
+
+    /**
+     * Puts entries already encoded with the value codec, <code>encoded</code> holding their values in the iteration order of <code>entries</code>, or
+     * encodes them if <code>encoded</code> is null
+     */
+    void putAll(Map<?, ?> entries, byte[][] encoded) {
+        if (entries.isEmpty())
+            return;
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest()) {
+            fallback.putAll(entries);
+            return;
+        }
+        int seconds = cacheTimeOut;
+        CacheValueCodec codec = this.codec;
+        byte[][] keys = new byte[entries.size()][];
+        byte[][] values = new byte[keys.length][];
+        int n = 0;
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            keys[n] = toJedisKey(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+            values[n] = encoded != null ? encoded[n] : codec.encode(entry.getValue());
+            n++;
+        }
+        stats.recordPuts(keys.length);
+        for (Map.Entry<Pool<Jedis>, List<Integer>> route : route(keys, true).entrySet()) {
+            List<Integer> indexes = route.getValue();
+            List<Response<String>> replies = new ArrayList<Response<String>>(indexes.size());
+            try (Jedis jedis = borrow(route.getKey())) {
+                Pipeline pipeline = jedis.pipelined();
+                for (int i : indexes)
+                    replies.add(pipeline.setex(keys[i], seconds, values[i]));
+                pipeline.sync();
+                breaker.recordSuccess();
+            } catch (Exception e) {
+                logFailure(e, "Caught exception putting objects into cache");
+                recover(e);
+                continue;
+            }
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                try {
+                    replies.get(j).get();
+                } catch (JedisRedirectionException e) {
+                    try {
+                        redirect(e, jedis -> jedis.setex(keys[i], seconds, values[i]));
+                    } catch (Exception retry) {
+                        logFailure(retry, "Caught exception putting a redirected object into cache");
+                        recover(retry);
+                    }
+                } catch (JedisDataException e) {
+                    logFailure(e, "Caught exception putting objects into cache");
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * All keys are read with a single round trip per server: an MGET, or pipelined GETs when the keys are sharded.
+     */
+    @Override
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        if (!breaker.allowRequest())
+            return fallback.getAll(keys);
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        if (keys.isEmpty())
+            return result;
+        List<Object> keyList = new ArrayList<Object>(keys);
+        byte[][] keyBytes = new byte[keyList.size()][];
+        for (int i = 0; i < keyBytes.length; i++)
+            keyBytes[i] = toJedisKey(keyList.get(i)).getBytes(StandardCharsets.UTF_8);
+        CacheValueCodec codec = this.codec;
+        byte[][] values = fetch(keyBytes);
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (values[i] != null)
+                result.put(keyList.get(i), codec.decode(values[i]));
+        }
+        logger.trace("Retrieved {} of {} objects", result.size(), keyBytes.length);
+        stats.recordHits(result.size());
+        stats.recordMisses(keyBytes.length - result.size());
+        return result;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void dumpKey() {
-        logger.trace("hash={}", toString());
+        logger.debug("{} {}", toString(), stats);
     }
 
     /** {@inheritDoc} */
     @Override
     public boolean isEmpty() {
-        return replica.keys("*") == null || replica.keys("*").size() == 0;
+        if (!breaker.allowRequest())
+            return fallback.isEmpty();
+        for (Pool<Jedis> pool : shards(false)) {
+            try (Jedis jedis = borrow(pool)) {
+                if (keyPrefix.isEmpty() ? jedis.dbSize() > 0 : countKeys(jedis, 1) > 0)
+                    return false;
+            }
+        }
+        return true;
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void removeTail() {
+    public void removeTail() {
         // Iterator<Object> iterator = cache.iterator();
         // while (iterator.hasNext()) {
         // Object object = (Object) iterator.next();
@@ -159,67 +619,386 @@ public class CacheJedisImpl implements Cache {
 
     /** {@inheritDoc} */
     @Override
-    public synchronized Object remove(Object obj) {
-        String key = toJedisKey(obj);
-        Object value = get(obj);
-        master.del(key);
+    public Object remove(Object obj) {
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest()) {
+            // deleted from redis once it recovers
+            if (pendingRemovals.size() < CacheConstant.REDIS_BREAKER_PENDING_REMOVALS_MAX) {
+                pendingRemovals.add(toJedisKey(obj));
+            } else if (!pendingClear) {
+                logger.warn("Too many removals while redis is down, it will be cleared once it recovers");
+                pendingClear = true;
+            }
+            return fallback.remove(obj);
+        }
+        long start = stats.startTimer();
+        byte[] key = toJedisKey(obj).getBytes(StandardCharsets.UTF_8);
+        Object value = read(obj);
+        try {
+            if (write(key, jedis -> jedis.del(key)) > 0)
+                stats.recordRemoval();
+            breaker.recordSuccess();
+        } catch (RuntimeException e) {
+            recover(e);
+            throw e;
+        }
+        stats.recordLatency(CacheStats.Operation.REMOVE, start);
         return value;
     }
 
     /** {@inheritDoc} */
     @Override
     public Object get(Object key) {
+        long start = stats.startTimer();
+        Object value = read(key);
+        if (value == null)
+            stats.recordMiss();
+        else
+            stats.recordHit();
+        stats.recordLatency(CacheStats.Operation.GET, start);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Concurrent misses of the same key within this JVM share a single load; other nodes may load it too.
+     */
+    @Override
+    public Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        return value != null ? value : loads.load(key, loader, this::get, this::put);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Evictions and expirations happen on the Redis server and are not counted.
+     */
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Reads the key from its replica, retrying once on its master if that fails
+     */
+    private Object read(Object key) {
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest())
+            return fallback.get(key);
         String keyStr = toJedisKey(key);
-        String value = null;
+        byte[] keyBytes = keyStr.getBytes(StandardCharsets.UTF_8);
+        Pool<Jedis> pool = replicaFor(keyBytes);
+        Exception failure;
         try {
-            value = replica.get(keyStr);
-            logger.trace("Retrieved object: {}={} ", keyStr, value);
+            Object value = read(pool, keyStr, keyBytes);
+            breaker.recordSuccess();
+            return value;
         } catch (Exception e) {
-            logger.warn("Error retrieving value for {}", keyStr, e);
-            return null; // TODO fix this!
-            // if (tryEndPoints()){ // if able to reattempt the connection, do it
-            // value = cache.get(keyStr); // should never failed this time
-            // }
-            // else{ // if not use the local way
-            // //TODO localway here
-            // }
+            logFailure(e, "Error retrieving value for {}", keyStr);
+            RedisTopology current = topology;
+            if (current != null)
+                current.requestRefresh();
+            failure = e;
+        }
+        Pool<Jedis> master = masterFor(keyBytes);
+        if (master != null && master != pool) {
+            try {
+                Object value = read(master, keyStr, keyBytes);
+                breaker.recordSuccess();
+                return value;
+            } catch (Exception e) {
+                logFailure(e, "Error retrieving value for {} from its master", keyStr);
+                failure = e;
+            }
+        }
+        recover(failure);
+        return null;
+    }
+
+    private Object read(Pool<Jedis> pool, String keyStr, byte[] keyBytes) {
+        byte[] bytes;
+        try (Jedis jedis = borrow(pool)) {
+            bytes = jedis.get(keyBytes);
+        } catch (JedisRedirectionException e) {
+            bytes = redirect(e, jedis -> jedis.get(keyBytes));
         }
+        Object value = bytes == null ? null : codec.decode(bytes);
+        logger.trace("Retrieved object: {}={} ", keyStr, value);
         return value;
     }
 
     /** {@inheritDoc} */
     @Override
     public int size() {
-        return replica.keys("*").size();
+        if (!breaker.allowRequest())
+            return fallback.size();
+        long size = 0;
+        for (Pool<Jedis> pool : shards(false)) {
+            try (Jedis jedis = borrow(pool)) {
+                size += keyPrefix.isEmpty() ? jedis.dbSize() : countKeys(jedis, Long.MAX_VALUE);
+            }
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     *
+     * Removes the keys of this cache only: the prefixed keys, or the whole database when the key prefix is empty.
+     */
     @Override
-    public synchronized void clear() {
-        master.flushAll();
+    public void clear() {
+        if (!breaker.allowRequest()) {
+            fallback.clear();
+            pendingClear = true;
+            pendingRemovals.clear();
+            return;
+        }
+        clearServers();
+    }
+
+    private void clearServers() {
+        for (Pool<Jedis> pool : shards(true)) {
+            try (Jedis jedis = borrow(pool)) {
+                if (keyPrefix.isEmpty())
+                    jedis.flushDB();
+                else
+                    deleteKeys(jedis);
+            }
+        }
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void flush() {
-        master.flushAll();
+    public void flush() {
+        clear();
+    }
+
+    /**
+     * <p>
+     * getValueCodec.
+     * </p>
+     *
+     * @return the codec converting values to and from the bytes stored in Redis
+     * @since 3.0.2
+     */
+    public CacheValueCodec getValueCodec() {
+        return codec;
+    }
+
+    /**
+     * <p>
+     * setValueCodec.
+     * </p>
+     *
+     * Every node sharing the Redis keys must use the same codec. The default {@link JsonValueCodec} stores the values as JSON and returns the raw JSON
+     * string; a {@link BinaryValueCodec} is more compact and returns the original objects.
+     *
+     * @param codec
+     *            a {@link com.idfconnect.ssorest.common.cache.CacheValueCodec} object.
+     * @since 3.0.2
+     */
+    public void setValueCodec(CacheValueCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * <p>
+     * getReadBalancing.
+     * </p>
+     *
+     * @return the policy spreading reads over the endpoints, or over the replicas of an {@link AbstractRedisTopology}
+     * @since 3.0.2
+     */
+    public int getReadBalancing() {
+        RedisTopology current = topology;
+        if (current instanceof AbstractRedisTopology)
+            return ((AbstractRedisTopology) current).getReadBalancing();
+        return balancer.getPolicy();
+    }
+
+    /**
+     * <p>
+     * setReadBalancing.
+     * </p>
+     *
+     * @param policy
+     *            {@link CacheConstant#REDIS_READ_ROUND_ROBIN}, {@link CacheConstant#REDIS_READ_LEAST_OUTSTANDING} or {@link CacheConstant#REDIS_READ_EWMA}
+     * @since 3.0.2
+     */
+    public void setReadBalancing(int policy) {
+        RedisTopology current = topology;
+        if (current instanceof AbstractRedisTopology)
+            ((AbstractRedisTopology) current).setReadBalancing(policy);
+        else
+            balancer.setPolicy(policy);
+    }
+
+    /**
+     * <p>
+     * getCircuitBreaker.
+     * </p>
+     *
+     * @return the breaker short-circuiting the calls to Redis while it fails
+     * @since 3.0.2
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * <p>
+     * setCircuitBreaker.
+     * </p>
+     *
+     * @param breaker
+     *            a {@link com.idfconnect.ssorest.common.cache.CircuitBreaker} object.
+     * @since 3.0.2
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+        if (breaker.getState() != CircuitBreaker.State.CLOSED)
+            wakeProbe();
+    }
+
+    /**
+     * <p>
+     * getFallbackCache.
+     * </p>
+     *
+     * @return the local cache serving the operations while the breaker is open
+     * @since 3.0.2
+     */
+    public Cache getFallbackCache() {
+        return fallback;
+    }
+
+    /**
+     * <p>
+     * setFallbackCache.
+     * </p>
+     *
+     * @param fallback
+     *            the local cache serving the operations while the breaker is open
+     * @since 3.0.2
+     */
+    public void setFallbackCache(Cache fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * <p>
+     * getKeyEncoder.
+     * </p>
+     *
+     * @return the encoder of the keys when the key type is {@link CacheConstant#CACHE_KEY_TYPE_HASHED}
+     * @since 3.0.2
+     */
+    public CacheKeyEncoder getKeyEncoder() {
+        return keyEncoder;
+    }
+
+    /**
+     * <p>
+     * setKeyEncoder.
+     * </p>
+     *
+     * Every node sharing the Redis keys must use the same encoder.
+     *
+     * @param keyEncoder
+     *            the encoder of the keys when the key type is {@link CacheConstant#CACHE_KEY_TYPE_HASHED}
+     * @since 3.0.2
+     */
+    public void setKeyEncoder(CacheKeyEncoder keyEncoder) {
+        this.keyEncoder = keyEncoder;
+    }
+
+    /**
+     * <p>
+     * getKeyPrefix.
+     * </p>
+     *
+     * @return the prefix of the Redis keys of this cache, empty if none
+     * @since 3.0.2
+     */
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    /**
+     * <p>
+     * setKeyPrefix.
+     * </p>
+     *
+     * @param keyPrefix
+     *            the prefix of the Redis keys of this cache, or null or empty for none, in which case the cache owns its whole database
+     * @since 3.0.2
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix == null ? "" : keyPrefix;
+    }
+
+    /**
+     * Counts the prefixed keys with SCAN, stopping once <code>limit</code> are found
+     */
+    private long countKeys(Jedis jedis, long limit) {
+        ScanParams params = scanParams();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        long count = 0;
+        do {
+            ScanResult<String> result = jedis.scan(cursor, params);
+            count += result.getResult().size();
+            cursor = result.getStringCursor();
+        } while (count < limit && !ScanParams.SCAN_POINTER_START.equals(cursor));
+        return count;
+    }
+
+    /**
+     * Deletes the prefixed keys one SCAN batch at a time
+     */
+    private void deleteKeys(Jedis jedis) {
+        ScanParams params = scanParams();
+        String cursor = ScanParams.SCAN_POINTER_START;
+        long deleted = 0;
+        do {
+            ScanResult<String> result = jedis.scan(cursor, params);
+            List<String> keys = result.getResult();
+            if (!keys.isEmpty())
+                deleted += jedis.del(keys.toArray(new String[keys.size()]));
+            cursor = result.getStringCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        logger.debug("Deleted {} keys with prefix {}", deleted, keyPrefix);
+    }
+
+    private ScanParams scanParams() {
+        // escape the glob characters of the prefix so it is matched literally
+        StringBuilder pattern = new StringBuilder();
+        for (char c : keyPrefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\')
+                pattern.append('\\');
+            pattern.append(c);
+        }
+        pattern.append('*');
+        return new ScanParams().match(pattern.toString()).count(CacheConstant.REDIS_SCAN_COUNT_DEFAULT);
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void add(Object objKey, Object objValue) {
+    public void add(Object objKey, Object objValue) {
         put(objKey, objValue);
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void assertMaxCacheSize(int maxSize) {
+    public void assertMaxCacheSize(int maxSize) {
         assertMaxCacheSize(maxSize, Integer.MAX_VALUE);
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void assertMaxCacheSize(int maxSize, int timeOut) {
+    public void assertMaxCacheSize(int maxSize, int timeOut) {
         // this.maxsize = maxSize;
         // while (ehcache.getSize() > maxsize)
         // removeTail();
@@ -227,31 +1006,574 @@ public class CacheJedisImpl implements Cache {
 
     /** {@inheritDoc} */
     @Override
+    public CompletableFuture<Object> getAsync(Object key) {
+        if (!breaker.allowRequest())
+            return CompletableFuture.completedFuture(get(key));
+        return submit(new Command(Command.GET, toJedisKey(key).getBytes(StandardCharsets.UTF_8), null, 0, null, stats.startTimer()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Object> putAsync(Object key, Object entry) {
+        if (!breaker.allowRequest())
+            return CompletableFuture.completedFuture(put(key, entry));
+        long start = stats.startTimer();
+        // encode on the calling thread, so the I/O thread only does I/O
+        return submit(new Command(Command.PUT, toJedisKey(key).getBytes(StandardCharsets.UTF_8), codec.encode(entry), cacheTimeOut, entry, start));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Object> removeAsync(Object key) {
+        if (!breaker.allowRequest())
+            return CompletableFuture.completedFuture(remove(key));
+        return submit(new Command(Command.REMOVE, toJedisKey(key).getBytes(StandardCharsets.UTF_8), null, 0, null, stats.startTimer()));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Commands already queued by the asynchronous methods are sent before the connections are closed.
+     */
+    @Override
     public void close() {
-        replica.close();
-        master.close();
+        CommandBatcher current;
+        synchronized (this) {
+            closed = true;
+            current = batcher;
+        }
+        if (current != null) {
+            current.shutdown();
+            try {
+                current.join(CacheConstant.REDIS_POOL_MAX_WAIT_MILLIS_DEFAULT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        RecoveryProbe recovery = probe;
+        if (recovery != null)
+            recovery.shutdown();
+        if (topology != null)
+            topology.close();
+        else
+            closePools();
+        fallback.close();
+    }
+
+    private CompletableFuture<Object> submit(Command command) {
+        CommandBatcher current = batcher;
+        if (current == null)
+            current = startBatcher();
+        if (current == null || !current.submit(command)) {
+            if (current == null || current.isStopped())
+                command.future.completeExceptionally(new IllegalStateException("Cache closed"));
+            else
+                command.future.completeExceptionally(new RejectedExecutionException("Too many cache commands waiting to be sent"));
+        }
+        return command.future;
+    }
+
+    /**
+     * Starts the batcher on first use, unless the cache is closed
+     *
+     * @return the batcher, or null if the cache is closed
+     */
+    private synchronized CommandBatcher startBatcher() {
+        if (closed)
+            return null;
+        if (batcher == null) {
+            batcher = new CommandBatcher(this);
+            batcher.start();
+        }
+        return batcher;
+    }
+
+    private synchronized void wakeProbe() {
+        if (probe == null) {
+            probe = new RecoveryProbe(this);
+            probe.start();
+        }
+        probe.wake();
+    }
+
+    /**
+     * Checks whether Redis recovered and, if so, replays the removals and clears made while the breaker was open. Called on the recovery thread.
+     *
+     * @return whether Redis is back
+     */
+    boolean probe() {
+        RedisTopology current = topology;
+        boolean up = current != null ? current.refresh() : tryEndPoints();
+        isConnected = up;
+        if (!up)
+            return false;
+        if (pendingClear) {
+            clearServers();
+            pendingClear = false;
+        }
+        if (!pendingRemovals.isEmpty()) {
+            List<String> removed = new ArrayList<String>(pendingRemovals);
+            byte[][] keys = new byte[removed.size()][];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = removed.get(i).getBytes(StandardCharsets.UTF_8);
+            for (Map.Entry<Pool<Jedis>, List<Integer>> route : route(keys, true).entrySet()) {
+                try (Jedis jedis = borrow(route.getKey())) {
+                    Pipeline pipeline = jedis.pipelined();
+                    for (int i : route.getValue())
+                        pipeline.del(keys[i]);
+                    pipeline.sync();
+                }
+            }
+            pendingRemovals.removeAll(removed);
+            logger.debug("Replayed {} removals", removed.size());
+        }
+        // the entries put meanwhile were never written to redis, other nodes may have changed them since
+        fallback.clear();
+        return true;
+    }
+
+    /**
+     * Sends a batch of asynchronous commands and completes their futures. Called on the batcher thread.
+     */
+    void execute(List<Command> batch) {
+        List<Command> reads = new ArrayList<Command>();
+        List<Command> writes = new ArrayList<Command>();
+        Set<ByteBuffer> written = new HashSet<ByteBuffer>();
+        for (Command command : batch) {
+            if (command.type != Command.GET) {
+                writes.add(command);
+                written.add(ByteBuffer.wrap(command.key));
+            } else {
+                // the reads of a batch are sent before its writes, so a read of a key written earlier must wait for the next batch
+                if (written.contains(ByteBuffer.wrap(command.key))) {
+                    execute(reads, writes);
+                    written.clear();
+                }
+                reads.add(command);
+            }
+        }
+        execute(reads, writes);
+    }
+
+    private void execute(List<Command> reads, List<Command> writes) {
+        if (!reads.isEmpty())
+            executeReads(reads);
+        if (!writes.isEmpty())
+            executeWrites(writes);
+        reads.clear();
+        writes.clear();
+    }
+
+    private void executeReads(List<Command> reads) {
+        byte[][] keys = new byte[reads.size()][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = reads.get(i).key;
+        // like get(), a failed read is a miss
+        byte[][] values = fetch(keys);
+        CacheValueCodec codec = this.codec;
+        for (int i = 0; i < keys.length; i++) {
+            Command command = reads.get(i);
+            byte[] value = values[i];
+            try {
+                command.future.complete(value == null ? null : codec.decode(value));
+            } catch (RuntimeException e) {
+                command.future.completeExceptionally(e);
+            }
+            if (value == null)
+                stats.recordMiss();
+            else
+                stats.recordHit();
+            stats.recordLatency(CacheStats.Operation.GET, command.start);
+        }
+    }
+
+    private void executeWrites(List<Command> writes) {
+        byte[][] keys = new byte[writes.size()][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = writes.get(i).key;
+        for (Map.Entry<Pool<Jedis>, List<Integer>> route : route(keys, true).entrySet()) {
+            List<Command> commands = new ArrayList<Command>(route.getValue().size());
+            for (int i : route.getValue())
+                commands.add(writes.get(i));
+            executeWrites(route.getKey(), commands);
+        }
     }
 
-    private boolean tryEndPoints() {
-        // attempt connection to each endpoints, break once connected
+    private void executeWrites(Pool<Jedis> pool, List<Command> writes) {
+        // the reply of a put, or the previous value and the reply of the DEL of a remove
+        List<Response<?>> replies = new ArrayList<Response<?>>(writes.size());
+        List<Response<Long>> deletes = new ArrayList<Response<Long>>(writes.size());
+        try (Jedis jedis = borrow(pool)) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Command command : writes) {
+                if (command.type == Command.PUT) {
+                    replies.add(pipeline.setex(command.key, command.seconds, command.value));
+                    deletes.add(null);
+                } else {
+                    replies.add(pipeline.get(command.key));
+                    deletes.add(pipeline.del(command.key));
+                }
+            }
+            pipeline.sync();
+            breaker.recordSuccess();
+        } catch (Exception e) {
+            logFailure(e, "Caught exception writing {} commands to cache", writes.size());
+            for (Command command : writes)
+                command.future.completeExceptionally(e);
+            recover(e);
+            return;
+        }
+        CacheValueCodec codec = this.codec;
+        for (int i = 0; i < writes.size(); i++) {
+            Command command = writes.get(i);
+            Object reply;
+            try {
+                try {
+                    reply = replies.get(i).get();
+                    if (deletes.get(i) != null)
+                        deletes.get(i).get();
+                } catch (JedisRedirectionException e) {
+                    reply = redirect(e, jedis -> write(jedis, command));
+                }
+            } catch (Exception e) {
+                logFailure(e, "Caught exception writing to cache");
+                command.future.completeExceptionally(e);
+                recover(e);
+                continue;
+            }
+            if (command.type == Command.PUT) {
+                stats.recordPut();
+                command.future.complete(command.entry);
+                stats.recordLatency(CacheStats.Operation.PUT, command.start);
+                continue;
+            }
+            byte[] old = (byte[]) reply;
+            try {
+                command.future.complete(old == null ? null : codec.decode(old));
+            } catch (RuntimeException e) {
+                command.future.completeExceptionally(e);
+            }
+            if (old != null)
+                stats.recordRemoval();
+            stats.recordLatency(CacheStats.Operation.REMOVE, command.start);
+        }
+    }
+
+    /**
+     * <p>
+     * getNumActiveConnections.
+     * </p>
+     *
+     * @return the number of connections currently borrowed from the replica and master pools
+     * @since 3.0.2
+     */
+    public int getNumActiveConnections() {
+        int active = 0;
+        for (Pool<Jedis> pool : pools())
+            active += pool.getNumActive();
+        return active;
+    }
+
+    /**
+     * <p>
+     * getNumIdleConnections.
+     * </p>
+     *
+     * @return the number of idle connections in the replica and master pools
+     * @since 3.0.2
+     */
+    public int getNumIdleConnections() {
+        int idle = 0;
+        for (Pool<Jedis> pool : pools())
+            idle += pool.getNumIdle();
+        return idle;
+    }
+
+    /**
+     * <p>
+     * getNumWaiters.
+     * </p>
+     *
+     * @return the number of threads blocked waiting for a connection
+     * @since 3.0.2
+     */
+    public int getNumWaiters() {
+        int waiters = 0;
+        for (Pool<Jedis> pool : pools())
+            waiters += pool.getNumWaiters();
+        return waiters;
+    }
+
+    /**
+     * <p>
+     * getMaxBorrowWaitTimeMillis.
+     * </p>
+     *
+     * @return the longest time a thread has waited to borrow a connection
+     * @since 3.0.2
+     */
+    public long getMaxBorrowWaitTimeMillis() {
+        long max = 0;
+        for (Pool<Jedis> pool : pools())
+            max = Math.max(max, pool.getMaxBorrowWaitTimeMillis());
+        return max;
+    }
+
+    /**
+     * <p>
+     * getMeanBorrowWaitTimeMillis.
+     * </p>
+     *
+     * @return the mean time recently spent waiting to borrow a connection, averaged over the pools
+     * @since 3.0.2
+     */
+    public long getMeanBorrowWaitTimeMillis() {
+        List<Pool<Jedis>> pools = pools();
+        long total = 0;
+        for (Pool<Jedis> pool : pools)
+            total += pool.getMeanBorrowWaitTimeMillis();
+        return pools.isEmpty() ? 0 : total / pools.size();
+    }
+
+    private List<Pool<Jedis>> pools() {
+        if (topology != null)
+            return topology.getPools();
+        List<Pool<Jedis>> pools = new ArrayList<Pool<Jedis>>();
+        for (ReplicaPool endPoint : replicas)
+            pools.add(endPoint.delegate);
+        JedisPool current = replica;
+        if (current != null && !pools.contains(current))
+            pools.add(current);
+        current = master;
+        if (current != null && !pools.contains(current))
+            pools.add(current);
+        return pools;
+    }
+
+    private synchronized void closePools() {
+        for (Pool<Jedis> pool : pools())
+            pool.close();
+        replicas = Collections.emptyList();
+        replica = null;
+        master = null;
+    }
+
+    private Pool<Jedis> masterFor(byte[] key) {
+        RedisTopology current = topology;
+        return current == null ? master : current.getMaster(key);
+    }
+
+    private Pool<Jedis> replicaFor(byte[] key) {
+        RedisTopology current = topology;
+        if (current != null)
+            return current.getReplica(key);
+        ReplicaPool chosen = balancer.choose(replicas);
+        return chosen != null ? chosen : replica;
+    }
+
+    /**
+     * Returns a master, pub/sub messages being broadcast to the whole cluster
+     */
+    private Pool<Jedis> anyMaster() {
+        RedisTopology current = topology;
+        if (current == null)
+            return master;
+        List<Pool<Jedis>> masters = current.getMasters();
+        return masters.isEmpty() ? null : masters.get(0);
+    }
+
+    /**
+     * Returns one pool per part of the keyspace, for commands on the whole database
+     */
+    private List<Pool<Jedis>> shards(boolean write) {
+        RedisTopology current = topology;
+        if (current != null)
+            return current.getMasters();
+        return Collections.<Pool<Jedis>> singletonList(write ? master : replica);
+    }
+
+    /**
+     * Groups the indexes of the keys by the pool serving them. Reads choose one replica per master, so that a batch takes one round trip per shard.
+     */
+    private Map<Pool<Jedis>, List<Integer>> route(byte[][] keys, boolean write) {
+        Map<Pool<Jedis>, List<Integer>> routes = new HashMap<Pool<Jedis>, List<Integer>>();
+        Map<Pool<Jedis>, Pool<Jedis>> chosen = write ? null : new HashMap<Pool<Jedis>, Pool<Jedis>>();
+        for (int i = 0; i < keys.length; i++) {
+            Pool<Jedis> pool = masterFor(keys[i]);
+            if (!write) {
+                byte[] key = keys[i];
+                pool = chosen.computeIfAbsent(pool, shard -> replicaFor(key));
+            }
+            routes.computeIfAbsent(pool, target -> new ArrayList<Integer>()).add(i);
+        }
+        return routes;
+    }
+
+    /**
+     * Reads the keys with one round trip per server, leaving null the values that are missing or could not be read
+     */
+    private byte[][] fetch(byte[][] keys) {
+        CircuitBreaker breaker = this.breaker;
+        byte[][] values = new byte[keys.length][];
+        boolean sharded = topology != null && topology.isSharded();
+        for (Map.Entry<Pool<Jedis>, List<Integer>> route : route(keys, false).entrySet()) {
+            List<Integer> indexes = route.getValue();
+            List<Response<byte[]>> responses = null;
+            try (Jedis jedis = borrow(route.getKey())) {
+                if (sharded) {
+                    // MGET needs all its keys in the same slot
+                    Pipeline pipeline = jedis.pipelined();
+                    responses = new ArrayList<Response<byte[]>>(indexes.size());
+                    for (int i : indexes)
+                        responses.add(pipeline.get(keys[i]));
+                    pipeline.sync();
+                } else {
+                    byte[][] batch = new byte[indexes.size()][];
+                    for (int j = 0; j < batch.length; j++)
+                        batch[j] = keys[indexes.get(j)];
+                    List<byte[]> found = jedis.mget(batch);
+                    for (int j = 0; j < batch.length; j++)
+                        values[indexes.get(j)] = found.get(j);
+                }
+                breaker.recordSuccess();
+            } catch (Exception e) {
+                logFailure(e, "Error retrieving values for {} keys", indexes.size());
+                recover(e);
+                continue;
+            }
+            if (responses == null)
+                continue;
+            // each reply is read on its own, so that a key redirected during resharding is read from its new master without losing the others
+            for (int j = 0; j < indexes.size(); j++) {
+                int i = indexes.get(j);
+                try {
+                    values[i] = responses.get(j).get();
+                } catch (JedisRedirectionException e) {
+                    try {
+                        values[i] = redirect(e, jedis -> jedis.get(keys[i]));
+                    } catch (Exception retry) {
+                        logFailure(retry, "Error retrieving a redirected value");
+                        recover(retry);
+                    }
+                } catch (JedisDataException e) {
+                    logFailure(e, "Error retrieving values for {} keys", indexes.size());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sends the write of an asynchronous command, returning the reply of a put or the previous value of a remove
+     */
+    private static Object write(Jedis jedis, Command command) {
+        if (command.type == Command.PUT)
+            return jedis.setex(command.key, command.seconds, command.value);
+        byte[] old = jedis.get(command.key);
+        jedis.del(command.key);
+        return old;
+    }
+
+    /**
+     * Sends a write to the master of the key, following a MOVED or ASK redirection once
+     */
+    private <T> T write(byte[] key, Function<Jedis, T> command) {
+        try (Jedis jedis = borrow(masterFor(key))) {
+            return command.apply(jedis);
+        } catch (JedisRedirectionException e) {
+            return redirect(e, command);
+        }
+    }
+
+    /**
+     * Retries a command a cluster node redirected with MOVED or ASK on the master it named, as the slot table read by the topology is out of date or the
+     * slot is being migrated. The topology is refreshed in the background; the redirection is thrown again if that master is not known yet. A redirection
+     * is not a failure of the server, so it does not count towards opening the breaker.
+     */
+    private <T> T redirect(JedisRedirectionException e, Function<Jedis, T> command) {
+        RedisTopology current = topology;
+        if (current == null)
+            throw e;
+        current.requestRefresh();
+        Pool<Jedis> target = current.getMaster(e.getTargetNode());
+        if (target == null)
+            throw e;
+        logger.debug("Retrying a command on {}: {}", e.getTargetNode(), e.getMessage());
+        try (Jedis jedis = borrow(target)) {
+            if (e instanceof JedisAskDataException)
+                jedis.asking();
+            return command.apply(jedis);
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool, failing fast if the cache is not connected to that server, which is the case while no endpoint has answered
+     */
+    private static Jedis borrow(Pool<Jedis> pool) {
+        if (pool == null)
+            throw new NotConnectedException();
+        return pool.getResource();
+    }
+
+    /**
+     * Logs a failed command, without the stack trace while the cache is not connected as that says nothing more
+     */
+    private void logFailure(Exception e, String message, Object... args) {
+        if (e instanceof NotConnectedException) {
+            if (logger.isDebugEnabled())
+                logger.debug(message + ": " + e.getMessage(), args);
+            return;
+        }
+        Object[] withCause = Arrays.copyOf(args, args.length + 1);
+        withCause[args.length] = e;
+        logger.warn(message, withCause);
+    }
+
+    /**
+     * Recovers from a failed command: the topology is refreshed in the background, and the failure counts towards opening the breaker, after which the
+     * recovery thread reconnects the static endpoints. An error reply from the server is not a failure of the server.
+     */
+    private void recover(Exception e) {
+        if (e instanceof JedisDataException)
+            return;
+        RedisTopology current = topology;
+        if (current != null)
+            current.requestRefresh();
+        if (breaker.recordFailure()) {
+            logger.warn("Redis is down, using the local cache until it recovers: {}", e.getMessage());
+            wakeProbe();
+        }
+    }
+
+    private synchronized boolean tryEndPoints() {
+        // drop the pools of the previous attempt, their connections are broken
+        closePools();
+        slaveRunning = false;
+        masterRunning = false;
+        // attempt connection to each endpoint, reads are balanced over all of them
+        List<ReplicaPool> reachable = new ArrayList<ReplicaPool>();
         for (String endPoint : endPoints) {
             if (endPoint.indexOf(":") < 0)
                 endPoint += ":" + CacheConstant.REDIS_PORT_DEFAULT;
-            replica = initEndPoint(endPoint);
-
-            try {
-                replica.ping();
-                // at this point we are connected, so initialize gson as well.
-                gson = new Gson();
-                String[] hp = endPoint.split(":");
-                slaveHost = toRealIP(hp[0]);
-                slavePort = Integer.parseInt(hp[1]);
-                slaveRunning = true;
-                break;
+            JedisPool pool = initEndPoint(endPoint);
+            ReplicaPool balanced = new ReplicaPool(endPoint, pool);
+            try (Jedis jedis = pool.getResource()) {
+                jedis.ping();
+                if (!slaveRunning) {
+                    String[] hp = endPoint.split(":");
+                    slaveHost = toRealIP(hp[0]);
+                    slavePort = Integer.parseInt(hp[1]);
+                    slaveRunning = true;
+                    replica = pool;
+                }
             } catch (Exception e) {
-                logger.warn("Not connected to {}, trying another endpoint: ", endPoint, e.getMessage());
+                logger.warn("Not connected to {}, trying another endpoint: {}", endPoint, e.getMessage());
+                // probed again in the background once the ejection period is over
+                balanced.eject();
             }
+            reachable.add(balanced);
         }
+        replicas = reachable;
 
         try {
             if (masterEndPoint.indexOf(":") < 0)
@@ -261,22 +1583,28 @@ public class CacheJedisImpl implements Cache {
             masterPort = Integer.parseInt(hp[1]);
             if (slaveRunning && masterHost.equals(slaveHost) && masterPort == slavePort) {
                 logger.trace("Master and replica are same, standalone for this host");
-                promoteReplica();
+                master = replica;
                 return true;
             }
-            master = initEndPoint(masterEndPoint);
-            master.ping(); // master down, use local end point only, replication stop, no failover
+            JedisPool pool = initEndPoint(masterEndPoint);
+            try (Jedis jedis = pool.getResource()) {
+                jedis.ping(); // master down, use local end point only, replication stop, no failover
+            } catch (Exception e) {
+                pool.close();
+                throw e;
+            }
+            master = pool;
             masterRunning = true;
             if (!slaveRunning) { // standalone mode if slave is not running
                 replica = master;
-            } else {
-                replica.slaveof(masterHost, masterPort);
             }
+            // replication is configured on the servers, never from here
             return true;
         } catch (Exception e) {
             if (slaveRunning) {
-                logger.warn("Either the master down or there is no master, operating in standalone mode now: {}", e.getMessage());
-                promoteReplica();
+                // writes fail if the endpoint is a read-only replica, failing over is left to Sentinel
+                logger.warn("Either the master down or there is no master, writing to {}:{} now: {}", slaveHost, slavePort, e.getMessage());
+                master = replica;
             } else {
                 // nothing is running, we need to use local cache now
             }
@@ -286,12 +1614,7 @@ public class CacheJedisImpl implements Cache {
         return false;
     }
 
-    private void promoteReplica() {
-        replica.slaveofNoOne();
-        master = replica;
-    }
-
-    private Jedis initEndPoint(String endPoint) {
+    private JedisPool initEndPoint(String endPoint) {
         String host = null;
         int port = CacheConstant.REDIS_PORT_DEFAULT;
         if (endPoint == null || endPoint.length() == 0)
@@ -305,7 +1628,14 @@ public class CacheJedisImpl implements Cache {
                 // do nothing, error will make default port
             }
         }
-        return new Jedis(host, port);
+        return createPool(poolConfig, host, port, connectTimeoutMillis, soTimeoutMillis);
+    }
+
+    /**
+     * Creates a pool of connections to a server, with separate connect and command timeouts
+     */
+    static JedisPool createPool(JedisPoolConfig poolConfig, String host, int port, int connectTimeoutMillis, int soTimeoutMillis) {
+        return new JedisPool(poolConfig, host, port, connectTimeoutMillis, soTimeoutMillis, null, Protocol.DEFAULT_DATABASE, null, false, null, null, null);
     }
 
     private String toRealIP(String host) throws UnknownHostException {
@@ -326,7 +1656,55 @@ public class CacheJedisImpl implements Cache {
         return InetAddress.getByName(host).getHostAddress();
     }
 
-    private String toJedisKey(Object key) {
+    /**
+     * Publishes the messages on the master in a single pipelined round trip. Nothing is sent while the breaker is open, so that the writes publishing
+     * invalidations do not wait on a failing server, and a failure counts towards opening the breaker.
+     *
+     * @return whether the messages could be published
+     */
+    boolean publish(String channel, Collection<String> messages) {
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest())
+            return false;
+        Pool<Jedis> pool = anyMaster();
+        if (pool == null)
+            return false;
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (String message : messages)
+                pipeline.publish(channel, message);
+            pipeline.sync();
+            breaker.recordSuccess();
+            return true;
+        } catch (Exception e) {
+            logger.warn("Could not publish to {}: {}", channel, e.getMessage());
+            recover(e);
+            return false;
+        }
+    }
+
+    /**
+     * Subscribes to the channel on a connection borrowed from the master pool, blocking until the subscription is ended or the connection fails. Fails
+     * fast while the breaker is open, and a failure counts towards opening the breaker.
+     */
+    void subscribe(JedisPubSub pubSub, String channel) {
+        CircuitBreaker breaker = this.breaker;
+        if (!breaker.allowRequest())
+            throw new IllegalStateException("Circuit open, not subscribing until Redis recovers");
+        Pool<Jedis> pool = anyMaster();
+        if (pool == null)
+            throw new IllegalStateException("Not connected to a master");
+        try (Jedis jedis = pool.getResource()) {
+            jedis.subscribe(pubSub, channel);
+        } catch (RuntimeException e) {
+            recover(e);
+            throw e;
+        }
+    }
+
+    String toJedisKey(Object key) {
+        if (keyType == CacheConstant.CACHE_KEY_TYPE_HASHED)
+            return keyPrefix + keyEncoder.encode(key);
         String str = (String) key.toString();
         String theKey = null;
         switch (keyType) {
@@ -346,7 +1724,7 @@ public class CacheJedisImpl implements Cache {
                 theKey = str.hashCode() + "";
                 break;
         }
-        return theKey;
+        return keyPrefix + theKey;
 
     }
 
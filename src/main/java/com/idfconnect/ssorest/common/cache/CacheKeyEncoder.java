@@ -0,0 +1,21 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Converts cache keys to the keys stored by a remote cache such as {@link CacheJedisImpl}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public interface CacheKeyEncoder {
+
+    /**
+     * Method encode.
+     *
+     * @param key the non-null cache key
+     * @return the stored key, without the key prefix of the cache
+     * @since 3.0.2
+     */
+    public String encode(Object key);
+}
@@ -0,0 +1,115 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Coalesces concurrent loads of the same key: the first thread to miss runs the {@link CacheLoader}, and the others wait for and share its result instead
+ * of each calling the backend. Used by the {@link Cache#get(Object, CacheLoader)} implementations; coalescing is per cache instance, so nodes sharing a
+ * remote cache each load at most once at a time.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class CacheLoadCoordinator {
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<Object, CompletableFuture<Object>>();
+
+    Logger                                                             logger   = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Loads the key, or waits for the load already in flight
+     *
+     * @param lookup
+     *            reads the cache; called again once this thread owns the load, in case a load completed since the caller missed
+     * @param store
+     *            puts a loaded, non-null value into the cache
+     */
+    Object load(Object key, CacheLoader loader, Function<Object, Object> lookup, BiConsumer<Object, Object> store) throws CacheException {
+        CompletableFuture<Object> mine = new CompletableFuture<Object>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null)
+            return await(key, existing);
+        try {
+            Object value = lookup.apply(key);
+            if (value == null) {
+                value = loader.load(key);
+                if (value != null)
+                    store.accept(key, value);
+            }
+            mine.complete(value);
+            return value;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw new CacheException("Could not load " + key, e);
+        } catch (Throwable t) {
+            // an error still has to release the threads waiting for this load
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Reloads the key in the background unless a load of it is already in flight
+     *
+     * @param executor
+     *            runs the load, or null for the common fork-join pool
+     */
+    void refresh(Object key, CacheLoader loader, BiConsumer<Object, Object> store, Executor executor) {
+        CompletableFuture<Object> mine = new CompletableFuture<Object>();
+        if (inFlight.putIfAbsent(key, mine) != null)
+            return;
+        Runnable reload = () -> {
+            try {
+                Object value = loader.load(key);
+                if (value != null)
+                    store.accept(key, value);
+                mine.complete(value);
+            } catch (Exception e) {
+                // the current value stays until it expires, and the next miss loads it again
+                logger.warn("Could not refresh {}: {}", key, e.getMessage());
+                mine.completeExceptionally(e);
+            } catch (Throwable t) {
+                mine.completeExceptionally(t);
+                throw t;
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        };
+        try {
+            (executor == null ? ForkJoinPool.commonPool() : executor).execute(reload);
+        } catch (RuntimeException e) {
+            inFlight.remove(key, mine);
+            logger.warn("Could not schedule refresh of {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of loads in flight
+     */
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private static Object await(Object key, CompletableFuture<Object> future) throws CacheException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted waiting for " + key + " to load", e);
+        } catch (ExecutionException e) {
+            throw new CacheException("Could not load " + key, e.getCause());
+        }
+    }
+}
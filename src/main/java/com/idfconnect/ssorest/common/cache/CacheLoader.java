@@ -0,0 +1,23 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Computes the value of a key missing from a cache, see {@link Cache#get(Object, CacheLoader)}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@FunctionalInterface
+public interface CacheLoader {
+
+    /**
+     * Method load.
+     *
+     * @param key the key that was not found
+     * @return the value to cache, or null if there is none
+     * @throws java.lang.Exception if the value could not be loaded
+     * @since 3.0.2
+     */
+    public Object load(Object key) throws Exception;
+}
@@ -1,8 +1,16 @@
 package com.idfconnect.ssorest.common.cache;
 
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>CacheLocalImpl class.</p>
@@ -27,6 +35,9 @@ public class CacheLocalImpl implements Cache{
         Object   value;
         Object   key;
         long     timestamp;
+        // absolute expiry in milliseconds, or 0 to use the cache-wide time out
+        long     expiresAt;
+        int      weight = 1;
 
         /**
          * Constructor for DLLEntry.
@@ -47,9 +58,17 @@ public class CacheLocalImpl implements Cache{
     int                         maxsize;
     int                         size;
     int                         cacheTimeOut;
+    long                        totalWeight;
+    long                        maximumWeight = Long.MAX_VALUE;
+    CacheWeigher                weigher;
     Hashtable<Object, DLLEntry> hash;
     DLLEntry                    head;
     DLLEntry                    tail;
+    final CacheStats            stats         = new CacheStats();
+    final CacheLoadCoordinator  loads         = new CacheLoadCoordinator();
+    final RemovalNotifier       removals      = new RemovalNotifier();
+
+    Logger                      logger        = LoggerFactory.getLogger(getClass());
 
     /**
      * <p>Constructor for CacheLocalImpl.</p>
@@ -109,28 +128,54 @@ public class CacheLocalImpl implements Cache{
      * Method get.
      */
     public  Object get(Object obj) {
-        DLLEntry dllentry = hash.get(obj);
-        if (dllentry == null)
-            return null;
-
-        int interval = (int) (System.currentTimeMillis() - dllentry.timestamp) / 1000;
-        if (interval < cacheTimeOut)
+        long start = stats.startTimer();
+        try {
+            DLLEntry dllentry = hash.get(obj);
+            if (dllentry == null) {
+                stats.recordMiss();
+                return null;
+            }
 
-            return dllentry.value;
-        else {
-            // out date, need to remove and return null;
-            remove(obj);
-            return null;
+            long now = System.currentTimeMillis();
+            boolean live = dllentry.expiresAt != 0 ? now < dllentry.expiresAt : (now - dllentry.timestamp) / 1000L < cacheTimeOut;
+            if (live) {
+                stats.recordHit();
+                return dllentry.value;
+            } else {
+                // out date, need to remove and return null;
+                Object expired = unlink(obj);
+                if (expired != null) {
+                    stats.recordExpiration();
+                    removals.notify(obj, expired, RemovalCause.EXPIRED);
+                }
+                stats.recordMiss();
+                return null;
+            }
+        } finally {
+            stats.recordLatency(CacheStats.Operation.GET, start);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Concurrent misses of the same key share a single load.
+     */
+    @Override
+    public Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        return value != null ? value : loads.load(key, loader, this::get, this::put);
+    }
+
     /**
      * <p>dumpKey.</p>
      *
      * @since 1.4
      */
     public void dumpKey() {
-        System.out.println("hash=" + toString());
+        logger.debug("size={} {}", size, stats);
+        if (logger.isTraceEnabled())
+            logger.trace("hash={}", toString());
     }
 
     /**
@@ -158,11 +203,50 @@ public class CacheLocalImpl implements Cache{
      *
      * Method put.
      */
-    public Object put(Object obj, Object obj1) {
+    public synchronized Object put(Object obj, Object obj1) {
+        long start = stats.startTimer();
+        Object old = putEntry(obj, obj1);
+        stats.recordLatency(CacheStats.Operation.PUT, start);
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Method put, expiring this entry after <code>ttl</code> instead of the cache-wide time out. A <code>ttl</code> of {@link Long#MAX_VALUE} means the
+     * entry never expires.
+     */
+    @Override
+    public synchronized Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        long start = stats.startTimer();
+        Object old = putEntry(key, entry);
+        DLLEntry dllentry = hash.get(key);
+        if (dllentry != null) {
+            long expiresAt = dllentry.timestamp + Math.max(1, unit.toMillis(ttl));
+            dllentry.expiresAt = ttl == Long.MAX_VALUE || expiresAt < dllentry.timestamp ? Long.MAX_VALUE : expiresAt;
+        }
+        stats.recordLatency(CacheStats.Operation.PUT, start);
+        return old;
+    }
+
+    private Object putEntry(Object obj, Object obj1) {
         // System.out.println("put into cache for: "+obj+"
         // hash="+obj.hashCode()+" =="+obj.toString ());
 
+        stats.recordPut();
         DLLEntry dllentry = new DLLEntry(obj, obj1);
+        if (weigher != null) {
+            dllentry.weight = weigher.weigh(obj, obj1);
+            if (dllentry.weight > maximumWeight) {
+                // could never fit, so do not flush the cache trying to make room
+                Object old = unlink(obj);
+                if (old != null) {
+                    stats.recordEviction();
+                    removals.notify(obj, old, RemovalCause.SIZE);
+                }
+                return old;
+            }
+        }
         DLLEntry dllentry1 = hash.put(obj, dllentry);
         if (dllentry1 == null) {
             dllentry.next = head;
@@ -171,10 +255,9 @@ public class CacheLocalImpl implements Cache{
             head = dllentry;
             if (tail == null)
                 tail = dllentry;
-            if (++size > maxsize) {
-                if (remove(tail.key) == null)
-                    removeTail();
-            }
+            ++size;
+            totalWeight += dllentry.weight;
+            evictWhileOverCapacity(dllentry);
             // dumpKey();
 
             return null;
@@ -194,21 +277,51 @@ public class CacheLocalImpl implements Cache{
                         tail = dllentry;
                     else
                         dllentry.next.previous = dllentry;
+                    totalWeight += dllentry.weight - temp.weight;
 
                     break;
                 } else
                     temp = temp.next;
             }
             if (temp != null) {
+                evictWhileOverCapacity(dllentry);
             } else {
                 hash.remove(obj);
-
+                totalWeight -= dllentry1.weight;
             }
+            removals.notify(obj, dllentry1.value, RemovalCause.REPLACED);
 
             return dllentry1.value;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Method getAll, holding the cache lock once for all keys.
+     */
+    @Override
+    public synchronized Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        for (Object key : keys) {
+            Object value = get(key);
+            if (value != null)
+                result.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Method putAll, holding the cache lock once for all entries.
+     */
+    @Override
+    public synchronized void putAll(Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
     /**
      * <p>removeTail.</p>
      *
@@ -217,6 +330,10 @@ public class CacheLocalImpl implements Cache{
     public synchronized void removeTail() {
 
         DLLEntry temp = tail;
+        if (temp == null)
+            return;
+        // only if still mapped to this entry, the list may hold one a put replaced
+        hash.remove(temp.key, temp);
         tail = temp.previous;
         if (tail != null)
             tail.next = null;
@@ -225,6 +342,9 @@ public class CacheLocalImpl implements Cache{
         temp.previous = null;
         temp.next = null;
         size--;
+        totalWeight -= temp.weight;
+        stats.recordEviction();
+        removals.notify(temp.key, temp.value, RemovalCause.SIZE);
 
     }
 
@@ -234,10 +354,22 @@ public class CacheLocalImpl implements Cache{
      * Method remove.
      */
     public synchronized Object remove(Object obj) {
+        long start = stats.startTimer();
+        Object value = unlink(obj);
+        if (value != null) {
+            stats.recordRemoval();
+            removals.notify(obj, value, RemovalCause.EXPLICIT);
+        }
+        stats.recordLatency(CacheStats.Operation.REMOVE, start);
+        return value;
+    }
+
+    private synchronized Object unlink(Object obj) {
         DLLEntry dllentry = hash.remove(obj);
         if (dllentry == null)
             return null;
         size--;
+        totalWeight -= dllentry.weight;
         if (dllentry == tail) {
             tail = dllentry.previous;
             if (tail != null)
@@ -273,9 +405,14 @@ public class CacheLocalImpl implements Cache{
      * @since 1.4
      */
     public synchronized void clear() {
+        if (removals.hasListeners()) {
+            for (DLLEntry dllentry = head; dllentry != null; dllentry = dllentry.next)
+                removals.notify(dllentry.key, dllentry.value, RemovalCause.EXPLICIT);
+        }
         hash.clear();
         head = tail = null;
         size = 0;
+        totalWeight = 0;
     }
 
     /**
@@ -319,9 +456,88 @@ public class CacheLocalImpl implements Cache{
             clear();
         } else {
             this.maxsize = maxSize;
-            while (this.size > maxsize)
-                if (remove(tail.key) == null)
-                    removeTail();
+            evictWhileOverCapacity(null);
+        }
+    }
+
+    /**
+     * Bounds the cache by the total weight of its entries, in addition to the maximum number of entries. Existing entries are reweighed, then evicted from
+     * the tail until the cache is within both bounds.
+     *
+     * @param maximumWeight
+     *            the maximum total weight, or {@link Long#MAX_VALUE} for no weight bound
+     * @param weigher
+     *            the weigher, or null to count each entry as weighing 1
+     * @since 3.0.2
+     */
+    public synchronized void setMaximumWeight(long maximumWeight, CacheWeigher weigher) {
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException("Maximum weight must not be negative: " + maximumWeight);
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        totalWeight = 0;
+        for (DLLEntry dllentry = head; dllentry != null; dllentry = dllentry.next) {
+            dllentry.weight = weigher == null ? 1 : weigher.weigh(dllentry.key, dllentry.value);
+            totalWeight += dllentry.weight;
+        }
+        evictWhileOverCapacity(null);
+    }
+
+    /**
+     * <p>
+     * getMaximumWeight.
+     * </p>
+     *
+     * @return the maximum total weight, {@link Long#MAX_VALUE} if the cache is only bounded by entry count
+     * @since 3.0.2
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * <p>
+     * getWeightedSize.
+     * </p>
+     *
+     * @return the current total weight of the entries, equal to {@link #size()} when no weigher is set
+     * @since 3.0.2
+     */
+    public synchronized long getWeightedSize() {
+        return totalWeight;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addRemovalListener(CacheRemovalListener listener, Executor executor) {
+        removals.add(listener, executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeRemovalListener(CacheRemovalListener listener) {
+        removals.remove(listener);
+    }
+
+    /**
+     * Evicts from the tail until the cache is within its size and weight bounds, never evicting <code>keep</code>
+     */
+    private void evictWhileOverCapacity(DLLEntry keep) {
+        while ((size > maxsize || totalWeight > maximumWeight) && tail != null && tail != keep) {
+            Object key = tail.key;
+            Object value = unlink(key);
+            if (value == null) {
+                removeTail();
+            } else {
+                stats.recordEviction();
+                removals.notify(key, value, RemovalCause.SIZE);
+            }
         }
     }
 
@@ -332,7 +548,7 @@ public class CacheLocalImpl implements Cache{
      * @since 1.4
      */
     public String toString() {
-        StringBuffer stringbuffer = new StringBuffer();
+        StringBuilder stringbuffer = new StringBuilder();
         stringbuffer.append('[');
         DLLEntry dllentry = head;
         if (dllentry != null)
@@ -0,0 +1,650 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Persistent local cache stored in a memory-mapped file, so that a restarted JVM starts with the entries of the previous one instead of an empty cache.
+ * </p>
+ * <p>
+ * Entries are appended to the file as a log of records, each holding the encoded key and value, the expiry time and a checksum; removals and evictions
+ * append a tombstone. Only the keys and the file offsets of their latest records are kept on the heap. Opening an existing file replays the log, stopping at
+ * the first record that is torn or belongs to an earlier generation of the file, and skips expired entries. When the log reaches the end of the file it is
+ * compacted into a new file holding only the live entries, which then replaces the old one; if the live entries alone do not fit, the oldest are evicted.
+ * Where the mapped file cannot be replaced, as on Windows, the live entries are instead moved to the start of the file in place.
+ * </p>
+ * <p>
+ * Keys and values are converted to bytes with a {@link CacheValueCodec}, by default a {@link BinaryValueCodec}; keys must decode back to equal objects, which
+ * holds for strings and numbers. Records written to the mapping survive a crash of the JVM; call {@link #sync()} to also force them to the disk. Removal
+ * listeners get the values decoded on their executor; entries found expired while replaying the log are not reported.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CacheMappedFileImpl implements Cache {
+    static final int                   MAGIC        = 0x53534f43;
+    static final int                   VERSION      = 1;
+    static final long                  NEVER        = Long.MAX_VALUE;
+    static final int                   TOMBSTONE    = -1;
+
+    // file header: magic, version, generation, reserved
+    static final int                   GENERATION   = 8;
+    static final int                   FILE_HEADER  = 16;
+
+    // record layout: key length, value length or tombstone, expiry in epoch milliseconds, checksum, key bytes, value bytes
+    static final int                   KEY_LENGTH   = 0;
+    static final int                   VALUE_LENGTH = 4;
+    static final int                   EXPIRES_AT   = 8;
+    static final int                   CHECKSUM     = 16;
+    static final int                   HEADER       = 20;
+
+    protected final File               file;
+    protected final int                capacity;
+    protected final CacheValueCodec    codec;
+    protected int                      maxsize;
+    protected int                      cacheTimeOut;
+    FileChannel                        channel;
+    MappedByteBuffer                   map;
+    int                                generation;
+    int                                writeOffset;
+    long                               liveBytes;
+    // set once replacing the file failed, after which it is compacted in place
+    boolean                            compactInPlace;
+    // key to the offset of its latest record, oldest first
+    final LinkedHashMap<Object, Integer> index      = new LinkedHashMap<Object, Integer>();
+    final CacheStats                   stats        = new CacheStats();
+    final CacheLoadCoordinator         loads        = new CacheLoadCoordinator();
+    final RemovalNotifier              removals     = new RemovalNotifier();
+
+    Logger                             logger       = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Constructor for CacheMappedFileImpl.
+     *
+     * @param file
+     *            the file holding the cache, created if it does not exist
+     * @param capacityBytes
+     *            size of the file
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            time out of the entries in seconds, {@link Integer#MAX_VALUE} for none
+     * @throws CacheException
+     *             if the file cannot be opened or mapped
+     */
+    public CacheMappedFileImpl(File file, int capacityBytes, int i, int timeOut) throws CacheException {
+        this(file, capacityBytes, i, timeOut, new BinaryValueCodec());
+    }
+
+    /**
+     * Constructor for CacheMappedFileImpl.
+     *
+     * @param file
+     *            the file holding the cache, created if it does not exist
+     * @param capacityBytes
+     *            size of the file
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            time out of the entries in seconds, {@link Integer#MAX_VALUE} for none
+     * @param codec
+     *            converts keys and values to bytes, must be the same codec that wrote the file
+     * @throws CacheException
+     *             if the file cannot be opened or mapped
+     */
+    public CacheMappedFileImpl(File file, int capacityBytes, int i, int timeOut, CacheValueCodec codec) throws CacheException {
+        if (capacityBytes < FILE_HEADER + HEADER)
+            throw new IllegalArgumentException("Capacity of " + capacityBytes + " bytes is too small");
+        this.file = file;
+        this.capacity = capacityBytes;
+        this.maxsize = i;
+        this.cacheTimeOut = timeOut;
+        this.codec = codec;
+        try {
+            boolean existing = file.length() >= FILE_HEADER;
+            channel = open(file);
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            if (existing && map.getInt(0) == MAGIC && map.getInt(4) == VERSION) {
+                generation = map.getInt(GENERATION);
+                replay();
+            } else {
+                generation = 0;
+                writeFileHeader(map, generation);
+                writeOffset = FILE_HEADER;
+            }
+        } catch (IOException e) {
+            throw new CacheException("Could not map cache file " + file, e);
+        }
+        evictWhileOverCapacity();
+        logger.debug("Opened {} with {} entries", file, index.size());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object get(Object key) {
+        long start = stats.startTimer();
+        byte[] valueBytes;
+        synchronized (this) {
+            valueBytes = lookup(key);
+        }
+        // decode outside the lock
+        Object value = valueBytes == null ? null : codec.decode(valueBytes);
+        if (value == null)
+            stats.recordMiss();
+        else
+            stats.recordHit();
+        stats.recordLatency(CacheStats.Operation.GET, start);
+        return value;
+    }
+
+    /**
+     * Returns the encoded value of the key, dropping it if expired
+     */
+    private byte[] lookup(Object key) {
+        Integer offset = index.get(key);
+        if (offset == null)
+            return null;
+        if (map.getLong(offset + EXPIRES_AT) <= System.currentTimeMillis()) {
+            if (removals.hasListeners())
+                removals.notify(key, null, value(offset), codec, RemovalCause.EXPIRED);
+            unlink(key);
+            stats.recordExpiration();
+            return null;
+        }
+        return value(offset);
+    }
+
+    /**
+     * Returns the encoded value of the record
+     */
+    private byte[] value(int offset) {
+        return read(offset + HEADER + map.getInt(offset + KEY_LENGTH), map.getInt(offset + VALUE_LENGTH));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        return value != null ? value : loads.load(key, loader, this::get, this::put);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry) {
+        int timeOut = cacheTimeOut;
+        return put(key, entry, timeOut == Integer.MAX_VALUE ? NEVER : TimeUnit.SECONDS.toMillis(timeOut));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        return put(key, entry, unit.toMillis(ttl));
+    }
+
+    private Object put(Object key, Object entry, long ttl) {
+        if (entry == null)
+            throw new NullPointerException();
+        long start = stats.startTimer();
+        byte[] keyBytes = codec.encode(key);
+        byte[] valueBytes = codec.encode(entry);
+        long now = System.currentTimeMillis();
+        long expiresAt = ttl == NEVER || now + ttl < now ? NEVER : now + ttl;
+        byte[] old;
+        boolean fits;
+        synchronized (this) {
+            stats.recordPut();
+            old = lookup(key);
+            // the checksum covers the generation, so the record is built under the lock
+            byte[] record = record(keyBytes, valueBytes, expiresAt);
+            fits = record.length <= capacity - FILE_HEADER;
+            if (!fits) {
+                // could never fit
+                if (old != null) {
+                    remove(key, keyBytes);
+                    stats.recordEviction();
+                }
+            } else {
+                // the new record supersedes the old one on replay, so no tombstone is needed
+                unlink(key);
+                int offset = append(record);
+                index.put(key, offset);
+                liveBytes += record.length;
+                evictWhileOverCapacity();
+            }
+        }
+        if (old != null)
+            removals.notify(key, null, old, codec, fits ? RemovalCause.REPLACED : RemovalCause.SIZE);
+        stats.recordLatency(CacheStats.Operation.PUT, start);
+        return old == null ? null : codec.decode(old);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object remove(Object obj) {
+        long start = stats.startTimer();
+        byte[] keyBytes = codec.encode(obj);
+        byte[] old;
+        synchronized (this) {
+            old = lookup(obj);
+            if (remove(obj, keyBytes))
+                stats.recordRemoval();
+        }
+        if (old != null)
+            removals.notify(obj, null, old, codec, RemovalCause.EXPLICIT);
+        stats.recordLatency(CacheStats.Operation.REMOVE, start);
+        return old == null ? null : codec.decode(old);
+    }
+
+    /**
+     * Removes the key and appends its tombstone
+     */
+    private boolean remove(Object key, byte[] keyBytes) {
+        if (!unlink(key))
+            return false;
+        append(record(keyBytes, null, NEVER));
+        return true;
+    }
+
+    /**
+     * Removes the key from the index only
+     */
+    private boolean unlink(Object key) {
+        Integer offset = index.remove(key);
+        if (offset == null)
+            return false;
+        liveBytes -= recordSize(offset);
+        return true;
+    }
+
+    /**
+     * Evicts the oldest entry
+     *
+     * @since 3.0.2
+     */
+    @Override
+    public synchronized void removeTail() {
+        Iterator<Map.Entry<Object, Integer>> it = index.entrySet().iterator();
+        if (!it.hasNext())
+            return;
+        Map.Entry<Object, Integer> eldest = it.next();
+        int offset = eldest.getValue();
+        if (removals.hasListeners())
+            removals.notify(eldest.getKey(), null, value(offset), codec, RemovalCause.SIZE);
+        remove(eldest.getKey(), read(offset + HEADER, map.getInt(offset + KEY_LENGTH)));
+        stats.recordEviction();
+    }
+
+    private void evictWhileOverCapacity() {
+        while (index.size() > maxsize)
+            removeTail();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dumpKey() {
+        logger.debug("{} {}", toString(), stats);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Empties the cache. A new generation is started, so the records still in the file are not replayed.
+     */
+    @Override
+    public synchronized void clear() {
+        if (removals.hasListeners()) {
+            for (Map.Entry<Object, Integer> entry : index.entrySet())
+                removals.notify(entry.getKey(), null, value(entry.getValue()), codec, RemovalCause.EXPLICIT);
+        }
+        index.clear();
+        liveBytes = 0;
+        generation++;
+        writeFileHeader(map, generation);
+        writeOffset = FILE_HEADER;
+        map.putInt(writeOffset + KEY_LENGTH, 0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(Object objKey, Object objValue) {
+        put(objKey, objValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assertMaxCacheSize(int maxSize) {
+        assertMaxCacheSize(maxSize, cacheTimeOut);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void assertMaxCacheSize(int maxSize, int timeOut) {
+        this.maxsize = maxSize;
+        this.cacheTimeOut = timeOut;
+        evictWhileOverCapacity();
+    }
+
+    /**
+     * Forces the records written so far to the disk
+     *
+     * @since 3.0.2
+     */
+    public synchronized void sync() {
+        map.force();
+    }
+
+    /**
+     * Rewrites the file keeping only the live entries
+     *
+     * @since 3.0.2
+     */
+    public synchronized void compact() {
+        compact(0);
+    }
+
+    /**
+     * <p>
+     * getFile.
+     * </p>
+     *
+     * @return the file holding the cache
+     * @since 3.0.2
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * <p>
+     * getUsedBytes.
+     * </p>
+     *
+     * @return the size of the log, including superseded records and tombstones not yet compacted away
+     * @since 3.0.2
+     */
+    public synchronized long getUsedBytes() {
+        return writeOffset;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addRemovalListener(CacheRemovalListener listener, Executor executor) {
+        removals.add(listener, executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeRemovalListener(CacheRemovalListener listener) {
+        removals.remove(listener);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized String toString() {
+        return "CacheMappedFileImpl [file=" + file + ", size=" + index.size() + ", maxsize=" + maxsize + ", usedBytes=" + writeOffset + ", liveBytes="
+                + liveBytes + "]";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void close() {
+        try {
+            map.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing cache file {}", file, e);
+        }
+    }
+
+    /**
+     * Rebuilds the index from the log
+     */
+    private void replay() {
+        long now = System.currentTimeMillis();
+        int offset = FILE_HEADER;
+        while (offset + HEADER <= capacity) {
+            int keyLength = map.getInt(offset + KEY_LENGTH);
+            int valueLength = map.getInt(offset + VALUE_LENGTH);
+            if (keyLength <= 0 || valueLength < TOMBSTONE || (long) offset + HEADER + keyLength + Math.max(valueLength, 0) > capacity)
+                break;
+            byte[] record = read(offset, HEADER + keyLength + Math.max(valueLength, 0));
+            if (ByteBuffer.wrap(record).getInt(CHECKSUM) != checksum(record))
+                break;
+            Object key = codec.decode(read(offset + HEADER, keyLength));
+            unlink(key);
+            if (valueLength != TOMBSTONE && ByteBuffer.wrap(record).getLong(EXPIRES_AT) > now) {
+                index.put(key, offset);
+                liveBytes += record.length;
+            }
+            offset += record.length;
+        }
+        writeOffset = offset;
+    }
+
+    /**
+     * Appends the record, compacting the file first if it has reached the end
+     *
+     * @return the offset of the record
+     */
+    private int append(byte[] record) {
+        if (writeOffset + record.length > capacity) {
+            int before = generation;
+            compact(record.length);
+            // compacting in place starts a new generation, which the checksum covers
+            if (generation != before)
+                ByteBuffer.wrap(record).putInt(CHECKSUM, checksum(record));
+        }
+        int offset = writeOffset;
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(offset);
+        buffer.put(record);
+        writeOffset += record.length;
+        // marks the end of the log for replay
+        if (writeOffset + HEADER <= capacity)
+            map.putInt(writeOffset + KEY_LENGTH, 0);
+        return offset;
+    }
+
+    /**
+     * Rewrites the file with the live entries, evicting the oldest until the given number of bytes is free
+     */
+    private void compact(int reserve) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Object, Integer>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, Integer> entry = it.next();
+            int offset = entry.getValue();
+            boolean expired = map.getLong(offset + EXPIRES_AT) <= now;
+            if (expired || liveBytes + FILE_HEADER + reserve > capacity) {
+                if (removals.hasListeners())
+                    removals.notify(entry.getKey(), null, value(offset), codec, expired ? RemovalCause.EXPIRED : RemovalCause.SIZE);
+                liveBytes -= recordSize(offset);
+                it.remove();
+                if (expired)
+                    stats.recordExpiration();
+                else
+                    stats.recordEviction();
+            }
+        }
+        if (!compactInPlace && compactToNewFile())
+            logger.debug("Compacted {} to {} entries in {} bytes", file, index.size(), writeOffset);
+        else
+            compactInPlace();
+    }
+
+    /**
+     * Writes the live entries to a new file that atomically replaces the old one, so a crash leaves either file complete
+     *
+     * @return whether the file was replaced; if not, the old file and mapping are still in use
+     */
+    private boolean compactToNewFile() {
+        File compacted = new File(file.getPath() + ".compact");
+        FileChannel newChannel = null;
+        MappedByteBuffer newMap;
+        int[] offsets = new int[index.size()];
+        int end;
+        try {
+            newChannel = open(compacted);
+            newMap = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            // a fresh file has no leftover records, so the generation and checksums carry over
+            writeFileHeader(newMap, generation);
+            ByteBuffer target = newMap.duplicate();
+            target.position(FILE_HEADER);
+            int n = 0;
+            for (int offset : index.values()) {
+                offsets[n++] = target.position();
+                target.put(read(offset, recordSize(offset)));
+            }
+            end = target.position();
+            if (target.remaining() >= HEADER)
+                target.putInt(end, 0);
+            newMap.force();
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // a mapped file cannot be replaced on some platforms, nor moved atomically across file systems
+            logger.warn("Could not compact cache file {} into a new file, compacting it in place from now on: {}", file, e.toString());
+            compactInPlace = true;
+            if (newChannel != null) {
+                try {
+                    newChannel.close();
+                } catch (IOException closing) {
+                    e.addSuppressed(closing);
+                }
+            }
+            if (compacted.exists() && !compacted.delete())
+                logger.warn("Could not delete {}", compacted);
+            return false;
+        }
+        int n = 0;
+        for (Map.Entry<Object, Integer> entry : index.entrySet())
+            entry.setValue(offsets[n++]);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing the replaced cache file: {}", e.getMessage());
+        }
+        channel = newChannel;
+        map = newMap;
+        writeOffset = end;
+        return true;
+    }
+
+    /**
+     * Moves the live entries to the start of the file. The index is ordered by offset, so each record only moves towards the start and never over one not
+     * yet moved. The records are rewritten in a new generation, so after a crash midway the ones not yet moved are not replayed, and are lost.
+     */
+    private void compactInPlace() {
+        generation++;
+        writeFileHeader(map, generation);
+        ByteBuffer target = map.duplicate();
+        target.position(FILE_HEADER);
+        for (Map.Entry<Object, Integer> entry : index.entrySet()) {
+            int offset = entry.getValue();
+            byte[] record = read(offset, recordSize(offset));
+            ByteBuffer.wrap(record).putInt(CHECKSUM, checksum(record));
+            entry.setValue(target.position());
+            target.put(record);
+        }
+        writeOffset = target.position();
+        if (writeOffset + HEADER <= capacity)
+            map.putInt(writeOffset + KEY_LENGTH, 0);
+        logger.debug("Compacted {} in place to {} entries in {} bytes", file, index.size(), writeOffset);
+    }
+
+    private int recordSize(int offset) {
+        return HEADER + map.getInt(offset + KEY_LENGTH) + Math.max(map.getInt(offset + VALUE_LENGTH), 0);
+    }
+
+    private byte[] read(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(offset);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Builds a record, a tombstone when the value is null
+     */
+    private byte[] record(byte[] keyBytes, byte[] valueBytes, long expiresAt) {
+        byte[] record = new byte[HEADER + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length)];
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(KEY_LENGTH, keyBytes.length);
+        buffer.putInt(VALUE_LENGTH, valueBytes == null ? TOMBSTONE : valueBytes.length);
+        buffer.putLong(EXPIRES_AT, expiresAt);
+        System.arraycopy(keyBytes, 0, record, HEADER, keyBytes.length);
+        if (valueBytes != null)
+            System.arraycopy(valueBytes, 0, record, HEADER + keyBytes.length, valueBytes.length);
+        buffer.putInt(CHECKSUM, checksum(record));
+        return record;
+    }
+
+    /**
+     * Checksum of the record and the current generation, so that records left over from an earlier generation are not replayed
+     */
+    private int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(generation >>> 24);
+        crc.update(generation >>> 16);
+        crc.update(generation >>> 8);
+        crc.update(generation);
+        crc.update(record, 0, CHECKSUM);
+        crc.update(record, HEADER, record.length - HEADER);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Opens the file, truncated to the capacity if larger; mapping it grows it if smaller
+     */
+    private FileChannel open(File target) throws IOException {
+        FileChannel opened = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (opened.size() > capacity)
+            opened.truncate(capacity);
+        return opened;
+    }
+
+    private static void writeFileHeader(MappedByteBuffer map, int generation) {
+        map.putInt(0, MAGIC);
+        map.putInt(4, VERSION);
+        map.putInt(GENERATION, generation);
+    }
+}
@@ -0,0 +1,450 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.idfconnect.ssorest.common.thread.LifecycleThread;
+
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * <p>
+ * Two-tier cache keeping a small local L1 in front of a {@link CacheJedisImpl}.
+ * </p>
+ * <p>
+ * Reads are served from the L1 when possible and only go to Redis on a miss, filling the L1 with the result. Writes go to both tiers, so the L1 keeps
+ * serving the entries this node has written or read while Redis is slow or down. Every write and removal is announced on a Redis pub/sub channel, and a
+ * background {@link LifecycleThread} subscribed to that channel drops the announced keys from the L1 of every other node. While the subscription is down
+ * invalidations can be missed, so the L1 is cleared each time the subscription is (re)established, and its time out bounds how long a stale entry can be
+ * served in the meantime.
+ * </p>
+ * <p>
+ * L1 entries are keyed by their Redis key, so the nodes agree on the keys being invalidated. Values written through this cache are kept in the L1 as
+ * the value codec of the remote cache decodes them, so with the default {@link JsonValueCodec} the L1 returns the JSON string Redis would; a
+ * {@link BinaryValueCodec} returns copies of the original objects from both tiers. The subscriber thread holds one connection of the master pool
+ * for as long as the cache is open; {@link #close()} must be called to release it.
+ * </p>
+ * <p>
+ * The cache does not report removals: its L1 only knows the Redis keys, not the keys given to it, and Redis evicts and expires entries without telling
+ * it.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CacheNearImpl implements Cache {
+    private static final long    MAX_RESUBSCRIBE_DELAY_MILLIS = 30000L;
+
+    protected final Cache          local;
+    protected final CacheJedisImpl remote;
+    protected final String         channel;
+    final String                   nodeId        = UUID.randomUUID().toString();
+    // bumped by every invalidation, so a read racing with one does not put a stale value back into the L1
+    final AtomicLong               invalidations = new AtomicLong();
+    private final Subscriber       subscriber;
+    final CacheLoadCoordinator     loads         = new CacheLoadCoordinator();
+
+    Logger                         logger        = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Subscribes to the invalidation channel, resubscribing with a growing delay whenever the subscription fails
+     */
+    static final class Subscriber extends LifecycleThread {
+        private final CacheNearImpl  cache;
+        private volatile JedisPubSub pubSub;
+        private volatile boolean     stopped = false;
+
+        Subscriber(CacheNearImpl cache) {
+            super("CacheNearImpl-invalidation-" + Integer.toHexString(System.identityHashCode(cache)));
+            this.cache = cache;
+            setDaemon(true);
+        }
+
+        @Override
+        public void runLifecycleThread() {
+            setRunning(true);
+            long delay = 100;
+            while (!stopped) {
+                pubSub = new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        cache.logger.debug("Subscribed to invalidations on {}", channel);
+                        cache.remote.getCircuitBreaker().recordSuccess();
+                        // invalidations sent while we were not subscribed are lost
+                        cache.invalidateAll();
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        cache.onInvalidation(message);
+                    }
+                };
+                long started = System.currentTimeMillis();
+                try {
+                    cache.remote.subscribe(pubSub, cache.channel);
+                } catch (Exception e) {
+                    cache.logger.debug("Invalidation subscription failed: {}", e.getMessage());
+                }
+                if (stopped)
+                    break;
+                // keep serving the L1 while redis is unreachable, it is cleared again once we resubscribe
+                // a long-lived subscription that dropped is retried quickly, a server that keeps refusing us is retried less and less often
+                delay = System.currentTimeMillis() - started > MAX_RESUBSCRIBE_DELAY_MILLIS ? 100 : Math.min(delay * 2, MAX_RESUBSCRIBE_DELAY_MILLIS);
+                // nor is it retried before the breaker of the remote cache may be probed
+                CircuitBreaker breaker = cache.remote.getCircuitBreaker();
+                if (!breaker.allowRequest())
+                    delay = Math.max(delay, breaker.getRemainingOpenMillis());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            setRunning(false);
+        }
+
+        void shutdown() {
+            stopped = true;
+            JedisPubSub current = pubSub;
+            if (current != null && current.isSubscribed()) {
+                try {
+                    current.unsubscribe();
+                } catch (Exception e) {
+                    // the connection is already gone
+                }
+            }
+            interrupt();
+        }
+    }
+
+    /**
+     * Constructor for CacheNearImpl, using a {@link CacheConcurrentImpl} as the L1.
+     *
+     * @param l1Size
+     *            maximum number of entries kept in the L1
+     * @param l1TimeOut
+     *            time out of the L1 entries in seconds, bounding how long a missed invalidation can go unnoticed
+     * @param remote
+     *            the Redis cache behind the L1
+     */
+    public CacheNearImpl(int l1Size, int l1TimeOut, CacheJedisImpl remote) {
+        this(new CacheConcurrentImpl(l1Size, l1TimeOut), remote, CacheConstant.REDIS_INVALIDATION_CHANNEL_DEFAULT);
+    }
+
+    /**
+     * Constructor for CacheNearImpl.
+     *
+     * @param local
+     *            the L1 cache
+     * @param remote
+     *            the Redis cache behind the L1
+     * @param channel
+     *            the pub/sub channel used for invalidations, shared by all nodes using the same Redis keys
+     */
+    public CacheNearImpl(Cache local, CacheJedisImpl remote, String channel) {
+        this.local = local;
+        this.remote = remote;
+        this.channel = channel;
+        subscriber = new Subscriber(this);
+        subscriber.start();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object get(Object key) {
+        String nearKey = remote.toJedisKey(key);
+        Object value = local.get(nearKey);
+        if (value != null)
+            return value;
+        long version = invalidations.get();
+        value = remote.get(key);
+        if (value != null && invalidations.get() == version)
+            local.put(nearKey, value);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Concurrent misses of the same key within this JVM share a single load; other nodes may load it too.
+     */
+    @Override
+    public Object get(Object key, CacheLoader loader) throws CacheException {
+        Object value = get(key);
+        return value != null ? value : loads.load(key, loader, this::get, this::put);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * L1 hits complete immediately; misses are read asynchronously from Redis and fill the L1.
+     */
+    @Override
+    public CompletableFuture<Object> getAsync(Object key) {
+        String nearKey = remote.toJedisKey(key);
+        Object value = local.get(nearKey);
+        if (value != null)
+            return CompletableFuture.completedFuture(value);
+        long version = invalidations.get();
+        return remote.getAsync(key).thenApply(loaded -> {
+            if (loaded != null && invalidations.get() == version)
+                local.put(nearKey, loaded);
+            return loaded;
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> result = new HashMap<Object, Object>();
+        List<Object> missing = new ArrayList<Object>();
+        for (Object key : keys) {
+            Object value = local.get(remote.toJedisKey(key));
+            if (value != null)
+                result.put(key, value);
+            else
+                missing.add(key);
+        }
+        if (missing.isEmpty())
+            return result;
+        long version = invalidations.get();
+        Map<Object, Object> found = remote.getAll(missing);
+        result.putAll(found);
+        if (invalidations.get() == version) {
+            for (Map.Entry<Object, Object> entry : found.entrySet())
+                local.put(remote.toJedisKey(entry.getKey()), entry.getValue());
+        }
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry) {
+        String nearKey = remote.toJedisKey(key);
+        invalidations.incrementAndGet();
+        // the L1 holds the value as Redis returns it, so that a read returns the same type whichever tier serves it, and Redis is sent the same bytes
+        CacheValueCodec codec = remote.getValueCodec();
+        byte[] encoded = codec.encode(entry);
+        local.put(nearKey, codec.decode(encoded));
+        Object result = remote.put(key, entry, encoded, remote.cacheTimeOut);
+        publish(Collections.singletonList(nearKey));
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        String nearKey = remote.toJedisKey(key);
+        invalidations.incrementAndGet();
+        CacheValueCodec codec = remote.getValueCodec();
+        byte[] encoded = codec.encode(entry);
+        local.put(nearKey, codec.decode(encoded), ttl, unit);
+        Object result = remote.put(key, entry, encoded, CacheJedisImpl.seconds(ttl, unit));
+        publish(Collections.singletonList(nearKey));
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void putAll(Map<?, ?> entries) {
+        CacheValueCodec codec = remote.getValueCodec();
+        List<String> nearKeys = new ArrayList<String>(entries.size());
+        Map<Object, Object> nearEntries = new HashMap<Object, Object>();
+        byte[][] encoded = new byte[entries.size()][];
+        int n = 0;
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            String nearKey = remote.toJedisKey(entry.getKey());
+            nearKeys.add(nearKey);
+            encoded[n] = codec.encode(entry.getValue());
+            nearEntries.put(nearKey, codec.decode(encoded[n++]));
+        }
+        invalidations.incrementAndGet();
+        local.putAll(nearEntries);
+        remote.putAll(entries, encoded);
+        publish(nearKeys);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object remove(Object obj) {
+        String nearKey = remote.toJedisKey(obj);
+        invalidations.incrementAndGet();
+        Object value = local.remove(nearKey);
+        try {
+            Object remoteValue = remote.remove(obj);
+            if (remoteValue != null)
+                value = remoteValue;
+        } catch (RuntimeException e) {
+            logger.warn("Could not remove {} from redis: {}", nearKey, e.getMessage());
+        }
+        publish(Collections.singletonList(nearKey));
+        return value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dumpKey() {
+        local.dumpKey();
+        remote.dumpKey();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isEmpty() {
+        return remote.isEmpty();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeTail() {
+        local.removeTail();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return remote.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        invalidateAll();
+        remote.clear();
+        publish(null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        invalidateAll();
+        remote.flush();
+        publish(null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(Object objKey, Object objValue) {
+        put(objKey, objValue);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bounds the L1 only.
+     */
+    @Override
+    public void assertMaxCacheSize(int maxSize) {
+        local.assertMaxCacheSize(maxSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bounds the L1 only.
+     */
+    @Override
+    public void assertMaxCacheSize(int maxSize, int timeOut) {
+        local.assertMaxCacheSize(maxSize, timeOut);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Stops the invalidation subscriber and closes both tiers.
+     */
+    @Override
+    public void close() {
+        subscriber.shutdown();
+        local.close();
+        remote.close();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the statistics of the L1, whose hit ratio is the share of reads served without a network round trip; those of Redis are available from
+     * the remote cache.
+     */
+    @Override
+    public CacheStats getStats() {
+        return local.getStats();
+    }
+
+    /**
+     * <p>
+     * getLocalCache.
+     * </p>
+     *
+     * @return the L1 cache
+     */
+    public Cache getLocalCache() {
+        return local;
+    }
+
+    /**
+     * <p>
+     * isSubscribed.
+     * </p>
+     *
+     * @return whether invalidations from other nodes are currently being received
+     */
+    public boolean isSubscribed() {
+        JedisPubSub current = subscriber.pubSub;
+        return current != null && current.isSubscribed();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "CacheNearImpl [local=" + local + ", remote=" + remote + ", channel=" + channel + "]";
+    }
+
+    void invalidateAll() {
+        invalidations.incrementAndGet();
+        local.clear();
+    }
+
+    /**
+     * Handles an invalidation message: the originating node id, followed by a newline and the key, or alone to invalidate every key
+     */
+    void onInvalidation(String message) {
+        int separator = message.indexOf('\n');
+        String origin = separator < 0 ? message : message.substring(0, separator);
+        if (nodeId.equals(origin))
+            return;
+        if (separator < 0) {
+            logger.debug("Invalidating all entries on behalf of {}", origin);
+            invalidateAll();
+        } else {
+            invalidations.incrementAndGet();
+            local.remove(message.substring(separator + 1));
+        }
+    }
+
+    /**
+     * Announces the keys to the other nodes, or that every key changed if <code>nearKeys</code> is null
+     */
+    private void publish(List<String> nearKeys) {
+        List<String> messages = new ArrayList<String>();
+        if (nearKeys == null) {
+            messages.add(nodeId);
+        } else {
+            for (String nearKey : nearKeys)
+                messages.add(nodeId + '\n' + nearKey);
+        }
+        if (!remote.publish(channel, messages))
+            logger.debug("Invalidation of {} keys was not published", messages.size());
+    }
+}
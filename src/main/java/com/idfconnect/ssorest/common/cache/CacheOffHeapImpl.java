@@ -0,0 +1,614 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Local cache keeping its keys and values serialized outside the Java heap, so that millions of entries add almost nothing to the heap the garbage
+ * collector has to scan.
+ * </p>
+ * <p>
+ * The cache is split into lock-striped segments. Each segment appends its entries to a direct {@link ByteBuffer} used as a ring: when the ring is full the
+ * oldest records are overwritten, so eviction is first-in first-out. Each segment finds its records through an open-addressing index made of two
+ * primitive <code>int</code> arrays, holding the hash and ring offset of every live record. Overwritten and removed records stay in the ring as garbage until
+ * the ring comes round to them.
+ * </p>
+ * <p>
+ * Keys and values are converted to bytes with a {@link CacheValueCodec}, by default a {@link BinaryValueCodec}; keys are compared by their encoding, so
+ * it must be deterministic. A read returns a freshly decoded copy of the value, and so does a removal notification, decoded on the listener's executor. The
+ * memory of the rings is returned when the cache is garbage collected.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CacheOffHeapImpl implements Cache {
+    /** Constant <code>DEFAULT_CONCURRENCY_LEVEL=16</code> */
+    public static final int  DEFAULT_CONCURRENCY_LEVEL = 16;
+    static final long        NEVER                     = Long.MAX_VALUE;
+
+    // record layout: key length, value length, expiry, hash, key bytes, value bytes
+    static final int         KEY_LENGTH                = 0;
+    static final int         VALUE_LENGTH              = 4;
+    static final int         EXPIRES_AT                = 8;
+    static final int         HASH                      = 16;
+    static final int         HEADER                    = 20;
+
+    /**
+     * Ring of records with its index. All methods must be called with the lock held.
+     */
+    static final class Segment extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        final ByteBuffer          ring;
+        // view of the ring for bulk copies, which Java 8 only offers at the buffer position
+        final ByteBuffer          view;
+        // holds the stored key being compared
+        byte[]                    scratch          = new byte[64];
+        final int                 capacity;
+        int                       head;
+        int                       tail;
+        // when wrapped the records occupy [head, wrapEnd) then [0, tail), otherwise [head, tail)
+        boolean                   wrapped;
+        int                       wrapEnd;
+        int                       records;
+        int                       live;
+        int[]                     hashes;
+        // ring offset + 1 of the record, 0 for an empty slot
+        int[]                     offsets;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            ring = ByteBuffer.allocateDirect(capacity);
+            view = ring.duplicate();
+            hashes = new int[16];
+            offsets = new int[16];
+        }
+
+        /**
+         * Returns the index slot of the key, or -1
+         */
+        int find(int hash, byte[] key) {
+            int mask = offsets.length - 1;
+            for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                int offset = offsets[slot];
+                if (offset == 0)
+                    return -1;
+                if (hashes[slot] == hash && keyEquals(offset - 1, key))
+                    return slot;
+            }
+        }
+
+        boolean keyEquals(int offset, byte[] key) {
+            if (ring.getInt(offset + KEY_LENGTH) != key.length)
+                return false;
+            if (scratch.length < key.length)
+                scratch = new byte[Math.max(key.length, scratch.length * 2)];
+            copy(offset + HEADER, scratch, key.length);
+            for (int i = 0; i < key.length; i++) {
+                if (scratch[i] != key[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Copies <code>length</code> bytes of the ring from <code>offset</code> into the array
+         */
+        void copy(int offset, byte[] bytes, int length) {
+            view.clear();
+            view.position(offset);
+            view.get(bytes, 0, length);
+        }
+
+        /**
+         * Copies the array into the ring at <code>offset</code>
+         */
+        void write(int offset, byte[] bytes) {
+            view.clear();
+            view.position(offset);
+            view.put(bytes);
+        }
+
+        void insert(int hash, int offset) {
+            if ((live + 1) * 2 > offsets.length)
+                resize(offsets.length * 2);
+            int mask = offsets.length - 1;
+            int slot = hash & mask;
+            while (offsets[slot] != 0)
+                slot = (slot + 1) & mask;
+            hashes[slot] = hash;
+            offsets[slot] = offset + 1;
+            live++;
+        }
+
+        /**
+         * Empties the slot, shifting back the entries of its probe sequence so that no tombstones are needed
+         */
+        void removeSlot(int slot) {
+            int mask = offsets.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; offsets[next] != 0; next = (next + 1) & mask) {
+                int ideal = hashes[next] & mask;
+                if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                    hashes[hole] = hashes[next];
+                    offsets[hole] = offsets[next];
+                    hole = next;
+                }
+            }
+            hashes[hole] = 0;
+            offsets[hole] = 0;
+            live--;
+        }
+
+        private void resize(int length) {
+            int[] oldHashes = hashes;
+            int[] oldOffsets = offsets;
+            hashes = new int[length];
+            offsets = new int[length];
+            int mask = length - 1;
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] == 0)
+                    continue;
+                int slot = oldHashes[i] & mask;
+                while (offsets[slot] != 0)
+                    slot = (slot + 1) & mask;
+                hashes[slot] = oldHashes[i];
+                offsets[slot] = oldOffsets[i];
+            }
+        }
+
+        /**
+         * Makes room for a record of the given size, overwriting the oldest records as needed
+         *
+         * @return the offset to write the record at
+         */
+        int allocate(int size, CacheOffHeapImpl cache) {
+            if (records == 0) {
+                head = 0;
+                tail = 0;
+                wrapped = false;
+            }
+            for (;;) {
+                if (!wrapped) {
+                    if (capacity - tail >= size)
+                        break;
+                    // no room before the end of the ring, continue from its start
+                    wrapEnd = tail;
+                    tail = 0;
+                    wrapped = true;
+                } else {
+                    if (head - tail >= size)
+                        break;
+                    evictHead(cache);
+                }
+            }
+            int offset = tail;
+            tail += size;
+            records++;
+            return offset;
+        }
+
+        /**
+         * Drops the oldest record, removing it from the index and recording an eviction if it is still live
+         *
+         * @return whether a live entry was evicted
+         */
+        boolean evictHead(CacheOffHeapImpl cache) {
+            if (records == 0)
+                return false;
+            int offset = head;
+            int size = HEADER + ring.getInt(offset + KEY_LENGTH) + ring.getInt(offset + VALUE_LENGTH);
+            boolean evicted = false;
+            int hash = ring.getInt(offset + HASH);
+            int mask = offsets.length - 1;
+            for (int slot = hash & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+                if (offsets[slot] == offset + 1) {
+                    if (cache.removals.hasListeners())
+                        cache.removals.notify(null, readKey(this, offset), read(this, offset), cache.codec, RemovalCause.SIZE);
+                    removeSlot(slot);
+                    cache.size.decrementAndGet();
+                    cache.stats.recordEviction();
+                    evicted = true;
+                    break;
+                }
+            }
+            head += size;
+            records--;
+            if (wrapped && head >= wrapEnd) {
+                head = 0;
+                wrapped = false;
+            }
+            return evicted;
+        }
+
+        void clear(CacheOffHeapImpl cache) {
+            if (cache.removals.hasListeners()) {
+                for (int offset : offsets) {
+                    if (offset != 0)
+                        cache.removals.notify(null, readKey(this, offset - 1), read(this, offset - 1), cache.codec, RemovalCause.EXPLICIT);
+                }
+            }
+            head = 0;
+            tail = 0;
+            wrapped = false;
+            records = 0;
+            live = 0;
+            hashes = new int[16];
+            offsets = new int[16];
+        }
+
+        int usedBytes() {
+            if (records == 0)
+                return 0;
+            return wrapped ? wrapEnd - head + tail : tail - head;
+        }
+    }
+
+    protected volatile int        maxsize;
+    protected volatile int        cacheTimeOut;
+    protected final long          capacityBytes;
+    protected final CacheValueCodec codec;
+    final Segment[]               segments;
+    final int                     segmentShift;
+    final AtomicInteger           size        = new AtomicInteger();
+    final AtomicInteger           evictCursor = new AtomicInteger();
+    final CacheStats              stats       = new CacheStats();
+    final RemovalNotifier         removals    = new RemovalNotifier();
+
+    Logger                        logger      = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Constructor for CacheOffHeapImpl.
+     *
+     * @param capacityBytes
+     *            off-heap memory to use for keys and values, split evenly between the segments
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            time out of the entries in seconds, {@link Integer#MAX_VALUE} for none
+     */
+    public CacheOffHeapImpl(long capacityBytes, int i, int timeOut) {
+        this(capacityBytes, i, timeOut, DEFAULT_CONCURRENCY_LEVEL, new BinaryValueCodec());
+    }
+
+    /**
+     * Constructor for CacheOffHeapImpl.
+     *
+     * @param capacityBytes
+     *            off-heap memory to use for keys and values, split evenly between the segments
+     * @param i
+     *            maximum number of entries
+     * @param timeOut
+     *            time out of the entries in seconds, {@link Integer#MAX_VALUE} for none
+     * @param concurrencyLevel
+     *            the expected number of concurrently writing threads, rounded up to a power of two segments
+     * @param codec
+     *            converts keys and values to bytes
+     */
+    public CacheOffHeapImpl(long capacityBytes, int i, int timeOut, int concurrencyLevel, CacheValueCodec codec) {
+        int count = 1;
+        int shift = 0;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+            shift++;
+        }
+        long segmentBytes = capacityBytes / count;
+        if (segmentBytes < HEADER || segmentBytes > Integer.MAX_VALUE - 1)
+            throw new IllegalArgumentException("Capacity of " + capacityBytes + " bytes cannot be split into " + count + " segments");
+        this.capacityBytes = segmentBytes * count;
+        this.maxsize = i;
+        this.cacheTimeOut = timeOut;
+        this.codec = codec;
+        segments = new Segment[count];
+        for (int s = 0; s < count; s++)
+            segments[s] = new Segment((int) segmentBytes);
+        segmentShift = 32 - shift;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object get(Object key) {
+        long start = stats.startTimer();
+        byte[] keyBytes = codec.encode(key);
+        int hash = hashOf(keyBytes);
+        Segment segment = segmentFor(hash);
+        byte[] valueBytes = null;
+        segment.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot >= 0) {
+                int offset = segment.offsets[slot] - 1;
+                if (segment.ring.getLong(offset + EXPIRES_AT) - System.nanoTime() <= 0) {
+                    if (removals.hasListeners())
+                        removals.notify(key, null, read(segment, offset), codec, RemovalCause.EXPIRED);
+                    segment.removeSlot(slot);
+                    size.decrementAndGet();
+                    stats.recordExpiration();
+                } else {
+                    valueBytes = read(segment, offset);
+                }
+            }
+        } finally {
+            segment.unlock();
+        }
+        // decode outside the lock
+        Object value = valueBytes == null ? null : codec.decode(valueBytes);
+        if (value == null)
+            stats.recordMiss();
+        else
+            stats.recordHit();
+        stats.recordLatency(CacheStats.Operation.GET, start);
+        return value;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry) {
+        int timeOut = cacheTimeOut;
+        return put(key, entry, timeOut == Integer.MAX_VALUE ? NEVER : TimeUnit.SECONDS.toNanos(timeOut));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object put(Object key, Object entry, long ttl, TimeUnit unit) {
+        return put(key, entry, unit.toNanos(ttl));
+    }
+
+    private Object put(Object key, Object entry, long ttl) {
+        if (entry == null)
+            throw new NullPointerException();
+        long start = stats.startTimer();
+        byte[] keyBytes = codec.encode(key);
+        byte[] valueBytes = codec.encode(entry);
+        int hash = hashOf(keyBytes);
+        Segment segment = segmentFor(hash);
+        int recordSize = HEADER + keyBytes.length + valueBytes.length;
+        byte[] oldBytes = null;
+        stats.recordPut();
+        segment.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot >= 0) {
+                oldBytes = read(segment, segment.offsets[slot] - 1);
+                segment.removeSlot(slot);
+                size.decrementAndGet();
+            }
+            if (recordSize > segment.capacity) {
+                // could never fit
+                if (oldBytes != null)
+                    stats.recordEviction();
+            } else {
+                int offset = segment.allocate(recordSize, this);
+                ByteBuffer ring = segment.ring;
+                ring.putInt(offset + KEY_LENGTH, keyBytes.length);
+                ring.putInt(offset + VALUE_LENGTH, valueBytes.length);
+                long now = System.nanoTime();
+                ring.putLong(offset + EXPIRES_AT, ttl == NEVER || now + ttl < now ? NEVER : now + ttl);
+                ring.putInt(offset + HASH, hash);
+                segment.write(offset + HEADER, keyBytes);
+                segment.write(offset + HEADER + keyBytes.length, valueBytes);
+                segment.insert(hash, offset);
+                size.incrementAndGet();
+                int limit = Math.max(1, (maxsize + segments.length - 1) / segments.length);
+                while (segment.live > limit)
+                    segment.evictHead(this);
+            }
+        } finally {
+            segment.unlock();
+        }
+        if (oldBytes != null)
+            removals.notify(key, null, oldBytes, codec, recordSize > segment.capacity ? RemovalCause.SIZE : RemovalCause.REPLACED);
+        stats.recordLatency(CacheStats.Operation.PUT, start);
+        return oldBytes == null ? null : codec.decode(oldBytes);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object remove(Object obj) {
+        long start = stats.startTimer();
+        byte[] keyBytes = codec.encode(obj);
+        int hash = hashOf(keyBytes);
+        Segment segment = segmentFor(hash);
+        byte[] oldBytes = null;
+        segment.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot >= 0) {
+                oldBytes = read(segment, segment.offsets[slot] - 1);
+                segment.removeSlot(slot);
+                size.decrementAndGet();
+                stats.recordRemoval();
+            }
+        } finally {
+            segment.unlock();
+        }
+        if (oldBytes != null)
+            removals.notify(obj, null, oldBytes, codec, RemovalCause.EXPLICIT);
+        stats.recordLatency(CacheStats.Operation.REMOVE, start);
+        return oldBytes == null ? null : codec.decode(oldBytes);
+    }
+
+    /**
+     * Evicts the oldest entry of the next non-empty segment
+     *
+     * @since 3.0.2
+     */
+    @Override
+    public void removeTail() {
+        for (int attempt = 0; attempt < segments.length; attempt++) {
+            Segment segment = segments[evictCursor.getAndIncrement() & (segments.length - 1)];
+            segment.lock();
+            try {
+                while (segment.records > 0) {
+                    if (segment.evictHead(this))
+                        return;
+                }
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void dumpKey() {
+        logger.debug("{} {}", toString(), stats);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                size.addAndGet(-segment.live);
+                segment.clear(this);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void flush() {
+        clear();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void add(Object objKey, Object objValue) {
+        put(objKey, objValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assertMaxCacheSize(int maxSize) {
+        assertMaxCacheSize(maxSize, cacheTimeOut);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void assertMaxCacheSize(int maxSize, int timeOut) {
+        this.maxsize = maxSize;
+        this.cacheTimeOut = timeOut;
+        int limit = Math.max(1, (maxSize + segments.length - 1) / segments.length);
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                while (segment.live > limit)
+                    segment.evictHead(this);
+            } finally {
+                segment.unlock();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * getCapacityBytes.
+     * </p>
+     *
+     * @return the off-heap memory reserved for keys and values
+     * @since 3.0.2
+     */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * <p>
+     * getUsedBytes.
+     * </p>
+     *
+     * @return the off-heap memory holding records, including overwritten and removed ones not yet reclaimed
+     * @since 3.0.2
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                used += segment.usedBytes();
+            } finally {
+                segment.unlock();
+            }
+        }
+        return used;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addRemovalListener(CacheRemovalListener listener, Executor executor) {
+        removals.add(listener, executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void removeRemovalListener(CacheRemovalListener listener) {
+        removals.remove(listener);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "CacheOffHeapImpl [size=" + size.get() + ", maxsize=" + maxsize + ", capacityBytes=" + capacityBytes + ", segments=" + segments.length + "]";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static int hashOf(byte[] bytes) {
+        int h = Arrays.hashCode(bytes);
+        h ^= (h >>> 16);
+        return h * 0x9E3779B9;
+    }
+
+    private static byte[] readKey(Segment segment, int offset) {
+        byte[] bytes = new byte[segment.ring.getInt(offset + KEY_LENGTH)];
+        segment.copy(offset + HEADER, bytes, bytes.length);
+        return bytes;
+    }
+
+    private static byte[] read(Segment segment, int offset) {
+        ByteBuffer ring = segment.ring;
+        int keyLength = ring.getInt(offset + KEY_LENGTH);
+        byte[] bytes = new byte[ring.getInt(offset + VALUE_LENGTH)];
+        segment.copy(offset + HEADER + keyLength, bytes, bytes.length);
+        return bytes;
+    }
+}
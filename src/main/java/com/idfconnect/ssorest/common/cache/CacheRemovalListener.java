@@ -0,0 +1,23 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Notified of the entries leaving a cache, see {@link Cache#addRemovalListener(CacheRemovalListener)}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@FunctionalInterface
+public interface CacheRemovalListener {
+
+    /**
+     * Method onRemoval, called on the executor given with the listener, after the entry left the cache.
+     *
+     * @param key the key of the entry
+     * @param value the value of the entry; for {@link RemovalCause#REPLACED} the previous value
+     * @param cause why the entry left the cache
+     * @since 3.0.2
+     */
+    public void onRemoval(Object key, Object value, RemovalCause cause);
+}
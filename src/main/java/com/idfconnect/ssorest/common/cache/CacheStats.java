@@ -0,0 +1,289 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Statistics recorded by a {@link Cache}: hits, misses, puts, removals, evictions and expirations, plus latency histograms per operation.
+ * </p>
+ * <p>
+ * Counters are {@link LongAdder}s, so recording never contends between threads. Latency tracking costs two clock reads per operation and can be switched
+ * on or off at any time; the caches enable it by default where an operation involves the network. A {@link CacheStats} can be exposed through JMX with
+ * {@link #register(String)}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CacheStats implements CacheStatsMXBean {
+    /** Value returned by {@link #startTimer()} when latencies are not tracked */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * Operations whose latency is recorded
+     */
+    public enum Operation {
+        GET, PUT, REMOVE
+    }
+
+    private final LongAdder          hits         = new LongAdder();
+    private final LongAdder          misses       = new LongAdder();
+    private final LongAdder          puts         = new LongAdder();
+    private final LongAdder          removals     = new LongAdder();
+    private final LongAdder          evictions    = new LongAdder();
+    private final LongAdder          expirations  = new LongAdder();
+    private final LatencyHistogram[] latencies    = new LatencyHistogram[Operation.values().length];
+    private volatile boolean         latencyTracking;
+
+    /**
+     * Constructor for CacheStats, with latency tracking disabled.
+     */
+    public CacheStats() {
+        this(false);
+    }
+
+    /**
+     * Constructor for CacheStats.
+     *
+     * @param latencyTracking
+     *            whether to record operation latencies
+     */
+    public CacheStats(boolean latencyTracking) {
+        for (int i = 0; i < latencies.length; i++)
+            latencies[i] = new LatencyHistogram();
+        this.latencyTracking = latencyTracking;
+    }
+
+    /**
+     * <p>recordHit.</p>
+     */
+    public void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * <p>recordHits.</p>
+     *
+     * @param count a int.
+     */
+    public void recordHits(int count) {
+        hits.add(count);
+    }
+
+    /**
+     * <p>recordMiss.</p>
+     */
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * <p>recordMisses.</p>
+     *
+     * @param count a int.
+     */
+    public void recordMisses(int count) {
+        misses.add(count);
+    }
+
+    /**
+     * <p>recordPut.</p>
+     */
+    public void recordPut() {
+        puts.increment();
+    }
+
+    /**
+     * <p>recordPuts.</p>
+     *
+     * @param count a int.
+     */
+    public void recordPuts(int count) {
+        puts.add(count);
+    }
+
+    /**
+     * <p>recordRemoval.</p>
+     */
+    public void recordRemoval() {
+        removals.increment();
+    }
+
+    /**
+     * <p>recordEviction.</p>
+     */
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * <p>recordExpiration.</p>
+     */
+    public void recordExpiration() {
+        expirations.increment();
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @return the value to pass to {@link #recordLatency(Operation, long)}, {@link #NOT_TIMED} if latencies are not tracked
+     */
+    public long startTimer() {
+        return latencyTracking ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records the latency of an operation started with {@link #startTimer()}
+     *
+     * @param operation
+     *            the operation
+     * @param start
+     *            the value returned by {@link #startTimer()}
+     */
+    public void recordLatency(Operation operation, long start) {
+        if (start != NOT_TIMED)
+            latencies[operation.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns a latency percentile of the operation
+     *
+     * @param operation
+     *            the operation
+     * @param percentile
+     *            between 0 and 100
+     * @return the latency in nanoseconds, within 25%, or 0 if none was recorded
+     */
+    public long getLatencyPercentileNanos(Operation operation, double percentile) {
+        return latencies[operation.ordinal()].percentile(percentile);
+    }
+
+    /**
+     * <p>getLatencyCount.</p>
+     *
+     * @param operation the operation
+     * @return the number of timed operations
+     */
+    public long getLatencyCount(Operation operation) {
+        return latencies[operation.ordinal()].count();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long requests = hitCount + misses.sum();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getPutCount() {
+        return puts.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getRemovalCount() {
+        return removals.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getGetLatencyMedianMicros() {
+        return getLatencyPercentileNanos(Operation.GET, 50) / 1000.0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getGetLatency99thPercentileMicros() {
+        return getLatencyPercentileNanos(Operation.GET, 99) / 1000.0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getPutLatencyMedianMicros() {
+        return getLatencyPercentileNanos(Operation.PUT, 50) / 1000.0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getPutLatency99thPercentileMicros() {
+        return getLatencyPercentileNanos(Operation.PUT, 99) / 1000.0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isLatencyTracking() {
+        return latencyTracking;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setLatencyTracking(boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removals.reset();
+        evictions.reset();
+        expirations.reset();
+        for (LatencyHistogram histogram : latencies)
+            histogram.reset();
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server as <code>com.idfconnect.ssorest:type=CacheStats,name=</code><i>name</i>
+     *
+     * @param name
+     *            name identifying the cache
+     * @return the name the statistics were registered under, to unregister them when the cache is closed
+     * @throws javax.management.JMException
+     *             if the name is invalid or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.idfconnect.ssorest:type=CacheStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "CacheStats [hits=" + hits.sum() + ", misses=" + misses.sum() + ", puts=" + puts.sum() + ", removals=" + removals.sum() + ", evictions="
+                + evictions.sum() + ", expirations=" + expirations.sum() + "]";
+    }
+}
@@ -0,0 +1,83 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * JMX view of a {@link CacheStats}, see {@link CacheStats#register(String)}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public interface CacheStatsMXBean {
+
+    /**
+     * @return the number of reads that found a live entry
+     */
+    public long getHitCount();
+
+    /**
+     * @return the number of reads that found no entry or an expired one
+     */
+    public long getMissCount();
+
+    /**
+     * @return the fraction of reads that were hits, or 1.0 if there were no reads
+     */
+    public double getHitRatio();
+
+    /**
+     * @return the number of writes
+     */
+    public long getPutCount();
+
+    /**
+     * @return the number of entries removed by the application
+     */
+    public long getRemovalCount();
+
+    /**
+     * @return the number of entries evicted to keep the cache within its bounds
+     */
+    public long getEvictionCount();
+
+    /**
+     * @return the number of entries removed because they expired
+     */
+    public long getExpirationCount();
+
+    /**
+     * @return the median read latency in microseconds, 0 if latencies are not tracked
+     */
+    public double getGetLatencyMedianMicros();
+
+    /**
+     * @return the 99th percentile read latency in microseconds, 0 if latencies are not tracked
+     */
+    public double getGetLatency99thPercentileMicros();
+
+    /**
+     * @return the median write latency in microseconds, 0 if latencies are not tracked
+     */
+    public double getPutLatencyMedianMicros();
+
+    /**
+     * @return the 99th percentile write latency in microseconds, 0 if latencies are not tracked
+     */
+    public double getPutLatency99thPercentileMicros();
+
+    /**
+     * @return whether operation latencies are being recorded
+     */
+    public boolean isLatencyTracking();
+
+    /**
+     * @param latencyTracking
+     *            whether to record operation latencies, at the cost of two clock reads per operation
+     */
+    public void setLatencyTracking(boolean latencyTracking);
+
+    /**
+     * Resets every counter and histogram to zero
+     */
+    public void reset();
+}
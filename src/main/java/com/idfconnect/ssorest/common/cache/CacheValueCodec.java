@@ -0,0 +1,30 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Converts cache values to and from the bytes stored by a remote cache such as {@link CacheJedisImpl}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public interface CacheValueCodec {
+
+    /**
+     * Method encode.
+     *
+     * @param value the non-null value to store
+     * @return the encoded bytes
+     * @since 3.0.2
+     */
+    public byte[] encode(Object value);
+
+    /**
+     * Method decode.
+     *
+     * @param bytes bytes previously returned by {@link #encode(Object)}
+     * @return the decoded value
+     * @since 3.0.2
+     */
+    public Object decode(byte[] bytes);
+}
@@ -0,0 +1,24 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Computes the weight of a cache entry, letting a cache be bounded by the total weight of its entries (typically their estimated size in bytes) rather
+ * than by their number.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@FunctionalInterface
+public interface CacheWeigher {
+
+    /**
+     * Method weigh. Called once when the entry is written; the weight must not depend on later changes to the key or value.
+     *
+     * @param key a {@link java.lang.Object} object.
+     * @param value a {@link java.lang.Object} object.
+     * @return the non-negative weight of the entry
+     * @since 3.0.2
+     */
+    public int weigh(Object key, Object value);
+}
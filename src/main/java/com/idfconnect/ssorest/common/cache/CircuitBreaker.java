@@ -0,0 +1,203 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Circuit breaker protecting the request threads from a failing Redis.
+ * </p>
+ * <p>
+ * The breaker is closed while Redis answers. Once <code>failureThreshold</code> calls in a row have failed it opens, and callers should then skip Redis
+ * altogether instead of each waiting for its own time out. After <code>openMillis</code> a single background probe is let through in the half-open state;
+ * its success closes the breaker and its failure opens it again for another period. The failure counter is only written when it changes, so recording the
+ * successes of a healthy server costs a volatile read.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CircuitBreaker {
+    /**
+     * State of the breaker
+     */
+    public enum State {
+        /** calls go through */
+        CLOSED,
+        /** calls are short-circuited */
+        OPEN,
+        /** calls are short-circuited while a probe checks whether the server recovered */
+        HALF_OPEN
+    }
+
+    private final int           failureThreshold;
+    private final long          openMillis;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong    trips    = new AtomicLong();
+    private volatile State      state    = State.CLOSED;
+    private volatile long       openedAt;
+
+    Logger                      logger   = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Constructor for CircuitBreaker, opening after {@link CacheConstant#REDIS_BREAKER_FAILURE_THRESHOLD_DEFAULT} failures for
+     * {@link CacheConstant#REDIS_BREAKER_OPEN_MILLIS_DEFAULT} milliseconds.
+     */
+    public CircuitBreaker() {
+        this(CacheConstant.REDIS_BREAKER_FAILURE_THRESHOLD_DEFAULT, CacheConstant.REDIS_BREAKER_OPEN_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Constructor for CircuitBreaker.
+     *
+     * @param failureThreshold
+     *            number of consecutive failures opening the breaker
+     * @param openMillis
+     *            milliseconds to wait before probing an open breaker
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("The failure threshold must be positive");
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Returns whether a call may go through
+     *
+     * @return a boolean.
+     */
+    public boolean allowRequest() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Records a successful call
+     */
+    public void recordSuccess() {
+        if (failures.get() != 0)
+            failures.set(0);
+    }
+
+    /**
+     * Records a failed call, opening the breaker once the threshold is reached
+     *
+     * @return whether this failure opened the breaker
+     */
+    public boolean recordFailure() {
+        if (failures.incrementAndGet() < failureThreshold)
+            return false;
+        return trip();
+    }
+
+    private synchronized boolean trip() {
+        if (state != State.CLOSED)
+            return false;
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        trips.incrementAndGet();
+        logger.warn("Circuit opened after {} consecutive failures", failures.get());
+        return true;
+    }
+
+    /**
+     * Returns the milliseconds left before the open breaker may be probed, 0 if it may be probed now
+     *
+     * @return a long.
+     */
+    public long getRemainingOpenMillis() {
+        return Math.max(0, openedAt + openMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * Moves an open breaker to half-open, for the probe
+     *
+     * @return whether the breaker was open
+     */
+    public synchronized boolean attemptProbe() {
+        if (state != State.OPEN)
+            return false;
+        state = State.HALF_OPEN;
+        return true;
+    }
+
+    /**
+     * Ends a probe: closes the breaker if it succeeded, otherwise opens it for another period
+     *
+     * @param recovered
+     *            whether the probe succeeded
+     */
+    public synchronized void completeProbe(boolean recovered) {
+        if (state != State.HALF_OPEN)
+            return;
+        if (recovered) {
+            failures.set(0);
+            state = State.CLOSED;
+            logger.info("Circuit closed, server recovered");
+        } else {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Closes the breaker and forgets the failures
+     */
+    public synchronized void reset() {
+        failures.set(0);
+        state = State.CLOSED;
+    }
+
+    /**
+     * <p>
+     * getState.
+     * </p>
+     *
+     * @return the current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * <p>
+     * getTripCount.
+     * </p>
+     *
+     * @return the number of times the breaker opened
+     */
+    public long getTripCount() {
+        return trips.get();
+    }
+
+    /**
+     * <p>
+     * getFailureThreshold.
+     * </p>
+     *
+     * @return the number of consecutive failures opening the breaker
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * <p>
+     * getOpenMillis.
+     * </p>
+     *
+     * @return milliseconds to wait before probing an open breaker
+     */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "CircuitBreaker [state=" + state + ", failures=" + failures.get() + ", trips=" + trips.get() + "]";
+    }
+}
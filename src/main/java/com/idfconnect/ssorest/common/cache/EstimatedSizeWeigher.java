@@ -0,0 +1,75 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * <p>
+ * {@link CacheWeigher} estimating the heap footprint of an entry in bytes, assuming a 64-bit JVM with compressed references.
+ * </p>
+ * <p>
+ * Strings, byte and char arrays, boxed primitives and collections or maps of those are measured; any other object is counted as
+ * {@link #DEFAULT_OBJECT_SIZE} bytes, so callers caching large custom objects should supply their own weigher. Collections are only measured one level deep
+ * to keep weighing cheap.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class EstimatedSizeWeigher implements CacheWeigher {
+    /** Constant <code>DEFAULT_OBJECT_SIZE=64</code>, bytes charged for objects of unknown layout */
+    public static final int  DEFAULT_OBJECT_SIZE = 64;
+    /** Constant <code>ENTRY_OVERHEAD=64</code>, bytes charged for the cache's own bookkeeping of an entry */
+    public static final int  ENTRY_OVERHEAD      = 64;
+
+    private static final int OBJECT_HEADER       = 16;
+    private static final int REFERENCE           = 4;
+
+    /** {@inheritDoc} */
+    @Override
+    public int weigh(Object key, Object value) {
+        long weight = ENTRY_OVERHEAD + estimate(key, true) + estimate(value, true);
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Estimates the size of an object in bytes
+     *
+     * @param obj
+     *            the object, may be null
+     * @param deep
+     *            whether to measure the elements of a collection or map
+     * @return a long.
+     * @since 3.0.2
+     */
+    protected long estimate(Object obj, boolean deep) {
+        if (obj == null)
+            return 0;
+        if (obj instanceof String)
+            // String object plus its backing array, assuming two bytes per char
+            return OBJECT_HEADER + 8 + OBJECT_HEADER + 2L * ((String) obj).length();
+        if (obj instanceof byte[])
+            return OBJECT_HEADER + ((byte[]) obj).length;
+        if (obj instanceof char[])
+            return OBJECT_HEADER + 2L * ((char[]) obj).length;
+        if (obj instanceof Number || obj instanceof Boolean || obj instanceof Character)
+            return OBJECT_HEADER + 8;
+        if (obj instanceof Collection) {
+            Collection<?> collection = (Collection<?>) obj;
+            long size = OBJECT_HEADER + 16 + (long) collection.size() * (REFERENCE + OBJECT_HEADER);
+            if (deep)
+                for (Object element : collection)
+                    size += estimate(element, false);
+            return size;
+        }
+        if (obj instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) obj;
+            long size = OBJECT_HEADER + 32 + (long) map.size() * (REFERENCE + 32);
+            if (deep)
+                for (Map.Entry<?, ?> entry : map.entrySet())
+                    size += estimate(entry.getKey(), false) + estimate(entry.getValue(), false);
+            return size;
+        }
+        return DEFAULT_OBJECT_SIZE;
+    }
+}
@@ -0,0 +1,108 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Count-min sketch estimating how often keys were accessed, used as the admission filter of the W-TinyLFU eviction policy.
+ * </p>
+ * <p>
+ * Each key maps to four 4-bit counters, one per hash function, packed sixteen to a <code>long</code>; the estimate is the smallest of the four. Counters
+ * saturate at 15, and once the number of recorded increments reaches ten times the capacity every counter is halved, so the sketch forgets stale popularity
+ * and keeps tracking the recent working set. Increments use compare-and-set, so the sketch may be updated from lock-free reads.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class FrequencySketch {
+    private static final long[]  SEEDS      = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long    RESET_MASK = 0x7777777777777777L;
+    private static final int     MAX_COUNT  = 15;
+
+    private final AtomicLongArray table;
+    private final int             tableMask;
+    private final int             sampleSize;
+    private final AtomicInteger   additions = new AtomicInteger();
+
+    /**
+     * Constructor for FrequencySketch.
+     *
+     * @param capacity
+     *            the number of entries whose frequencies should be tracked accurately
+     */
+    FrequencySketch(int capacity) {
+        int length = 1;
+        while (length < Math.max(capacity, 8))
+            length <<= 1;
+        table = new AtomicLongArray(length);
+        tableMask = length - 1;
+        sampleSize = (int) Math.min(10L * Math.max(capacity, 1), Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Returns the estimated number of times the key was recently accessed, at most 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < 4; i++) {
+            long word = table.get(indexOf(hash, i));
+            frequency = Math.min(frequency, (int) ((word >>> ((start + i) << 2)) & 0xfL));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access to the key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(hash, i), start + i);
+        if (added && additions.incrementAndGet() == sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        for (;;) {
+            long word = table.get(index);
+            if ((word & mask) == mask)
+                return false;
+            if (table.compareAndSet(index, word, word + (1L << offset)))
+                return true;
+        }
+    }
+
+    /**
+     * Halves every counter. Only the thread whose increment reached the sample size gets here, so resets never overlap.
+     */
+    private void reset() {
+        for (int i = 0; i <= tableMask; i++) {
+            for (;;) {
+                long word = table.get(i);
+                if (table.compareAndSet(i, word, (word >>> 1) & RESET_MASK))
+                    break;
+            }
+        }
+        additions.addAndGet(-sampleSize / 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,71 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * Compact, collision-resistant {@link CacheKeyEncoder}.
+ * </p>
+ * <p>
+ * A key is stored as the 128-bit murmur3 hash of its class name followed by its string form, in 22 URL-safe Base64 characters. Unlike the 32-bit
+ * {@link Object#hashCode()} of {@link CacheConstant#CACHE_KEY_TYPE_HASH_CODE}, two keys are not expected to collide before about 2<sup>64</sup> keys; and
+ * keys of different classes with the same string form, such as <code>1</code> and <code>"1"</code>, are told apart. The hash is not cryptographic: it
+ * keeps the keys of a trusted application apart, it does not stop someone choosing keys from forging a collision.
+ * </p>
+ * <p>
+ * The encoded form of the last {@link CacheConstant#CACHE_KEY_ENCODER_CACHE_SIZE_DEFAULT} keys is remembered, so a key looked up repeatedly is neither
+ * converted to a string nor hashed again. Keys must therefore be immutable, or at least keep their string form while equal.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class HashedKeyEncoder implements CacheKeyEncoder {
+    private static final HashFunction                          HASH = Hashing.murmur3_128();
+
+    private final com.google.common.cache.Cache<Object, String> encoded;
+
+    /**
+     * Constructor for HashedKeyEncoder, remembering {@link CacheConstant#CACHE_KEY_ENCODER_CACHE_SIZE_DEFAULT} keys.
+     */
+    public HashedKeyEncoder() {
+        this(CacheConstant.CACHE_KEY_ENCODER_CACHE_SIZE_DEFAULT);
+    }
+
+    /**
+     * Constructor for HashedKeyEncoder.
+     *
+     * @param maxCachedKeys
+     *            number of encoded keys to remember, 0 for none
+     */
+    public HashedKeyEncoder(int maxCachedKeys) {
+        encoded = CacheBuilder.newBuilder().maximumSize(maxCachedKeys).build();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String encode(Object key) {
+        String result = encoded.getIfPresent(key);
+        if (result == null) {
+            result = hash(key);
+            encoded.put(key, result);
+        }
+        return result;
+    }
+
+    static String hash(Object key) {
+        byte[] hash = HASH.newHasher()
+                .putString(key.getClass().getName(), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(key.toString(), StandardCharsets.UTF_8)
+                .hash()
+                .asBytes();
+        return Base64.encodeBase64URLSafeString(hash);
+    }
+}
@@ -0,0 +1,47 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+
+/**
+ * <p>
+ * The original {@link CacheJedisImpl} encoding: values are stored as their Gson JSON representation, and read back as the raw JSON string without being
+ * deserialized. Kept as the default so existing entries and readers keep working; use a {@link BinaryValueCodec} to get the original objects back.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class JsonValueCodec implements CacheValueCodec {
+    private final Gson gson;
+
+    /**
+     * Constructor for JsonValueCodec.
+     */
+    public JsonValueCodec() {
+        this(new Gson());
+    }
+
+    /**
+     * Constructor for JsonValueCodec.
+     *
+     * @param gson
+     *            a {@link com.google.gson.Gson} object.
+     */
+    public JsonValueCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public byte[] encode(Object value) {
+        return gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Object decode(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
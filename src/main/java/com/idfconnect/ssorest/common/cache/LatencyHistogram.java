@@ -0,0 +1,80 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Lock-free histogram of durations in nanoseconds.
+ * </p>
+ * <p>
+ * Buckets are log-linear: every power of two is split into four buckets, so a percentile is reported within 25% of the true value whatever its magnitude,
+ * using a fixed {@value #BUCKETS} counters.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class LatencyHistogram {
+    static final int          BUCKETS = 256;
+
+    private final LongAdder[] counts  = new LongAdder[BUCKETS];
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = new LongAdder();
+    }
+
+    void record(long nanos) {
+        counts[bucketOf(Math.max(nanos, 0))].increment();
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder c : counts)
+            count += c.sum();
+        return count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile, in nanoseconds, or 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(rank, 1))
+                return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    void reset() {
+        for (LongAdder c : counts)
+            c.reset();
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < 4)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - 2)) & 3;
+        return Math.min(((exponent - 1) << 2) + sub, BUCKETS - 1);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 4)
+            return bucket;
+        int exponent = (bucket >>> 2) + 1;
+        int sub = bucket & 3;
+        return ((5L + sub) << (exponent - 2)) - 1;
+    }
+}
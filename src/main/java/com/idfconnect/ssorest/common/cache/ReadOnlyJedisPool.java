@@ -0,0 +1,113 @@
+package com.idfconnect.ssorest.common.cache;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.Pool;
+
+/**
+ * Pool of connections to a Redis Cluster replica, each switched to READONLY once when created so that it serves reads of the slots of its master
+ * instead of redirecting them.
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class ReadOnlyJedisPool extends Pool<Jedis> {
+    /**
+     * Creates the READONLY connections
+     */
+    static final class Factory implements PooledObjectFactory<Jedis> {
+        private final String host;
+        private final int    port;
+        private final int    connectTimeoutMillis;
+        private final int    soTimeoutMillis;
+
+        Factory(String host, int port, int connectTimeoutMillis, int soTimeoutMillis) {
+            this.host = host;
+            this.port = port;
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            this.soTimeoutMillis = soTimeoutMillis;
+        }
+
+        @Override
+        public PooledObject<Jedis> makeObject() {
+            Jedis jedis = new Jedis(host, port, connectTimeoutMillis, soTimeoutMillis);
+            try {
+                jedis.connect();
+                jedis.readonly();
+            } catch (JedisException e) {
+                jedis.close();
+                throw e;
+            }
+            return new DefaultPooledObject<Jedis>(jedis);
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Jedis> pooled) {
+            Jedis jedis = pooled.getObject();
+            if (!jedis.isConnected())
+                return;
+            try {
+                jedis.quit();
+            } catch (Exception e) {
+                // closing anyway
+            }
+            jedis.disconnect();
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Jedis> pooled) {
+            try {
+                return "PONG".equals(pooled.getObject().ping());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void activateObject(PooledObject<Jedis> pooled) {
+            // nothing to do
+        }
+
+        @Override
+        public void passivateObject(PooledObject<Jedis> pooled) {
+            // nothing to do
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    ReadOnlyJedisPool(GenericObjectPoolConfig poolConfig, String host, int port, int connectTimeoutMillis, int soTimeoutMillis) {
+        super(poolConfig, new Factory(host, port, connectTimeoutMillis, soTimeoutMillis));
+    }
+
+    @Override
+    public Jedis getResource() {
+        Jedis jedis = super.getResource();
+        // lets Jedis.close() return the connection here
+        jedis.setDataSource(this);
+        return jedis;
+    }
+
+    // Jedis.close() returns its connection through this deprecated method, which JedisPool overrides the same way
+    @Override
+    @SuppressWarnings("deprecation")
+    public void returnResource(Jedis resource) {
+        if (resource == null)
+            return;
+        try {
+            resource.resetState();
+            returnResourceObject(resource);
+        } catch (Exception e) {
+            returnBrokenResource(resource);
+            throw new JedisException("Resource is returned to the pool as broken", e);
+        }
+    }
+}
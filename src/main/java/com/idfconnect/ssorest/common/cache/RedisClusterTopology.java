@@ -0,0 +1,228 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.JedisClusterCRC16;
+import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>
+ * {@link RedisTopology} of a Redis Cluster.
+ * </p>
+ * <p>
+ * Each key is routed by its hash slot, so writes are sharded over the masters, and reads are balanced over the replicas of the master owning the slot,
+ * or go to the master while none is available. The slot table is read with CLUSTER SLOTS from any known node when created and at every health check; a
+ * command redirected with MOVED or ASK should be retried on {@link #getMaster(HostAndPort)} and followed by {@link #requestRefresh()}. Commands on several keys are split by server by {@link CacheJedisImpl}, so keys need no hash tags.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class RedisClusterTopology extends AbstractRedisTopology {
+    /**
+     * The servers of a range of slots
+     */
+    static final class Shard {
+        final Pool<Jedis>       master;
+        final List<ReplicaPool> replicas;
+
+        Shard(Pool<Jedis> master, List<ReplicaPool> replicas) {
+            this.master = master;
+            this.replicas = replicas;
+        }
+    }
+
+    protected final Set<HostAndPort>           seeds;
+    private volatile Shard[]                   slots   = new Shard[CacheConstant.REDIS_CLUSTER_SLOTS];
+    private volatile Map<String, Pool<Jedis>>  pools   = Collections.emptyMap();
+    private volatile List<Pool<Jedis>>         masters = Collections.emptyList();
+
+    /**
+     * Constructor for RedisClusterTopology.
+     *
+     * @param nodes
+     *            the <code>host:port</code> of some of the nodes, used to discover the others
+     * @param poolConfig
+     *            configuration of the connection pool of each node
+     */
+    public RedisClusterTopology(Set<String> nodes, JedisPoolConfig poolConfig) {
+        this(nodes, poolConfig, CacheConstant.REDIS_HEALTH_CHECK_INTERVAL_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Constructor for RedisClusterTopology.
+     *
+     * @param nodes
+     *            the <code>host:port</code> of some of the nodes, used to discover the others
+     * @param poolConfig
+     *            configuration of the connection pool of each node
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two refreshes of the slot table
+     */
+    public RedisClusterTopology(Set<String> nodes, JedisPoolConfig poolConfig, long healthCheckIntervalMillis) {
+        this(nodes, poolConfig, CacheConstant.REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT, CacheConstant.REDIS_SO_TIMEOUT_MILLIS_DEFAULT, healthCheckIntervalMillis);
+    }
+
+    /**
+     * Constructor for RedisClusterTopology.
+     *
+     * @param nodes
+     *            the <code>host:port</code> of some of the nodes, used to discover the others
+     * @param poolConfig
+     *            configuration of the connection pool of each node
+     * @param connectTimeoutMillis
+     *            milliseconds allowed to open a connection
+     * @param soTimeoutMillis
+     *            milliseconds allowed for a node to answer a command
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two refreshes of the slot table
+     */
+    public RedisClusterTopology(Set<String> nodes, JedisPoolConfig poolConfig, int connectTimeoutMillis, int soTimeoutMillis, long healthCheckIntervalMillis) {
+        super(poolConfig, connectTimeoutMillis, soTimeoutMillis, healthCheckIntervalMillis);
+        seeds = new LinkedHashSet<HostAndPort>();
+        for (String node : nodes)
+            seeds.add(HostAndPort.parseString(node));
+        if (!refresh())
+            logger.warn("No node of the cluster {} could be reached, retrying in the background", nodes);
+        startHealthChecks();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getMaster(byte[] key) {
+        Shard shard = slots[JedisClusterCRC16.getSlot(key)];
+        return shard == null ? null : shard.master;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getMaster(HostAndPort node) {
+        return pools.get("master " + node);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getReplica(byte[] key) {
+        Shard shard = slots[JedisClusterCRC16.getSlot(key)];
+        if (shard == null)
+            return null;
+        Pool<Jedis> replica = choose(shard.replicas);
+        return replica != null ? replica : shard.master;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Pool<Jedis>> getMasters() {
+        return masters;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Pool<Jedis>> getPools() {
+        return new ArrayList<Pool<Jedis>>(pools.values());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isSharded() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized boolean refresh() {
+        List<HostAndPort> candidates = new ArrayList<HostAndPort>();
+        for (String node : pools.keySet())
+            candidates.add(HostAndPort.parseString(node.substring(node.indexOf(' ') + 1)));
+        candidates.addAll(seeds);
+        List<Object> reported = null;
+        HostAndPort asked = null;
+        for (HostAndPort candidate : candidates) {
+            try (Jedis jedis = new Jedis(candidate.getHost(), candidate.getPort(), connectTimeoutMillis, soTimeoutMillis)) {
+                reported = jedis.clusterSlots();
+                asked = candidate;
+                break;
+            } catch (Exception e) {
+                logger.debug("Could not read the slots from {}: {}", candidate, e.getMessage());
+            }
+        }
+        if (reported == null)
+            return false;
+
+        Map<String, Pool<Jedis>> previous = new HashMap<String, Pool<Jedis>>(pools);
+        Map<String, Pool<Jedis>> current = new HashMap<String, Pool<Jedis>>();
+        Shard[] table = new Shard[CacheConstant.REDIS_CLUSTER_SLOTS];
+        Map<Pool<Jedis>, Shard> shards = new IdentityHashMap<Pool<Jedis>, Shard>();
+        for (Object range : reported) {
+            List<?> info = (List<?>) range;
+            int first = ((Long) info.get(0)).intValue();
+            int last = ((Long) info.get(1)).intValue();
+            Pool<Jedis> master = pool(info.get(2), false, asked, previous, current);
+            List<ReplicaPool> replicas = new ArrayList<ReplicaPool>();
+            for (int i = 3; i < info.size(); i++)
+                replicas.add((ReplicaPool) pool(info.get(i), true, asked, previous, current));
+            Shard shard = shards.get(master);
+            if (shard == null) {
+                shard = new Shard(master, replicas);
+                shards.put(master, shard);
+            }
+            for (int slot = first; slot <= last; slot++)
+                table[slot] = shard;
+        }
+        for (Shard shard : shards.values()) {
+            for (ReplicaPool replica : shard.replicas)
+                replica.check();
+        }
+        slots = table;
+        pools = current;
+        masters = new ArrayList<Pool<Jedis>>(shards.keySet());
+        for (Pool<Jedis> gone : previous.values())
+            closeQuietly(gone);
+        logger.trace("Read {} shards from {}", shards.size(), asked);
+        return true;
+    }
+
+    /**
+     * Returns the pool of a node listed by CLUSTER SLOTS, reusing the previous one if any
+     */
+    private Pool<Jedis> pool(Object node, boolean replica, HostAndPort asked, Map<String, Pool<Jedis>> previous, Map<String, Pool<Jedis>> current) {
+        List<?> info = (List<?>) node;
+        String host = SafeEncoder.encode((byte[]) info.get(0));
+        // older servers leave out the address of the node answering
+        if (host.isEmpty())
+            host = asked.getHost();
+        int port = ((Long) info.get(1)).intValue();
+        // replicas need READONLY connections, so a node changing role gets a new pool
+        String name = (replica ? "replica " : "master ") + host + ":" + port;
+        Pool<Jedis> pool = current.get(name);
+        if (pool != null)
+            return pool;
+        pool = previous.remove(name);
+        if (pool == null)
+            pool = replica ? new ReplicaPool(host + ":" + port, new ReadOnlyJedisPool(poolConfig, host, port, connectTimeoutMillis, soTimeoutMillis))
+                    : CacheJedisImpl.createPool(poolConfig, host, port, connectTimeoutMillis, soTimeoutMillis);
+        current.put(name, pool);
+        return pool;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void closePools() {
+        for (Pool<Jedis> pool : pools.values())
+            closeQuietly(pool);
+        pools = Collections.emptyMap();
+        masters = Collections.emptyList();
+        slots = new Shard[CacheConstant.REDIS_CLUSTER_SLOTS];
+    }
+}
@@ -0,0 +1,204 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.util.Pool;
+
+/**
+ * <p>
+ * {@link RedisTopology} of a master monitored by Redis Sentinel.
+ * </p>
+ * <p>
+ * Writes go to the master elected by the sentinels, followed through a {@link JedisSentinelPool} which switches to the new master as soon as the sentinels
+ * announce a failover. Reads are balanced over the replicas the sentinels report as connected to the master; each health check asks the sentinels for
+ * the replicas again and ejects those that do not answer a PING. Reads go to the master while no replica is available.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class RedisSentinelTopology extends AbstractRedisTopology {
+    protected final String                     masterName;
+    protected final Set<String>                sentinels;
+    private final JedisSentinelPool            master;
+    private volatile Map<String, ReplicaPool>  replicas    = Collections.emptyMap();
+    private volatile List<ReplicaPool>         replicaList = Collections.emptyList();
+
+    /**
+     * Constructor for RedisSentinelTopology.
+     *
+     * @param masterName
+     *            the name the sentinels monitor the master under
+     * @param sentinels
+     *            the <code>host:port</code> of the sentinels
+     * @param poolConfig
+     *            configuration of the connection pool of each server
+     * @throws redis.clients.jedis.exceptions.JedisException
+     *             if no sentinel knows the master
+     */
+    public RedisSentinelTopology(String masterName, Set<String> sentinels, JedisPoolConfig poolConfig) {
+        this(masterName, sentinels, poolConfig, CacheConstant.REDIS_HEALTH_CHECK_INTERVAL_MILLIS_DEFAULT);
+    }
+
+    /**
+     * Constructor for RedisSentinelTopology.
+     *
+     * @param masterName
+     *            the name the sentinels monitor the master under
+     * @param sentinels
+     *            the <code>host:port</code> of the sentinels
+     * @param poolConfig
+     *            configuration of the connection pool of each server
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two refreshes of the replicas
+     * @throws redis.clients.jedis.exceptions.JedisException
+     *             if no sentinel knows the master
+     */
+    public RedisSentinelTopology(String masterName, Set<String> sentinels, JedisPoolConfig poolConfig, long healthCheckIntervalMillis) {
+        this(masterName, sentinels, poolConfig, CacheConstant.REDIS_CONNECT_TIMEOUT_MILLIS_DEFAULT, CacheConstant.REDIS_SO_TIMEOUT_MILLIS_DEFAULT, healthCheckIntervalMillis);
+    }
+
+    /**
+     * Constructor for RedisSentinelTopology.
+     *
+     * @param masterName
+     *            the name the sentinels monitor the master under
+     * @param sentinels
+     *            the <code>host:port</code> of the sentinels
+     * @param poolConfig
+     *            configuration of the connection pool of each server
+     * @param connectTimeoutMillis
+     *            milliseconds allowed to open a connection
+     * @param soTimeoutMillis
+     *            milliseconds allowed for a server to answer a command
+     * @param healthCheckIntervalMillis
+     *            milliseconds between two refreshes of the replicas
+     * @throws redis.clients.jedis.exceptions.JedisException
+     *             if no sentinel knows the master
+     */
+    public RedisSentinelTopology(String masterName, Set<String> sentinels, JedisPoolConfig poolConfig, int connectTimeoutMillis, int soTimeoutMillis,
+            long healthCheckIntervalMillis) {
+        super(poolConfig, connectTimeoutMillis, soTimeoutMillis, healthCheckIntervalMillis);
+        this.masterName = masterName;
+        this.sentinels = new LinkedHashSet<String>(sentinels);
+        master = new JedisSentinelPool(masterName, this.sentinels, poolConfig, connectTimeoutMillis, soTimeoutMillis, null, Protocol.DEFAULT_DATABASE);
+        refresh();
+        startHealthChecks();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getMaster(byte[] key) {
+        return master;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getMaster(HostAndPort node) {
+        return node.equals(master.getCurrentHostMaster()) ? master : null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Pool<Jedis> getReplica(byte[] key) {
+        Pool<Jedis> replica = choose(replicaList);
+        return replica != null ? replica : master;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Pool<Jedis>> getMasters() {
+        return Collections.<Pool<Jedis>> singletonList(master);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<Pool<Jedis>> getPools() {
+        List<Pool<Jedis>> pools = new ArrayList<Pool<Jedis>>();
+        pools.add(master);
+        pools.addAll(replicas.values());
+        return pools;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isSharded() {
+        return false;
+    }
+
+    /**
+     * <p>
+     * getCurrentMaster.
+     * </p>
+     *
+     * @return the address of the master currently elected by the sentinels
+     */
+    public HostAndPort getCurrentMaster() {
+        return master.getCurrentHostMaster();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized boolean refresh() {
+        List<Map<String, String>> reported = null;
+        for (String sentinel : sentinels) {
+            HostAndPort address = HostAndPort.parseString(sentinel);
+            try (Jedis jedis = new Jedis(address.getHost(), address.getPort(), connectTimeoutMillis, soTimeoutMillis)) {
+                reported = jedis.sentinelSlaves(masterName);
+                break;
+            } catch (Exception e) {
+                logger.debug("Could not ask sentinel {} for the replicas of {}: {}", sentinel, masterName, e.getMessage());
+            }
+        }
+        if (reported != null) {
+            Map<String, ReplicaPool> previous = new HashMap<String, ReplicaPool>(replicas);
+            Map<String, ReplicaPool> current = new LinkedHashMap<String, ReplicaPool>();
+            for (Map<String, String> replica : reported) {
+                String flags = replica.get("flags");
+                if (flags == null || flags.contains("s_down") || flags.contains("o_down") || flags.contains("disconnected"))
+                    continue;
+                if (!"ok".equals(replica.get("master-link-status")))
+                    continue;
+                String address = replica.get("ip") + ":" + replica.get("port");
+                ReplicaPool pool = previous.remove(address);
+                if (pool == null)
+                    pool = new ReplicaPool(address, CacheJedisImpl.createPool(poolConfig, replica.get("ip"), Integer.parseInt(replica.get("port")), connectTimeoutMillis,
+                            soTimeoutMillis));
+                current.put(address, pool);
+            }
+            replicas = current;
+            replicaList = new ArrayList<ReplicaPool>(current.values());
+            for (Pool<Jedis> gone : previous.values())
+                closeQuietly(gone);
+        }
+        int healthy = 0;
+        for (ReplicaPool replica : replicaList) {
+            if (replica.check())
+                healthy++;
+        }
+        logger.trace("Master {} of {} has {} healthy replicas", master.getCurrentHostMaster(), masterName, healthy);
+        return ping(master);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected synchronized void closePools() {
+        closeQuietly(master);
+        for (Pool<Jedis> replica : replicas.values())
+            closeQuietly(replica);
+        replicas = Collections.emptyMap();
+        replicaList = Collections.emptyList();
+    }
+}
@@ -0,0 +1,86 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.List;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+/**
+ * <p>
+ * Routes the commands of a {@link CacheJedisImpl} to the Redis servers holding their keys.
+ * </p>
+ * <p>
+ * A topology discovers its servers itself, Sentinel-elected masters or Cluster slot owners for example, and keeps one connection pool per server. Failover
+ * is left to the servers: a topology never reconfigures replication, it only follows it.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public interface RedisTopology {
+    /**
+     * Returns the pool of the master owning the key, which all writes of the key must go to
+     *
+     * @param key
+     *            the Redis key
+     * @return a {@link redis.clients.util.Pool} object, or null if no master is known
+     */
+    public abstract Pool<Jedis> getMaster(byte[] key);
+
+    /**
+     * Returns the pool of the master at the address, which a write redirected there with MOVED or ASK is retried on
+     *
+     * @param node
+     *            the address given by the redirection
+     * @return a {@link redis.clients.util.Pool} object, or null if no known master has that address
+     */
+    public abstract Pool<Jedis> getMaster(HostAndPort node);
+
+    /**
+     * Returns a pool to read the key from, a replica of its master when one is healthy and the master otherwise
+     *
+     * @param key
+     *            the Redis key
+     * @return a {@link redis.clients.util.Pool} object, or null if no server is known
+     */
+    public abstract Pool<Jedis> getReplica(byte[] key);
+
+    /**
+     * Returns the pools of every master, for commands applying to the whole database such as DBSIZE or FLUSHDB
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public abstract List<Pool<Jedis>> getMasters();
+
+    /**
+     * Returns every pool of the topology, masters and replicas
+     *
+     * @return a {@link java.util.List} object.
+     */
+    public abstract List<Pool<Jedis>> getPools();
+
+    /**
+     * Returns whether keys are spread over several masters, in which case commands on several keys must be split by server and cannot use MGET
+     *
+     * @return a boolean.
+     */
+    public abstract boolean isSharded();
+
+    /**
+     * Re-discovers the servers and checks their health, blocking until done
+     *
+     * @return whether a master is reachable
+     */
+    public abstract boolean refresh();
+
+    /**
+     * Asks for a {@link #refresh()} in the background, for example after a command failed or was redirected
+     */
+    public abstract void requestRefresh();
+
+    /**
+     * Stops the health checks and closes the pools
+     */
+    public abstract void close();
+}
@@ -0,0 +1,29 @@
+package com.idfconnect.ssorest.common.cache;
+
+/**
+ * <p>
+ * Why an entry left a cache, as reported to a {@link CacheRemovalListener}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public enum RemovalCause {
+    /** removed by {@link Cache#remove(Object)} or {@link Cache#clear()} */
+    EXPLICIT,
+    /** its time to live was over */
+    EXPIRED,
+    /** evicted to keep the cache within its maximum size or weight */
+    SIZE,
+    /** its value was overwritten by a put of the same key */
+    REPLACED;
+
+    /**
+     * Returns whether the cache removed the entry by itself, rather than on request
+     *
+     * @return a boolean.
+     */
+    public boolean wasEvicted() {
+        return this == EXPIRED || this == SIZE;
+    }
+}
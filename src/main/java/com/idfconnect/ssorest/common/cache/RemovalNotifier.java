@@ -0,0 +1,81 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the removals of a cache to its {@link CacheRemovalListener}s, each on its own executor, so that a slow listener never holds a lock of the
+ * cache. Without listeners a notification costs a volatile read, so caches can call it on every removal.
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class RemovalNotifier {
+    /**
+     * A listener and the executor it is called on
+     */
+    static final class Registration {
+        final CacheRemovalListener listener;
+        final Executor             executor;
+
+        Registration(CacheRemovalListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+    Logger                                           logger        = LoggerFactory.getLogger(getClass());
+
+    void add(CacheRemovalListener listener, Executor executor) {
+        if (listener == null || executor == null)
+            throw new NullPointerException();
+        registrations.add(new Registration(listener, executor));
+    }
+
+    void remove(CacheRemovalListener listener) {
+        registrations.removeIf(registration -> registration.listener == listener);
+    }
+
+    boolean hasListeners() {
+        return !registrations.isEmpty();
+    }
+
+    void notify(Object key, Object value, RemovalCause cause) {
+        if (registrations.isEmpty())
+            return;
+        for (Registration registration : registrations)
+            submit(registration, key, cause, () -> registration.listener.onRemoval(key, value, cause));
+    }
+
+    /**
+     * Notifies the removal of an entry stored in encoded form. The value, and the key unless given decoded, are decoded on the executor rather than
+     * under the lock of the cache, and each listener gets its own copy.
+     */
+    void notify(Object key, byte[] keyBytes, byte[] valueBytes, CacheValueCodec codec, RemovalCause cause) {
+        if (registrations.isEmpty())
+            return;
+        for (Registration registration : registrations)
+            submit(registration, key, cause,
+                    () -> registration.listener.onRemoval(key != null ? key : codec.decode(keyBytes), codec.decode(valueBytes), cause));
+    }
+
+    private void submit(Registration registration, Object key, RemovalCause cause, Runnable delivery) {
+        try {
+            registration.executor.execute(() -> {
+                try {
+                    delivery.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Caught exception notifying the {} removal of {}", cause, key, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Dropped {} removal of {}: {}", cause, key, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Chooses the replica to send a read to, skipping ejected replicas, with one of the policies:
+ * </p>
+ * <ul>
+ * <li>{@link CacheConstant#REDIS_READ_ROUND_ROBIN}: each replica in turn</li>
+ * <li>{@link CacheConstant#REDIS_READ_LEAST_OUTSTANDING}: the replica with the fewest requests in flight</li>
+ * <li>{@link CacheConstant#REDIS_READ_EWMA}: the replica with the lowest moving average latency, multiplied by its requests in flight plus one so that a
+ * fast replica is not swamped</li>
+ * </ul>
+ * <p>
+ * Ties go to the replica after the previous choice, so equal replicas share the load.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class ReplicaBalancer {
+    private volatile int        policy;
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    ReplicaBalancer(int policy) {
+        setPolicy(policy);
+    }
+
+    int getPolicy() {
+        return policy;
+    }
+
+    void setPolicy(int policy) {
+        if (policy != CacheConstant.REDIS_READ_ROUND_ROBIN && policy != CacheConstant.REDIS_READ_LEAST_OUTSTANDING && policy != CacheConstant.REDIS_READ_EWMA)
+            throw new IllegalArgumentException("Unknown read balancing policy " + policy);
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the replica to read from, or null if none is available
+     */
+    ReplicaPool choose(List<ReplicaPool> replicas) {
+        int size = replicas.size();
+        if (size == 0)
+            return null;
+        int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % size;
+        int current = policy;
+        ReplicaPool best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            ReplicaPool replica = replicas.get((start + i) % size);
+            if (!replica.isAvailable())
+                continue;
+            if (current == CacheConstant.REDIS_READ_ROUND_ROBIN)
+                return replica;
+            double score;
+            if (current == CacheConstant.REDIS_READ_LEAST_OUTSTANDING)
+                score = replica.getOutstanding();
+            else
+                score = (replica.getEwmaMicros() + 1) * (replica.getOutstanding() + 1);
+            if (score < bestScore) {
+                best = replica;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,230 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+/**
+ * <p>
+ * Connection pool of a read replica, measuring how the replica serves the requests sent to it so that a {@link ReplicaBalancer} can choose between
+ * replicas.
+ * </p>
+ * <p>
+ * Every borrowed connection counts as an outstanding request until it is returned, and the time it was held updates an exponentially weighted moving
+ * average of the latency. A connection returned broken, or one that could not be borrowed, counts as a failure; after
+ * {@link CacheConstant#REDIS_REPLICA_EJECT_FAILURES_DEFAULT} consecutive failures the replica is ejected. Once the ejection period is over the next
+ * balancer looking at the replica probes it with a PING on a daemon thread of its own, and reinstates it if it answers or doubles the period otherwise.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class ReplicaPool extends Pool<Jedis> {
+    // weight of the latest sample in the moving average
+    static final double                   EWMA_ALPHA = 0.2;
+    static final long                     MAX_EJECT_MILLIS = 60000L;
+    // a probe waits up to the connect timeout, so it must not hold a thread of the common pool; at most one runs per replica
+    static final ExecutorService          PROBES           = Executors.newCachedThreadPool(task -> {
+                                                               Thread thread = new Thread(task, "ReplicaPool-probe");
+                                                               thread.setDaemon(true);
+                                                               return thread;
+                                                           });
+
+    final Pool<Jedis>                     delegate;
+    final String                          name;
+    private final AtomicInteger           outstanding = new AtomicInteger();
+    private final AtomicInteger           failures    = new AtomicInteger();
+    private final AtomicBoolean           probing     = new AtomicBoolean();
+    private final ConcurrentHashMap<Jedis, Long> borrowed = new ConcurrentHashMap<Jedis, Long>();
+    private volatile double               ewmaMicros  = 0;
+    // nanoTime at which the replica may be probed again, 0 while healthy
+    private volatile long                 ejectedUntil = 0;
+    private volatile long                 ejectMillis  = CacheConstant.REDIS_REPLICA_EJECT_MILLIS_DEFAULT;
+
+    Logger                                logger      = LoggerFactory.getLogger(getClass());
+
+    ReplicaPool(String name, Pool<Jedis> delegate) {
+        this.name = name;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Jedis getResource() {
+        outstanding.incrementAndGet();
+        Jedis jedis;
+        try {
+            jedis = delegate.getResource();
+        } catch (RuntimeException e) {
+            outstanding.decrementAndGet();
+            recordFailure();
+            throw e;
+        }
+        borrowed.put(jedis, System.nanoTime());
+        // Jedis.close() returns the connection here rather than to the delegate
+        jedis.setDataSource(this);
+        return jedis;
+    }
+
+    // Jedis.close() returns its connection through these deprecated methods, so they must be overridden and the delegate's called
+    @Override
+    @SuppressWarnings("deprecation")
+    public void returnResource(Jedis resource) {
+        if (resource == null)
+            return;
+        complete(resource, true);
+        delegate.returnResource(resource);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void returnBrokenResource(Jedis resource) {
+        if (resource == null)
+            return;
+        complete(resource, false);
+        delegate.returnBrokenResource(resource);
+    }
+
+    private void complete(Jedis resource, boolean ok) {
+        Long start = borrowed.remove(resource);
+        if (start == null)
+            return;
+        outstanding.decrementAndGet();
+        if (!ok) {
+            recordFailure();
+            return;
+        }
+        double micros = (System.nanoTime() - start) / 1000.0;
+        double current = ewmaMicros;
+        // concurrent updates may lose a sample, which the average does not mind
+        ewmaMicros = current == 0 ? micros : current + EWMA_ALPHA * (micros - current);
+        failures.set(0);
+    }
+
+    private void recordFailure() {
+        if (failures.incrementAndGet() >= CacheConstant.REDIS_REPLICA_EJECT_FAILURES_DEFAULT && ejectedUntil == 0)
+            eject();
+    }
+
+    /**
+     * Takes the replica out of rotation until its ejection period is over
+     */
+    void eject() {
+        long millis = ejectMillis;
+        ejectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        logger.warn("Ejected replica {} for {} ms", name, millis);
+    }
+
+    /**
+     * Puts the replica back in rotation
+     */
+    void reinstate() {
+        if (ejectedUntil != 0)
+            logger.info("Reinstated replica {}", name);
+        failures.set(0);
+        ejectMillis = CacheConstant.REDIS_REPLICA_EJECT_MILLIS_DEFAULT;
+        ejectedUntil = 0;
+    }
+
+    /**
+     * Returns whether the replica is in rotation, starting a background probe if it is ejected and its ejection period is over
+     */
+    boolean isAvailable() {
+        long until = ejectedUntil;
+        if (until == 0)
+            return true;
+        if (System.nanoTime() - until >= 0 && probing.compareAndSet(false, true))
+            PROBES.execute(() -> {
+                try {
+                    check();
+                } finally {
+                    probing.set(false);
+                }
+            });
+        return false;
+    }
+
+    /**
+     * Pings the replica, reinstating it if it answers and ejecting it for twice as long otherwise
+     *
+     * @return whether the replica answered
+     */
+    boolean check() {
+        try (Jedis jedis = delegate.getResource()) {
+            jedis.ping();
+        } catch (Exception e) {
+            logger.debug("Replica {} failed its health check: {}", name, e.getMessage());
+            if (ejectedUntil != 0)
+                ejectMillis = Math.min(ejectMillis * 2, MAX_EJECT_MILLIS);
+            eject();
+            return false;
+        }
+        reinstate();
+        return true;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    double getEwmaMicros() {
+        return ewmaMicros;
+    }
+
+    boolean isEjected() {
+        return ejectedUntil != 0;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void destroy() {
+        delegate.destroy();
+    }
+
+    @Override
+    public int getNumActive() {
+        return delegate.getNumActive();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return delegate.getNumIdle();
+    }
+
+    @Override
+    public int getNumWaiters() {
+        return delegate.getNumWaiters();
+    }
+
+    @Override
+    public long getMeanBorrowWaitTimeMillis() {
+        return delegate.getMeanBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public long getMaxBorrowWaitTimeMillis() {
+        return delegate.getMaxBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaPool [name=" + name + ", outstanding=" + outstanding.get() + ", ewmaMicros=" + (long) ewmaMicros + ", ejected=" + isEjected() + "]";
+    }
+}
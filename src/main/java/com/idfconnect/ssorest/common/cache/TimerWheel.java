@@ -0,0 +1,147 @@
+package com.idfconnect.ssorest.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.idfconnect.ssorest.common.cache.CacheConcurrentImpl.Node;
+
+/**
+ * <p>
+ * Hierarchical timing wheel holding the expiring entries of one {@link CacheConcurrentImpl} segment.
+ * </p>
+ * <p>
+ * There are {@value #LEVELS} levels of {@value #WHEEL_SIZE} buckets. Level 0 buckets span one tick each, and every higher level spans {@value #WHEEL_SIZE}
+ * times its lower neighbour, so scheduling and descheduling are O(1) and advancing the wheel only touches the buckets whose time has come. Entries whose
+ * deadline moved later after they were scheduled (sliding expiry) are simply rescheduled when their bucket is reached. All methods must be called with the
+ * owning segment's lock held.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class TimerWheel {
+    static final int   WHEEL_BITS = 6;
+    static final int   WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int   WHEEL_MASK = WHEEL_SIZE - 1;
+    static final int   LEVELS     = 4;
+    static final long  MAX_DELTA  = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long origin;
+    private final long tickNanos;
+    private final Node[][] buckets;
+    private long       currentTick;
+
+    /**
+     * Constructor for TimerWheel.
+     *
+     * @param origin
+     *            the {@link System#nanoTime()} value corresponding to tick zero
+     * @param tickNanos
+     *            duration of a level 0 bucket in nanoseconds
+     */
+    TimerWheel(long origin, long tickNanos) {
+        this.origin = origin;
+        this.tickNanos = tickNanos;
+        buckets = new Node[LEVELS][WHEEL_SIZE];
+        for (Node[] level : buckets) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Node sentinel = new Node(null, null);
+                sentinel.wheelNext = sentinel;
+                sentinel.wheelPrevious = sentinel;
+                level[i] = sentinel;
+            }
+        }
+        currentTick = tickOf(System.nanoTime());
+    }
+
+    /**
+     * Schedules the node by its current <code>expiresAt</code>, moving it if it is already scheduled
+     */
+    void schedule(Node node) {
+        deschedule(node);
+        // round up so a bucket is only processed once all of its entries are due
+        long tick = (node.expiresAt - origin + tickNanos - 1) / tickNanos;
+        long delta = Math.min(Math.max(tick - currentTick, 1), MAX_DELTA);
+        tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1))))
+            level++;
+        Node sentinel = buckets[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)];
+        node.wheelNext = sentinel;
+        node.wheelPrevious = sentinel.wheelPrevious;
+        sentinel.wheelPrevious.wheelNext = node;
+        sentinel.wheelPrevious = node;
+    }
+
+    /**
+     * Removes the node from the wheel if it is scheduled
+     */
+    void deschedule(Node node) {
+        if (node.wheelNext == null)
+            return;
+        node.wheelPrevious.wheelNext = node.wheelNext;
+        node.wheelNext.wheelPrevious = node.wheelPrevious;
+        node.wheelNext = null;
+        node.wheelPrevious = null;
+    }
+
+    /**
+     * Advances the wheel to <code>now</code>, descheduling and returning every node that has expired
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return the expired nodes, possibly empty
+     */
+    List<Node> advance(long now) {
+        List<Node> expired = new ArrayList<Node>();
+        long target = tickOf(now);
+        if (target - currentTick > (long) WHEEL_SIZE * WHEEL_SIZE) {
+            // the sweeper stalled for a long time; walking every tick would cost more than draining the whole wheel once
+            List<Node> pending = new ArrayList<Node>();
+            for (Node[] level : buckets)
+                for (Node sentinel : level)
+                    drain(sentinel, now, expired, pending);
+            currentTick = target;
+            for (Node node : pending)
+                schedule(node);
+            return expired;
+        }
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            int top = 0;
+            while (top < LEVELS - 1 && (tick & ((1L << (WHEEL_BITS * (top + 1))) - 1)) == 0)
+                top++;
+            // cascade from the highest level whose boundary was crossed down to level 0
+            for (int level = top; level >= 0; level--) {
+                List<Node> pending = new ArrayList<Node>();
+                drain(buckets[level][(int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK)], now, expired, pending);
+                for (Node node : pending)
+                    schedule(node);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Detaches every node from the bucket, sorting them into expired ones and ones that must be rescheduled
+     */
+    private void drain(Node sentinel, long now, List<Node> expired, List<Node> pending) {
+        Node node = sentinel.wheelNext;
+        sentinel.wheelNext = sentinel;
+        sentinel.wheelPrevious = sentinel;
+        while (node != sentinel) {
+            Node next = node.wheelNext;
+            node.wheelNext = null;
+            node.wheelPrevious = null;
+            if (node.isExpired(now))
+                expired.add(node);
+            else if (node.ttl != CacheConcurrentImpl.NEVER)
+                pending.add(node);
+            node = next;
+        }
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - origin) / tickNanos;
+    }
+}
@@ -0,0 +1,62 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * {@link RequestBody} held in an array, which is neither copied nor changed.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class ByteArrayRequestBody implements RequestBody {
+    private final byte[] body;
+
+    /**
+     * Constructor for ByteArrayRequestBody.
+     *
+     * @param body
+     *            an array of byte.
+     */
+    public ByteArrayRequestBody(byte[] body) {
+        this.body = body;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getLength() {
+        return body.length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(body);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long writeTo(OutputStream out) throws IOException {
+        out.write(body);
+        return body.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the array itself, not a copy.
+     */
+    @Override
+    public byte[] toByteArray() {
+        return body;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,219 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Output stream buffering what is written in fixed-size segments taken from a {@link SegmentPool}.
+ * </p>
+ * <p>
+ * Unlike {@link java.io.ByteArrayOutputStream} the buffer never copies what was written to grow. The content can be written to another stream or channel
+ * segment by segment with {@link #writeTo(OutputStream)} and {@link #writeTo(WritableByteChannel)}, or decoded with {@link #toString(Charset)} without
+ * first being gathered in one array. {@link #release()} returns the segments to the pool once the content is no longer needed. Not thread-safe.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class ChunkedOutputBuffer extends OutputStream {
+    private final SegmentPool  pool;
+    private final List<byte[]> segments = new ArrayList<byte[]>();
+    // bytes used in the last segment
+    private int                position = 0;
+    private long               size     = 0;
+
+    /**
+     * Constructor for ChunkedOutputBuffer, taking its segments from {@link SegmentPool#getShared()}.
+     */
+    public ChunkedOutputBuffer() {
+        this(SegmentPool.getShared());
+    }
+
+    /**
+     * Constructor for ChunkedOutputBuffer.
+     *
+     * @param pool
+     *            a {@link com.idfconnect.ssorest.common.http.SegmentPool} object.
+     */
+    public ChunkedOutputBuffer(SegmentPool pool) {
+        this.pool = pool;
+    }
+
+    private byte[] writable() {
+        int last = segments.size() - 1;
+        if (last >= 0 && position < segments.get(last).length)
+            return segments.get(last);
+        byte[] segment = pool.acquire();
+        segments.add(segment);
+        position = 0;
+        return segment;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(int b) {
+        byte[] segment = writable();
+        segment[position++] = (byte) b;
+        size++;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            byte[] segment = writable();
+            int n = Math.min(len, segment.length - position);
+            System.arraycopy(b, off, segment, position, n);
+            position += n;
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private int length(int index) {
+        return index == segments.size() - 1 ? position : segments.get(index).length;
+    }
+
+    /**
+     * Returns the number of bytes written
+     *
+     * @return a long.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the content to a stream
+     *
+     * @param out
+     *            an {@link java.io.OutputStream} object.
+     * @return the number of bytes written
+     * @throws java.io.IOException
+     *             if any.
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        for (int i = 0; i < segments.size(); i++)
+            out.write(segments.get(i), 0, length(i));
+        return size;
+    }
+
+    /**
+     * Writes the content to a channel
+     *
+     * @param channel
+     *            a {@link java.nio.channels.WritableByteChannel} object.
+     * @return the number of bytes written
+     * @throws java.io.IOException
+     *             if any.
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        for (int i = 0; i < segments.size(); i++) {
+            ByteBuffer buffer = ByteBuffer.wrap(segments.get(i), 0, length(i));
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the content in a new array
+     *
+     * @return an array of byte.
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("The buffer is too large for an array: " + size + " bytes");
+        byte[] content = new byte[(int) size];
+        int off = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            System.arraycopy(segments.get(i), 0, content, off, length(i));
+            off += length(i);
+        }
+        return content;
+    }
+
+    /**
+     * Decodes the content, replacing malformed input
+     *
+     * @param charset
+     *            a {@link java.nio.charset.Charset} object.
+     * @return a {@link java.lang.String} object.
+     */
+    public String toString(Charset charset) {
+        if (segments.size() <= 1)
+            return segments.isEmpty() ? "" : new String(segments.get(0), 0, position, charset);
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(size * (double) decoder.maxCharsPerByte())));
+        // a character may span two segments, so its first bytes wait in the window for the next segment
+        ByteBuffer window = ByteBuffer.allocate(64);
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                ByteBuffer in = ByteBuffer.wrap(segments.get(i), 0, length(i));
+                while (window.position() > 0 && in.hasRemaining()) {
+                    window.put(in.get());
+                    window.flip();
+                    check(decoder.decode(window, chars, false));
+                    window.compact();
+                }
+                check(decoder.decode(in, chars, false));
+                window.put(in);
+            }
+            window.flip();
+            check(decoder.decode(window, chars, true));
+            check(decoder.flush(chars));
+        } catch (CharacterCodingException e) {
+            return new String(toByteArray(), charset);
+        }
+        chars.flip();
+        return chars.toString();
+    }
+
+    private static void check(CoderResult result) throws CharacterCodingException {
+        if (result.isError() || result.isOverflow())
+            result.throwException();
+    }
+
+    /**
+     * Empties the buffer, keeping its first segment
+     */
+    public void reset() {
+        for (int i = 1; i < segments.size(); i++)
+            pool.release(segments.get(i));
+        if (segments.size() > 1)
+            segments.subList(1, segments.size()).clear();
+        position = 0;
+        size = 0;
+    }
+
+    /**
+     * Empties the buffer and returns all its segments to the pool
+     */
+    public void release() {
+        for (byte[] segment : segments)
+            pool.release(segment);
+        segments.clear();
+        position = 0;
+        size = 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return toString(Charset.defaultCharset());
+    }
+}
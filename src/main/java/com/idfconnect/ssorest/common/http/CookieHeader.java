@@ -0,0 +1,57 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+
+/**
+ * <p>
+ * Cookie header of a request wrapper, deferred in its {@link HeaderMap} so that adding cookies only records them, and the header is built once when read.
+ * </p>
+ * <p>
+ * The header is made of the values it had before the first cookie was added, less those whose first cookie has the name of an added cookie, followed by
+ * {@link FriendlyCookie#toHeaderString(Cookie)} of each added cookie.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class CookieHeader implements HeaderMap.Deferred {
+    private final List<String>                  base;
+    private final LinkedHashMap<String, Cookie> added = new LinkedHashMap<String, Cookie>();
+
+    /**
+     * Constructor for CookieHeader.
+     *
+     * @param base
+     *            the values of the header before cookies are added
+     */
+    CookieHeader(List<String> base) {
+        this.base = base;
+    }
+
+    /**
+     * Adds a cookie, replacing one of the same name
+     */
+    void add(Cookie cookie) {
+        String key = CookieMap.key(cookie.getName());
+        added.remove(key);
+        added.put(key, cookie);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<String> values() {
+        List<String> values = new ArrayList<String>(base.size() + added.size());
+        for (String header : base) {
+            int end = header.indexOf('=');
+            if (!added.containsKey(CookieMap.key(end < 0 ? header : header.substring(0, end))))
+                values.add(header);
+        }
+        for (Cookie cookie : added.values())
+            values.add(FriendlyCookie.toHeaderString(cookie));
+        return values;
+    }
+}
@@ -0,0 +1,215 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.http.Cookie;
+
+import com.google.gson.annotations.JsonAdapter;
+import com.idfconnect.ssorest.common.json.CookieMapTypeAdapterFactory;
+
+/**
+ * <p>
+ * Cookies of a request wrapper, indexed by their name ignoring case, so that replacing a cookie costs the same with 60 cookies as with one.
+ * </p>
+ * <p>
+ * A request may carry several cookies of the same name, for different paths or domains, which {@link #add(Cookie)} keeps; {@link #put(Cookie)} replaces
+ * them all, as the request wrappers always did. The cookies are returned in the order their name was first added, those of a name together.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@JsonAdapter(CookieMapTypeAdapterFactory.class)
+public final class CookieMap implements Serializable, Iterable<Cookie> {
+    private static final long                   serialVersionUID = -1290474637014826367L;
+
+    // a Cookie, or a Cookie[] when the request carried several of the name
+    private final LinkedHashMap<String, Object> cookies          = new LinkedHashMap<String, Object>();
+    private int                                 size             = 0;
+
+    /**
+     * Constructor for CookieMap.
+     */
+    public CookieMap() {
+    }
+
+    /**
+     * Constructor for CookieMap, keeping every cookie
+     *
+     * @param cookies
+     *            an array of {@link javax.servlet.http.Cookie} objects, may be null
+     */
+    public CookieMap(Cookie[] cookies) {
+        if (cookies != null) {
+            for (Cookie c : cookies)
+                add(c);
+        }
+    }
+
+    /**
+     * Constructor for CookieMap, keeping every cookie
+     *
+     * @param cookies
+     *            a {@link java.util.Collection} object.
+     */
+    public CookieMap(Collection<Cookie> cookies) {
+        for (Cookie c : cookies)
+            add(c);
+    }
+
+    /**
+     * Returns the key of a cookie name
+     */
+    static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static int count(Object value) {
+        return value instanceof Cookie ? 1 : ((Cookie[]) value).length;
+    }
+
+    /**
+     * Adds a cookie, keeping those of the same name. A cookie with no name is ignored.
+     *
+     * @param cookie
+     *            a {@link javax.servlet.http.Cookie} object.
+     */
+    public void add(Cookie cookie) {
+        if (cookie.getName() == null)
+            return;
+        String key = key(cookie.getName());
+        Object current = cookies.get(key);
+        if (current == null) {
+            cookies.put(key, cookie);
+        } else if (current instanceof Cookie) {
+            cookies.put(key, new Cookie[] { (Cookie) current, cookie });
+        } else {
+            Cookie[] array = (Cookie[]) current;
+            Cookie[] added = Arrays.copyOf(array, array.length + 1);
+            added[array.length] = cookie;
+            cookies.put(key, added);
+        }
+        size++;
+    }
+
+    /**
+     * Adds a cookie, replacing those of the same name, ignoring case. The cookie goes after the others. A cookie with no name is ignored.
+     *
+     * @param cookie
+     *            a {@link javax.servlet.http.Cookie} object.
+     * @return whether a cookie of the name was replaced
+     */
+    public boolean put(Cookie cookie) {
+        if (cookie.getName() == null)
+            return false;
+        String key = key(cookie.getName());
+        Object previous = cookies.remove(key);
+        if (previous != null)
+            size -= count(previous);
+        cookies.put(key, cookie);
+        size++;
+        return previous != null;
+    }
+
+    /**
+     * Returns the first cookie of a name
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return a {@link javax.servlet.http.Cookie} object, or null if there is none
+     */
+    public Cookie get(String name) {
+        Object value = cookies.get(key(name));
+        if (value == null || value instanceof Cookie)
+            return (Cookie) value;
+        return ((Cookie[]) value)[0];
+    }
+
+    /**
+     * Removes the cookies of a name
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return whether there was a cookie of the name
+     */
+    public boolean remove(String name) {
+        Object previous = cookies.remove(key(name));
+        if (previous == null)
+            return false;
+        size -= count(previous);
+        return true;
+    }
+
+    /**
+     * <p>
+     * size.
+     * </p>
+     *
+     * @return the number of cookies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * isEmpty.
+     * </p>
+     *
+     * @return a boolean.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * <p>
+     * toArray.
+     * </p>
+     *
+     * @return a new array of the cookies
+     */
+    public Cookie[] toArray() {
+        Cookie[] array = new Cookie[size];
+        int i = 0;
+        for (Object value : cookies.values()) {
+            if (value instanceof Cookie) {
+                array[i++] = (Cookie) value;
+            } else {
+                for (Cookie c : (Cookie[]) value)
+                    array[i++] = c;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * <p>
+     * toList.
+     * </p>
+     *
+     * @return a new list of the cookies
+     */
+    public List<Cookie> toList() {
+        return new ArrayList<Cookie>(Arrays.asList(toArray()));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<Cookie> iterator() {
+        return Arrays.asList(toArray()).iterator();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -5,15 +5,11 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
-import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
-
 /**
  * An HttpServletRequestWrapper that allows for manipulation of the headers and cookies
  *
@@ -21,8 +17,9 @@ import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
  * @since 1.4
  */
 public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
-    private CopyOnWriteArrayList<Cookie>           cookies       = new CopyOnWriteArrayList<Cookie>();
-    private CaseInsensitiveHashtable<List<String>> headers       = null;
+    private CookieMap                              cookies       = new CookieMap();
+    private CookieHeader                           cookieHeader  = null;
+    private HeaderMap                              headers       = null;
     private String                                 remoteUser    = null;
     private Principal                              userPrincipal = null;
 
@@ -35,30 +32,23 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
     public FilterHttpRequestWrapper(HttpServletRequest request) {
         super(request);
         remoteUser = request.getRemoteUser();
-        cookies = new CopyOnWriteArrayList<Cookie>();
-        headers = new CaseInsensitiveHashtable<List<String>>();
-        if (request.getCookies() != null)
-            for (Cookie c : request.getCookies())
-                cookies.add(c);
+        cookies = new CookieMap(request.getCookies());
+        headers = new HeaderMap();
 
         // Headers
         Enumeration<?> names = request.getHeaderNames();
         while (names.hasMoreElements()) {
             String name = (String) names.nextElement();
             Enumeration<?> oldvalues = request.getHeaders(name);
-            CopyOnWriteArrayList<String> newvalues = new CopyOnWriteArrayList<String>();
-            while (oldvalues.hasMoreElements()) {
-                String nextvalue = (String) oldvalues.nextElement();
-                newvalues.add(nextvalue);
-            }
-            headers.put(name, newvalues);
+            while (oldvalues.hasMoreElements())
+                headers.add(name, (String) oldvalues.nextElement());
         }
     }
 
     /** {@inheritDoc} */
     @Override
     public Cookie[] getCookies() {
-        return cookies.toArray(new Cookie[] {});
+        return cookies.toArray();
     }
 
     /**
@@ -74,39 +64,37 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
     /** {@inheritDoc} */
     @Override
     public long getDateHeader(String name) {
-        if ((headers.get(name) == null) || (headers.get(name).size() == 0))
+        String value = headers.getFirst(name);
+        if (value == null)
             return -1;
-        return Long.parseLong(headers.get(name).get(0));
+        return Long.parseLong(value);
     }
 
     /** {@inheritDoc} */
     @Override
     public String getHeader(String name) {
-        if (headers.get(name) != null && (headers.get(name).size() > 0))
-            return headers.get(name).get(0);
-        return null;
+        return headers.getFirst(name);
     }
 
     /** {@inheritDoc} */
     @Override
     public Enumeration<String> getHeaderNames() {
-        return headers.keys();
+        return headers.names();
     }
 
     /** {@inheritDoc} */
     @Override
     public Enumeration<String> getHeaders(String name) {
-        if (headers.get(name) == null)
-            return null;
-        return Collections.enumeration(headers.get(name));
+        return headers.getValues(name);
     }
 
     /** {@inheritDoc} */
     @Override
     public int getIntHeader(String name) {
-        if ((headers.get(name) == null) || (headers.get(name).size() == 0))
+        String value = headers.getFirst(name);
+        if (value == null)
             return -1;
-        return Integer.parseInt(headers.get(name).get(0));
+        return Integer.parseInt(value);
     }
 
     /**
@@ -126,20 +114,13 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
      * @since 1.4
      */
     public void addCookie(Cookie c) {
-        List<String> cookieHeaders = headers.get("Cookie");
-        if (cookieHeaders == null)
-            cookieHeaders = new CopyOnWriteArrayList<String>();
-        for (Cookie cc : cookies) {
-            if (cc.getName().equalsIgnoreCase(c.getName()))
-                cookies.remove(cc);
+        cookies.put(c);
+        if (cookieHeader == null || !headers.isDeferred("Cookie", cookieHeader)) {
+            List<String> current = headers.get("Cookie");
+            cookieHeader = new CookieHeader(current == null ? Collections.<String> emptyList() : current);
+            headers.defer("Cookie", cookieHeader);
         }
-        cookies.add(c);
-
-        for (String cookieHeader : cookieHeaders)
-            if (c.getName().equalsIgnoreCase(cookieHeader.split("=")[0]))
-                cookieHeaders.remove(cookieHeader);
-        cookieHeaders.add(FriendlyCookie.toHeaderString(c));
-        headers.put("Cookie", cookieHeaders);
+        cookieHeader.add(c);
     }
 
     /**
@@ -184,11 +165,9 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
      * @since 1.4
      */
     public List<String> addHeader(String name, String value) {
-        List<String> values = headers.get(name);
-        if (values == null)
-            values = new CopyOnWriteArrayList<String>();
-        values.add(value);
-        return headers.put(name, values);
+        List<String> previous = headers.get(name);
+        headers.add(name, value);
+        return previous;
     }
 
     /**
@@ -198,7 +177,7 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
      * @since 1.4
      */
     public void setCookies(Cookie... cookies) {
-        this.cookies = new CopyOnWriteArrayList<Cookie>();
+        this.cookies = new CookieMap();
         for (Cookie c : cookies)
             addCookie(c);
     }
@@ -210,7 +189,7 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
      * @since 1.4
      */
     public void setCookies(List<Cookie> cookies) {
-        this.cookies = new CopyOnWriteArrayList<Cookie>();
+        this.cookies = new CookieMap();
         for (Cookie c : cookies)
             addCookie(c);
     }
@@ -222,11 +201,7 @@ public class FilterHttpRequestWrapper extends HttpServletRequestWrapper {
      * @since 1.4
      */
     public void setHeaders(Hashtable<String, List<String>> headers) {
-        this.headers = new CaseInsensitiveHashtable<List<String>>();
-        for (Entry<String, List<String>> entry : headers.entrySet()) {
-            for (String value : entry.getValue())
-                addHeader(entry.getKey(), value);
-        }
+        this.headers = new HeaderMap(headers);
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,605 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gson.annotations.JsonAdapter;
+import com.idfconnect.ssorest.common.json.HeaderMapTypeAdapter;
+import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
+
+/**
+ * <p>
+ * Multimap of HTTP header names to their values, with case-insensitive names, used by {@link WebAgentRequestWrapper} and {@link FilterHttpRequestWrapper}.
+ * </p>
+ * <p>
+ * The names, their hashes and their values are kept in flat arrays probed linearly, and names are hashed by folding ASCII letters to lower case as they
+ * are read, so looking a header up allocates nothing. A header with one value holds the string itself, so copying the headers of a request mostly
+ * allocates the three arrays. Well-known header names are stored as a shared instance spelled the usual way. Unlike {@link CaseInsensitiveHashtable} the
+ * map is not synchronized, as a request is handled by one thread at a time.
+ * </p>
+ * <p>
+ * A name may be kept with no value, which {@link #names()} leaves out; the lazy {@link WebAgentRequestWrapper} uses this to record removed headers.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+@JsonAdapter(HeaderMapTypeAdapter.class)
+public final class HeaderMap implements Serializable {
+    private static final long     serialVersionUID   = 6125485011806208617L;
+    private static final String[] NO_VALUES          = new String[0];
+    private static final int      DEFAULT_NAMES      = 16;
+    private static final String[] WELL_KNOWN         = { "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Authorization", "Cache-Control",
+            "Connection", "Content-Encoding", "Content-Length", "Content-Type", "Cookie", "Date", "DNT", "Expect", "Forwarded", "Host", "If-Match",
+            "If-Modified-Since", "If-None-Match", "If-Range", "If-Unmodified-Since", "Keep-Alive", "Origin", "Pragma", "Proxy-Authorization", "Range",
+            "Referer", "TE", "Transfer-Encoding", "Upgrade", "Upgrade-Insecure-Requests", "User-Agent", "Via", "X-Forwarded-For", "X-Forwarded-Host",
+            "X-Forwarded-Port", "X-Forwarded-Proto", "X-Real-IP", "X-Requested-With" };
+    private static final String[] WELL_KNOWN_TABLE   = new String[128];
+
+    static {
+        for (String name : WELL_KNOWN) {
+            int i = hash(name) & (WELL_KNOWN_TABLE.length - 1);
+            while (WELL_KNOWN_TABLE[i] != null)
+                i = (i + 1) & (WELL_KNOWN_TABLE.length - 1);
+            WELL_KNOWN_TABLE[i] = name;
+        }
+    }
+
+    // slot i is free when names[i] is null; values[i] is a String, a String[] of any other number of values, or Deferred values not read yet
+    private transient String[]    names;
+    private transient int[]       hashes;
+    private transient Object[]    values;
+    private transient int         size;
+    private transient HeaderTable table;
+
+    /**
+     * Constructor for HeaderMap.
+     */
+    public HeaderMap() {
+        this(DEFAULT_NAMES);
+    }
+
+    /**
+     * Constructor for HeaderMap.
+     *
+     * @param expectedNames
+     *            number of names to hold without growing
+     */
+    public HeaderMap(int expectedNames) {
+        allocate(capacityFor(expectedNames));
+    }
+
+    /**
+     * Constructor for HeaderMap, copying another map
+     *
+     * @param other
+     *            a {@link com.idfconnect.ssorest.common.http.HeaderMap} object.
+     */
+    public HeaderMap(HeaderMap other) {
+        // value arrays are never changed once stored, so they can be shared once the deferred values are computed
+        for (int i = 0; i < other.names.length; i++) {
+            if (other.names[i] != null)
+                other.value(i);
+        }
+        names = other.names.clone();
+        hashes = other.hashes.clone();
+        values = other.values.clone();
+        size = other.size;
+    }
+
+    /**
+     * Constructor for HeaderMap, copying a map of names to values
+     *
+     * @param headers
+     *            a {@link java.util.Map} object.
+     */
+    public HeaderMap(Map<String, ? extends Collection<String>> headers) {
+        this(headers.size());
+        for (Map.Entry<String, ? extends Collection<String>> entry : headers.entrySet())
+            set(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Hashes a name, folding ASCII upper case letters to lower case
+     */
+    static int hash(String name) {
+        int h = 0;
+        for (int i = 0, n = name.length(); i < n; i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int expectedNames) {
+        // at most half full, so that probes stay short
+        int capacity = 8;
+        while (capacity < 2 * expectedNames)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        names = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+    }
+
+    /**
+     * Returns the slot of a name, or <code>-(slot + 1)</code> of the free slot where it would go
+     */
+    private int find(String name, int h) {
+        int mask = names.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            String n = names[i];
+            if (n == null)
+                return -(i + 1);
+            if (hashes[i] == h && (n == name || n.equalsIgnoreCase(name)))
+                return i;
+        }
+    }
+
+    private int indexOf(String name) {
+        return name == null ? -1 : find(name, hash(name));
+    }
+
+    /**
+     * Returns the shared instance of a well-known name, or the name itself
+     */
+    private static String canonical(String name, int h) {
+        int mask = WELL_KNOWN_TABLE.length - 1;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            String n = WELL_KNOWN_TABLE[i];
+            if (n == null)
+                return name;
+            if (n.equalsIgnoreCase(name))
+                return n;
+        }
+    }
+
+    /**
+     * Stores the values of a name, which must not be null
+     */
+    private void store(String name, Object value) {
+        int h = hash(name);
+        int i = find(name, h);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        if (2 * (size + 1) > names.length) {
+            grow();
+            i = find(name, h);
+        }
+        i = -(i + 1);
+        names[i] = canonical(name, h);
+        hashes[i] = h;
+        values[i] = value;
+        size++;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        allocate(oldNames.length << 1);
+        int mask = names.length - 1;
+        for (int j = 0; j < oldNames.length; j++) {
+            if (oldNames[j] == null)
+                continue;
+            int i = oldHashes[j] & mask;
+            while (names[i] != null)
+                i = (i + 1) & mask;
+            names[i] = oldNames[j];
+            hashes[i] = oldHashes[j];
+            values[i] = oldValues[j];
+            size++;
+        }
+    }
+
+    /**
+     * Frees a slot, moving back the following names of the probe sequence
+     */
+    private void delete(int i) {
+        int mask = names.length - 1;
+        for (int j = (i + 1) & mask; names[j] != null; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            // names[j] may move to i unless its home slot lies cyclically in (i, j]
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                names[i] = names[j];
+                hashes[i] = hashes[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        names[i] = null;
+        hashes[i] = 0;
+        values[i] = null;
+        size--;
+    }
+
+    /**
+     * Returns the values of a slot, computing them if they were deferred
+     */
+    private Object value(int i) {
+        Object value = values[i];
+        if (value instanceof Deferred) {
+            List<String> computed = ((Deferred) value).values();
+            value = computed.size() == 1 ? single(computed.get(0)) : computed.toArray(NO_VALUES);
+            values[i] = value;
+        }
+        return value;
+    }
+
+    // a null value is stored in an array, so that a String always is a single value
+    private static Object single(String value) {
+        return value != null ? value : new String[] { null };
+    }
+
+    private static int count(Object value) {
+        return value instanceof String ? 1 : ((String[]) value).length;
+    }
+
+    private static String first(Object value) {
+        if (value instanceof String)
+            return (String) value;
+        String[] array = (String[]) value;
+        return array.length == 0 ? null : array[0];
+    }
+
+    private static List<String> list(Object value) {
+        if (value instanceof String)
+            return Collections.singletonList((String) value);
+        return Collections.unmodifiableList(Arrays.asList((String[]) value));
+    }
+
+    /**
+     * Returns whether the name is in the map, even with no value
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return a boolean.
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Returns the number of values of a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return the number of values, 0 if the name is not in the map
+     */
+    public int count(String name) {
+        int i = indexOf(name);
+        return i < 0 ? 0 : count(value(i));
+    }
+
+    /**
+     * Returns the first value of a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return the first value, or null if the header has none
+     */
+    public String getFirst(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : first(value(i));
+    }
+
+    /**
+     * Returns the values of a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return an unmodifiable list of the values, or null if the name is not in the map
+     */
+    public List<String> get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : list(value(i));
+    }
+
+    /**
+     * Returns the values of a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return the values, or null if the name is not in the map
+     */
+    public Enumeration<String> getValues(String name) {
+        int i = indexOf(name);
+        if (i < 0)
+            return null;
+        Object value = value(i);
+        if (value instanceof String)
+            return new ValueEnumeration((String) value, null);
+        return new ValueEnumeration(null, (String[]) value);
+    }
+
+    /**
+     * Adds a value to a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @param value
+     *            a {@link java.lang.String} object.
+     */
+    public void add(String name, String value) {
+        int i = indexOf(name);
+        if (i < 0) {
+            store(name, single(value));
+            return;
+        }
+        Object current = value(i);
+        String[] added;
+        if (current instanceof String) {
+            added = new String[] { (String) current, value };
+        } else {
+            String[] array = (String[]) current;
+            if (array.length == 0) {
+                values[i] = single(value);
+                return;
+            }
+            added = Arrays.copyOf(array, array.length + 1);
+            added[array.length] = value;
+        }
+        values[i] = added;
+    }
+
+    /**
+     * Replaces the values of a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @param value
+     *            a {@link java.lang.String} object.
+     * @return the previous values, or null if the name was not in the map
+     */
+    public List<String> set(String name, String value) {
+        List<String> previous = get(name);
+        store(name, single(value));
+        return previous;
+    }
+
+    /**
+     * Replaces the values of a header. An empty collection keeps the name in the map with no value.
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @param newValues
+     *            a {@link java.util.Collection} object.
+     * @return the previous values, or null if the name was not in the map
+     */
+    public List<String> set(String name, Collection<String> newValues) {
+        List<String> previous = get(name);
+        store(name, newValues.size() == 1 ? single(newValues.iterator().next()) : newValues.toArray(NO_VALUES));
+        return previous;
+    }
+
+    /**
+     * Removes a header
+     *
+     * @param name
+     *            a {@link java.lang.String} object.
+     * @return the removed values, or null if the name was not in the map
+     */
+    public List<String> remove(String name) {
+        int i = indexOf(name);
+        if (i < 0)
+            return null;
+        List<String> previous = list(value(i));
+        delete(i);
+        return previous;
+    }
+
+    /**
+     * Applies the changes recorded in another map: its headers replace those of this map, and those it holds with no value are removed
+     *
+     * @param changes
+     *            a {@link com.idfconnect.ssorest.common.http.HeaderMap} object.
+     */
+    public void apply(HeaderMap changes) {
+        for (int i = 0; i < changes.names.length; i++) {
+            String name = changes.names[i];
+            if (name == null)
+                continue;
+            Object value = changes.value(i);
+            if (count(value) > 0) {
+                store(name, value);
+                continue;
+            }
+            int j = indexOf(name);
+            if (j >= 0)
+                delete(j);
+        }
+    }
+
+    /**
+     * Sets the values of a header to be computed when first read
+     */
+    void defer(String name, Deferred deferred) {
+        store(name, deferred);
+    }
+
+    /**
+     * Returns whether the values of a header are still those deferred
+     */
+    boolean isDeferred(String name, Deferred deferred) {
+        int i = indexOf(name);
+        return i >= 0 && values[i] == deferred;
+    }
+
+    /**
+     * Removes every header
+     */
+    public void clear() {
+        Arrays.fill(names, null);
+        Arrays.fill(hashes, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Returns the number of names, including those with no value
+     *
+     * @return an int.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of names having at least one value
+     */
+    int valuedSize() {
+        int n = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && count(value(i)) > 0)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * <p>
+     * isEmpty.
+     * </p>
+     *
+     * @return a boolean.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the names having at least one value, spelled as when first added or, for a well-known name, the usual way. Changing the map does not
+     * affect the enumeration.
+     *
+     * @return an enumeration of the names
+     */
+    public Enumeration<String> names() {
+        String[] snapshot = new String[size];
+        int n = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && count(value(i)) > 0)
+                snapshot[n++] = names[i];
+        }
+        return new ValueEnumeration(null, n == snapshot.length ? snapshot : Arrays.copyOf(snapshot, n));
+    }
+
+    /**
+     * Copies the headers having at least one value into a {@link CaseInsensitiveHashtable}, each with a {@link CopyOnWriteArrayList} of values
+     *
+     * @return a {@link com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable} object.
+     */
+    public CaseInsensitiveHashtable<List<String>> toHashtable() {
+        CaseInsensitiveHashtable<List<String>> table = new CaseInsensitiveHashtable<List<String>>(Math.max(1, 2 * size));
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && count(value(i)) > 0)
+                table.put(names[i], new CopyOnWriteArrayList<String>(list(value(i))));
+        }
+        return table;
+    }
+
+    /**
+     * Returns a live view of the headers having at least one value, changes to which change this map. The view is created once, and its value lists are
+     * read-only.
+     *
+     * @return a {@link com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable} object.
+     */
+    public CaseInsensitiveHashtable<List<String>> asHashtable() {
+        if (table == null)
+            table = new HeaderTable(this);
+        return table;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null)
+                continue;
+            if (builder.length() > 1)
+                builder.append(", ");
+            builder.append(names[i]).append('=').append(list(value(i)));
+        }
+        return builder.append('}').toString();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null)
+                continue;
+            out.writeObject(names[i]);
+            Object value = value(i);
+            out.writeObject(value instanceof String ? new String[] { (String) value } : value);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        allocate(capacityFor(n));
+        for (int i = 0; i < n; i++) {
+            String name = (String) in.readObject();
+            String[] array = (String[]) in.readObject();
+            store(name, array.length == 1 ? single(array[0]) : array.clone());
+        }
+    }
+
+    /**
+     * Values of a header computed when first read, for a header costly to build and often changed, such as Cookie
+     */
+    interface Deferred {
+        List<String> values();
+    }
+
+    /**
+     * Enumerates a single value or an array
+     */
+    private static final class ValueEnumeration implements Enumeration<String> {
+        private String         single;
+        private final String[] array;
+        private int            index;
+
+        ValueEnumeration(String single, String[] array) {
+            this.single = single;
+            this.array = array;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return single != null || (array != null && index < array.length);
+        }
+
+        @Override
+        public String nextElement() {
+            if (single != null) {
+                String value = single;
+                single = null;
+                return value;
+            }
+            if (array == null || index >= array.length)
+                throw new NoSuchElementException();
+            return array[index++];
+        }
+    }
+}
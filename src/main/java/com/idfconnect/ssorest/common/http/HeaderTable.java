@@ -0,0 +1,326 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.ObjectStreamException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
+
+/**
+ * <p>
+ * Live {@link CaseInsensitiveHashtable} view of a {@link HeaderMap}, kept for the callers of {@link WebAgentRequestWrapper#getAllHeaders()} that
+ * change the headers through the table they get.
+ * </p>
+ * <p>
+ * Reads and writes go to the map, so changes made either way are seen by both; the view holds no entries of its own. The value lists are read-only, a
+ * header is changed by putting a new list. A header the map keeps with no value, as the lazy wrapper records a removed header, is not in the view. The
+ * view is serialized as a copy of the headers.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+final class HeaderTable extends CaseInsensitiveHashtable<List<String>> {
+    private static final long                         serialVersionUID = -4521963350217608117L;
+    private final transient HeaderMap                 headers;
+    private final transient Map<String, List<String>> view;
+
+    HeaderTable(HeaderMap headers) {
+        super(1);
+        this.headers = headers;
+        this.view = new View();
+    }
+
+    /**
+     * Map of the headers having at least one value, on which the collection views are built
+     */
+    private final class View extends AbstractMap<String, List<String>> {
+        private final Set<Map.Entry<String, List<String>>> entries = new AbstractSet<Map.Entry<String, List<String>>>() {
+            @Override
+            public Iterator<Map.Entry<String, List<String>>> iterator() {
+                return new EntryIterator(headers.names());
+            }
+
+            @Override
+            public int size() {
+                return HeaderTable.this.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<String, List<String>>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public List<String> get(Object key) {
+            return HeaderTable.this.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return HeaderTable.this.containsKey(key);
+        }
+
+        @Override
+        public List<String> put(String key, List<String> value) {
+            return HeaderTable.this.put(key, value);
+        }
+
+        @Override
+        public List<String> remove(Object key) {
+            return HeaderTable.this.remove(key);
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the names, reading each value when reached
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, List<String>>> {
+        private final Enumeration<String> names;
+        private String                    last;
+
+        EntryIterator(Enumeration<String> names) {
+            this.names = names;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return names.hasMoreElements();
+        }
+
+        @Override
+        public Map.Entry<String, List<String>> next() {
+            String name = names.nextElement();
+            last = name;
+            return new AbstractMap.SimpleEntry<String, List<String>>(name, headers.get(name)) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public List<String> setValue(List<String> value) {
+                    put(name, value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            headers.remove(last);
+            last = null;
+        }
+    }
+
+    @Override
+    public int size() {
+        return headers.valuedSize();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && headers.count((String) key) > 0;
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return view.containsValue(value);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return view.containsValue(value);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        return containsKey(key) ? headers.get((String) key) : null;
+    }
+
+    @Override
+    public List<String> getOrDefault(Object key, List<String> defaultValue) {
+        List<String> value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public List<String> put(String key, List<String> value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        List<String> previous = get(key);
+        headers.set(key, value);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends List<String>> t) {
+        for (Map.Entry<? extends String, ? extends List<String>> entry : t.entrySet())
+            put(entry.getKey(), entry.getValue());
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        List<String> previous = get(key);
+        if (key instanceof String)
+            headers.remove((String) key);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        headers.clear();
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return headers.names();
+    }
+
+    @Override
+    public Enumeration<List<String>> elements() {
+        return Collections.enumeration(view.values());
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return view.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        return view.entrySet();
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        return view.values();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super List<String>> action) {
+        for (Enumeration<String> names = headers.names(); names.hasMoreElements();) {
+            String name = names.nextElement();
+            action.accept(name, headers.get(name));
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super List<String>, ? extends List<String>> function) {
+        for (Enumeration<String> names = headers.names(); names.hasMoreElements();) {
+            String name = names.nextElement();
+            put(name, function.apply(name, headers.get(name)));
+        }
+    }
+
+    @Override
+    public List<String> putIfAbsent(String key, List<String> value) {
+        List<String> current = get(key);
+        return current != null ? current : put(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        List<String> current = get(key);
+        if (current == null || !current.equals(value))
+            return false;
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public boolean replace(String key, List<String> oldValue, List<String> newValue) {
+        List<String> current = get(key);
+        if (current == null || !current.equals(oldValue))
+            return false;
+        put(key, newValue);
+        return true;
+    }
+
+    @Override
+    public List<String> replace(String key, List<String> value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public List<String> computeIfAbsent(String key, Function<? super String, ? extends List<String>> mappingFunction) {
+        List<String> current = get(key);
+        if (current != null)
+            return current;
+        List<String> value = mappingFunction.apply(key);
+        if (value != null)
+            put(key, value);
+        return value;
+    }
+
+    @Override
+    public List<String> computeIfPresent(String key, BiFunction<? super String, ? super List<String>, ? extends List<String>> remappingFunction) {
+        List<String> current = get(key);
+        if (current == null)
+            return null;
+        return store(key, remappingFunction.apply(key, current));
+    }
+
+    @Override
+    public List<String> compute(String key, BiFunction<? super String, ? super List<String>, ? extends List<String>> remappingFunction) {
+        return store(key, remappingFunction.apply(key, get(key)));
+    }
+
+    @Override
+    public List<String> merge(String key, List<String> value, BiFunction<? super List<String>, ? super List<String>, ? extends List<String>> remappingFunction) {
+        if (value == null)
+            throw new NullPointerException();
+        List<String> current = get(key);
+        return store(key, current == null ? value : remappingFunction.apply(current, value));
+    }
+
+    /**
+     * Puts the computed value, or removes the header if it is null
+     */
+    private List<String> store(String key, List<String> value) {
+        if (value == null)
+            remove(key);
+        else
+            put(key, value);
+        return value;
+    }
+
+    @Override
+    public Object clone() {
+        return headers.toHashtable();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj == this || view.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return view.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return view.toString();
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return headers.toHashtable();
+    }
+}
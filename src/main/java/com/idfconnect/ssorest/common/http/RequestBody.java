@@ -0,0 +1,56 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Body of a request held by a {@link WebAgentRequestWrapper}, which may be read any number of times.
+ * </p>
+ * <p>
+ * {@link ByteArrayRequestBody} serves a body already in memory, {@link SpooledRequestBody} reads the body of the wrapped request as it is consumed and keeps
+ * what was read for the next readers, in memory up to a threshold and in a temporary file beyond.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public interface RequestBody extends Closeable {
+    /**
+     * Returns the length of the body
+     *
+     * @return the length in bytes, or -1 if it is not known until the body is read
+     */
+    long getLength();
+
+    /**
+     * Opens a stream reading the body from its start, independently of the streams opened before
+     *
+     * @return an {@link java.io.InputStream} object.
+     * @throws java.io.IOException
+     *             if the body was closed or could not be read
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Writes the whole body
+     *
+     * @param out
+     *            an {@link java.io.OutputStream} object.
+     * @return the number of bytes written
+     * @throws java.io.IOException
+     *             if any.
+     */
+    long writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Returns the whole body in an array, which holds it all in memory
+     *
+     * @return an array of byte.
+     * @throws java.io.IOException
+     *             if any.
+     */
+    byte[] toByteArray() throws IOException;
+}
@@ -0,0 +1,106 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Pool of fixed-size byte arrays, the segments of {@link ChunkedOutputBuffer}, shared by all threads.
+ * </p>
+ * <p>
+ * At most <code>maxPooled</code> segments are kept; a segment released to a full pool is left to the garbage collector, and so is a segment never
+ * released, so forgetting to release costs an allocation but leaks nothing. {@link #getShared()} returns the pool used by default, holding up to
+ * {@link #MAX_POOLED_DEFAULT} segments of {@link #SEGMENT_SIZE_DEFAULT} bytes.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class SegmentPool {
+    /** Constant <code>SEGMENT_SIZE_DEFAULT=8192</code> */
+    public static final int                     SEGMENT_SIZE_DEFAULT = 8192;
+    /** Constant <code>MAX_POOLED_DEFAULT=1024</code> */
+    public static final int                     MAX_POOLED_DEFAULT   = 1024;
+
+    private static final SegmentPool            SHARED               = new SegmentPool(SEGMENT_SIZE_DEFAULT, MAX_POOLED_DEFAULT);
+
+    private final int                           segmentSize;
+    private final int                           maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> segments             = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger                 pooled               = new AtomicInteger();
+
+    /**
+     * Constructor for SegmentPool.
+     *
+     * @param segmentSize
+     *            bytes of each segment
+     * @param maxPooled
+     *            most segments kept for reuse
+     */
+    public SegmentPool(int segmentSize, int maxPooled) {
+        if (segmentSize < 1)
+            throw new IllegalArgumentException("The segment size must be positive");
+        this.segmentSize = segmentSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns the pool shared by default
+     *
+     * @return a {@link com.idfconnect.ssorest.common.http.SegmentPool} object.
+     */
+    public static SegmentPool getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a pooled segment, or a new one if the pool is empty. Its content is undefined.
+     *
+     * @return an array of byte.
+     */
+    public byte[] acquire() {
+        byte[] segment = segments.poll();
+        if (segment == null)
+            return new byte[segmentSize];
+        pooled.decrementAndGet();
+        return segment;
+    }
+
+    /**
+     * Returns a segment to the pool, which must no longer be used by the caller
+     *
+     * @param segment
+     *            an array of byte.
+     */
+    public void release(byte[] segment) {
+        if (segment.length != segmentSize)
+            return;
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        segments.offer(segment);
+    }
+
+    /**
+     * <p>
+     * getSegmentSize.
+     * </p>
+     *
+     * @return bytes of each segment
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * <p>
+     * getPooledCount.
+     * </p>
+     *
+     * @return the number of segments kept for reuse
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+}
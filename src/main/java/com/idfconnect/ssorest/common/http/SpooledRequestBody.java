@@ -0,0 +1,282 @@
+package com.idfconnect.ssorest.common.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * {@link RequestBody} reading a stream, such as the input stream of the wrapped request, only as far as its readers get, and keeping what was read so that
+ * it can be read again.
+ * </p>
+ * <p>
+ * The first <code>memoryThreshold</code> bytes are kept in an array, sized from the declared length when known; the rest is written to a temporary file
+ * and read back from it by position, so a large upload costs a fixed amount of heap. The streams of {@link #openStream()} support mark and reset. The
+ * temporary file is deleted by {@link #close()}, which the owner of the body must call once the request is handled.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class SpooledRequestBody implements RequestBody {
+    /** Constant <code>MEMORY_THRESHOLD_DEFAULT=65536</code>, bytes kept in memory before spilling to a file */
+    public static final int   MEMORY_THRESHOLD_DEFAULT = 64 * 1024;
+    private static final int  CHUNK                    = 8192;
+
+    private final InputStream source;
+    private final long        declaredLength;
+    private final int         memoryThreshold;
+    private byte[]            memory;
+    private int               memoryLength             = 0;
+    private byte[]            transfer                 = null;
+    private File              file                     = null;
+    private FileChannel       channel                  = null;
+    // bytes read from the source so far
+    private long              spooled                  = 0;
+    private boolean           exhausted                = false;
+    private boolean           closed                   = false;
+
+    Logger                    logger                   = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Constructor for SpooledRequestBody, keeping up to {@link #MEMORY_THRESHOLD_DEFAULT} bytes in memory.
+     *
+     * @param source
+     *            the stream of the body, which is not closed by this object
+     * @param length
+     *            the declared length of the body, or -1 if unknown
+     */
+    public SpooledRequestBody(InputStream source, long length) {
+        this(source, length, MEMORY_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Constructor for SpooledRequestBody.
+     *
+     * @param source
+     *            the stream of the body, which is not closed by this object
+     * @param length
+     *            the declared length of the body, or -1 if unknown
+     * @param memoryThreshold
+     *            bytes kept in memory before spilling to a file
+     */
+    public SpooledRequestBody(InputStream source, long length, int memoryThreshold) {
+        this.source = source;
+        this.declaredLength = length;
+        this.memoryThreshold = memoryThreshold;
+        memory = new byte[(int) Math.min(memoryThreshold, length >= 0 ? length : CHUNK)];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized long getLength() {
+        return exhausted ? spooled : declaredLength;
+    }
+
+    /**
+     * Returns whether part of the body was written to a file
+     *
+     * @return a boolean.
+     */
+    public synchronized boolean isSpilled() {
+        return channel != null;
+    }
+
+    /**
+     * Reads the body at a position, reading the source when needed
+     *
+     * @return the number of bytes read, or -1 at the end of the body
+     */
+    synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("The request body was closed");
+        if (len == 0)
+            return 0;
+        while (position >= spooled) {
+            if (exhausted)
+                return -1;
+            pull();
+        }
+        int n = (int) Math.min(len, spooled - position);
+        if (position < memoryLength) {
+            n = (int) Math.min(n, memoryLength - position);
+            System.arraycopy(memory, (int) position, b, off, n);
+            return n;
+        }
+        ByteBuffer target = ByteBuffer.wrap(b, off, n);
+        long filePosition = position - memoryLength;
+        while (target.hasRemaining()) {
+            if (channel.read(target, filePosition + target.position() - off) < 0)
+                break;
+        }
+        return target.position() - off;
+    }
+
+    /**
+     * Returns the number of bytes read from the source and not yet read at a position
+     */
+    synchronized long buffered(long position) {
+        return Math.max(0, spooled - position);
+    }
+
+    /**
+     * Reads the next part of the source into memory or the file
+     */
+    private void pull() throws IOException {
+        if (channel == null && memoryLength < memoryThreshold) {
+            if (memoryLength == memory.length)
+                memory = Arrays.copyOf(memory, Math.min(memoryThreshold, Math.max(CHUNK, 2 * memory.length)));
+            int read = source.read(memory, memoryLength, memory.length - memoryLength);
+            if (read < 0)
+                exhausted = true;
+            else {
+                memoryLength += read;
+                spooled += read;
+            }
+            return;
+        }
+        if (channel == null)
+            spill();
+        int read = source.read(transfer);
+        if (read < 0) {
+            exhausted = true;
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(transfer, 0, read);
+        long filePosition = spooled - memoryLength;
+        while (buffer.hasRemaining())
+            filePosition += channel.write(buffer, filePosition);
+        spooled += read;
+    }
+
+    @SuppressWarnings("resource")
+    private void spill() throws IOException {
+        file = File.createTempFile("ssorest-body-", ".tmp");
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        transfer = new byte[CHUNK];
+        logger.debug("Request body exceeds {} bytes, spilling to {}", memoryThreshold, file);
+    }
+
+    private void drain() throws IOException {
+        if (closed)
+            throw new IOException("The request body was closed");
+        while (!exhausted)
+            pull();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream openStream() throws IOException {
+        if (closed)
+            throw new IOException("The request body was closed");
+        return new Replay();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The part of the body in the file is copied by the file channel, without going through the heap when the stream permits it.
+     */
+    @Override
+    public synchronized long writeTo(OutputStream out) throws IOException {
+        drain();
+        out.write(memory, 0, memoryLength);
+        if (channel != null) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = spooled - memoryLength;
+            for (long position = 0; position < size;)
+                position += channel.transferTo(position, size - position, target);
+        }
+        return spooled;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized byte[] toByteArray() throws IOException {
+        drain();
+        if (spooled > Integer.MAX_VALUE - 8)
+            throw new IOException("The request body is too large for an array: " + spooled + " bytes");
+        byte[] body = Arrays.copyOf(memory, (int) spooled);
+        for (int off = memoryLength; off < body.length;) {
+            int read = read(off, body, off, body.length - off);
+            if (read < 0)
+                break;
+            off += read;
+        }
+        return body;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Deletes the temporary file; the streams opened can no longer be read.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        memory = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                if (!file.delete())
+                    logger.warn("Could not delete {}", file);
+            }
+        }
+    }
+
+    /**
+     * Stream reading the body from its start
+     */
+    private class Replay extends InputStream {
+        private final byte[] one      = new byte[1];
+        private long         position = 0;
+        private long         mark     = 0;
+
+        @Override
+        public int read() throws IOException {
+            int read = read(one, 0, 1);
+            return read < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = SpooledRequestBody.this.read(position, b, off, len);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buffered(position));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
@@ -22,7 +23,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -48,15 +49,23 @@ import javax.servlet.http.Part;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.idfconnect.ssorest.common.json.WebAgentRequestWrapperTypeAdapterFactory;
 import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
 
 /**
  * A simple HttpServletRequestWrapper that allows the Web Agent to update the request headers, cookies, and remote user. It also takes a zero-argument
- * constructor and is useful for serializing & deserializing request objects
+ * constructor and is useful for serializing & deserializing request objects.
+ * <p>
+ * A wrapper created with {@link #WebAgentRequestWrapper(HttpServletRequest, boolean)} in lazy mode does not copy the headers and cookies of the wrapped
+ * request: it reads them from the wrapped request and only records the headers and cookies that are added, changed or removed. A wrapper without a
+ * wrapped request is never lazy. A lazy wrapper copies the headers and cookies before it is serialized, with Java serialization or with Gson through
+ * {@link WebAgentRequestWrapperTypeAdapterFactory}.
  *
  * @author Richard Sand
  * @since 1.4
  */
+@JsonAdapter(WebAgentRequestWrapperTypeAdapterFactory.class)
 public class WebAgentRequestWrapper implements HttpServletRequest, Serializable {
     /** Request attribute name holding requested content */
     public static final String                          CONTENT_REQUEST_ATTRIBUTE           = "content";
@@ -67,12 +76,18 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     /** Static boolean to tell the setURL method to populate the parameters from the query string */
     public static final boolean PARSE_QUERY_STRING = true;
     
-    private static final long                           serialVersionUID                    = -2405609284304716975L;
-    private CaseInsensitiveHashtable<List<String>>      updatedHeaders                      = null;
+    // changed with the types of the header and cookie fields, so that older streams fail with a version mismatch
+    private static final long                           serialVersionUID                    = 4873112975625402181L;
+    // in lazy mode updatedHeaders only holds the changes to the headers of the wrapped request, a header with no value being removed, and cookies is null
+    // until they are changed
+    private transient boolean                           lazy                                = false;
+    private HeaderMap                                   updatedHeaders                      = null;
     private String                                      remoteUser                          = null;
     private transient HttpServletRequest                wrappedRequest                      = null;
     private transient ServletContext                    servletContext                      = null;
-    private CopyOnWriteArrayList<Cookie>                cookies                             = new CopyOnWriteArrayList<Cookie>();
+    private CookieMap                                   cookies                             = null;
+    // the Cookie header while it is deferred in the headers
+    private transient CookieHeader                      cookieHeader                        = null;
     private Hashtable<String, Object>                   attributes                          = null;
     private Hashtable<String, List<String>>             parameters                          = null;
     private CopyOnWriteArrayList<Locale>                locales                             = null;
@@ -92,11 +107,11 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     private String                                      contextPath                         = "";
     private String                                      authType                            = null;
     private String                                      method                              = "GET";
-    private transient WebAgentRequestWrapperInputStream is                                  = null;
     private String                                      requestURI                          = null;
     private String                                      servletPath                         = "";
     private String                                      queryString                         = null;
     private byte[]                                      body                                = null;
+    private transient RequestBody                       requestBody                         = null;
 
     /**
      */
@@ -106,13 +121,12 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
         /**
          * Constructor for WebAgentRequestWrapperInputStream.
          * 
-         * @param content
-         *            byte[]
-         * @throws UnsupportedEncodingException
+         * @param is
+         *            InputStream
          */
-        public WebAgentRequestWrapperInputStream(byte[] content) throws UnsupportedEncodingException {
+        public WebAgentRequestWrapperInputStream(InputStream is) {
             super();
-            is = new ByteArrayInputStream(content);
+            this.is = is;
         }
 
         /**
@@ -320,8 +334,8 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
         attributes = new Hashtable<String, Object>();
         parameters = new Hashtable<String, List<String>>();
         locales = new CopyOnWriteArrayList<Locale>();
-        cookies = new CopyOnWriteArrayList<Cookie>();
-        updatedHeaders = new CaseInsensitiveHashtable<List<String>>();
+        cookies = new CookieMap();
+        updatedHeaders = new HeaderMap();
     }
 
     /**
@@ -398,6 +412,25 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
         setWrappedRequest(request);
     }
 
+    /**
+     * Constructor for WebAgentRequestWrapper.
+     *
+     * In lazy mode the headers and cookies are read from the wrapped request instead of being copied, so that wrapping a request costs next to nothing
+     * when only a few of them are read. Only the changes are kept. The complete headers are copied when {@link #getHeaderMap()} is called, or the
+     * wrapper is serialized, after which the wrapper no longer reads the wrapped request.
+     *
+     * @param request
+     *            HttpServletRequest
+     * @param lazy
+     *            whether to read the headers and cookies from the wrapped request rather than copy them, ignored if the request is null
+     * @since 3.0.2
+     */
+    public WebAgentRequestWrapper(HttpServletRequest request, boolean lazy) {
+        super();
+        this.lazy = lazy && request != null;
+        setWrappedRequest(request);
+    }
+
     /**
      * Loads the headers and cookies from the provided request object into the wrapper
      *
@@ -407,25 +440,17 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      */
     protected void loadHeadersAndCookies(HttpServletRequest req) {
         // Headers
-        updatedHeaders = new CaseInsensitiveHashtable<List<String>>();
+        updatedHeaders = new HeaderMap();
         Enumeration<?> names = req.getHeaderNames();
         while (names.hasMoreElements()) {
             String name = (String) names.nextElement();
             Enumeration<String> values = req.getHeaders(name);
-            CopyOnWriteArrayList<String> v = new CopyOnWriteArrayList<String>();
-            while (values.hasMoreElements()) {
-                String value = values.nextElement();
-                v.add(value);
-            }
-            updatedHeaders.put(name, v);
+            while (values.hasMoreElements())
+                updatedHeaders.add(name, values.nextElement());
         }
 
         // Cookies
-        cookies = new CopyOnWriteArrayList<Cookie>();
-        if (req.getCookies() != null) {
-            for (Cookie c : req.getCookies())
-                cookies.add(c);
-        }
+        cookies = new CookieMap(req.getCookies());
     }
 
     /**
@@ -434,10 +459,83 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * Method getHeader.
      */
     public String getHeader(String name) {
-        List<String> values = updatedHeaders.get(name);
-        if (values == null)
-            return null;
-        return values.get(0);
+        if (lazy && !changed(name))
+            return wrappedRequest.getHeader(name);
+        return updatedHeaders.getFirst(name);
+    }
+
+    /**
+     * Returns whether a header was changed in lazy mode
+     */
+    private boolean changed(String name) {
+        return updatedHeaders != null && updatedHeaders.contains(name);
+    }
+
+    /**
+     * Returns the headers, which in lazy mode hold the changes only and are created by the first change
+     */
+    private HeaderMap headerChanges() {
+        if (updatedHeaders == null)
+            updatedHeaders = new HeaderMap(4);
+        return updatedHeaders;
+    }
+
+    /**
+     * Returns the cookies, copied from the wrapped request on first use in lazy mode
+     */
+    private CookieMap cookieList() {
+        if (cookies == null)
+            cookies = new CookieMap(wrappedRequest == null ? null : wrappedRequest.getCookies());
+        return cookies;
+    }
+
+    /**
+     * Copies the headers and cookies of the wrapped request, applies the changes made in lazy mode, and leaves lazy mode
+     */
+    private void materialize() {
+        if (!lazy)
+            return;
+        HeaderMap changes = updatedHeaders;
+        CookieMap changedCookies = cookies;
+        loadHeadersAndCookies(wrappedRequest);
+        if (changedCookies != null)
+            cookies = changedCookies;
+        if (changes != null)
+            updatedHeaders.apply(changes);
+        lazy = false;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        prepareForSerialization();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Copies what is not serialized into the fields that are: the headers and cookies a lazy wrapper reads from the wrapped request, and a body set with
+     * {@link #setBody(RequestBody)} when there is no wrapped request. Called before the wrapper is written with Java serialization, and with Gson by
+     * {@link WebAgentRequestWrapperTypeAdapterFactory}.
+     *
+     * @throws java.io.IOException
+     *             if the body could not be read
+     * @since 3.0.2
+     */
+    public void prepareForSerialization() throws IOException {
+        // the wrapped request is not serialized, so its headers and cookies must be copied
+        materialize();
+        if (body == null && requestBody != null && wrappedRequest == null)
+            body = requestBody.toByteArray();
+    }
+
+    /**
+     * <p>
+     * isLazy.
+     * </p>
+     *
+     * @return whether the headers and cookies are still read from the wrapped request
+     * @since 3.0.2
+     */
+    public boolean isLazy() {
+        return lazy;
     }
 
     /**
@@ -447,7 +545,19 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public Enumeration<String> getHeaderNames() {
-        return updatedHeaders.keys();
+        if (!lazy)
+            return updatedHeaders.names();
+        if (updatedHeaders == null)
+            return wrappedRequest.getHeaderNames();
+        Set<String> names = new LinkedHashSet<String>();
+        Enumeration<String> wrapped = wrappedRequest.getHeaderNames();
+        while (wrapped != null && wrapped.hasMoreElements()) {
+            String name = wrapped.nextElement();
+            if (!updatedHeaders.contains(name))
+                names.add(name);
+        }
+        names.addAll(Collections.list(updatedHeaders.names()));
+        return Collections.enumeration(names);
     }
 
     /**
@@ -456,10 +566,13 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * Method getHeaders.
      */
     public Enumeration<String> getHeaders(String name) {
-        List<String> values = updatedHeaders.get(name);
-        if (values == null)
-            return null;
-        return Collections.enumeration(values);
+        if (lazy) {
+            if (!changed(name))
+                return wrappedRequest.getHeaders(name);
+            if (updatedHeaders.count(name) == 0)
+                return null;
+        }
+        return updatedHeaders.getValues(name);
     }
 
     /**
@@ -497,7 +610,9 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public boolean containsHeader(String name) {
-        return updatedHeaders.containsKey(name);
+        if (lazy)
+            return getHeader(name) != null;
+        return updatedHeaders.contains(name);
     }
 
     /**
@@ -511,11 +626,15 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public List<String> addHeader(String name, String value) {
-        List<String> values = updatedHeaders.get(name);
-        if (values == null)
-            values = new CopyOnWriteArrayList<String>();
-        values.add(value);
-        return updatedHeaders.put(name, values);
+        if (lazy && !changed(name)) {
+            Enumeration<String> wrapped = wrappedRequest.getHeaders(name);
+            while (wrapped != null && wrapped.hasMoreElements())
+                headerChanges().add(name, wrapped.nextElement());
+        }
+        HeaderMap headers = headerChanges();
+        List<String> previous = headers.get(name);
+        headers.add(name, value);
+        return previous;
     }
 
     /**
@@ -544,40 +663,15 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public void addCookie(Cookie c) {
-        List<String> cookieHeaders = updatedHeaders.get("COOKIE");
-        if (cookieHeaders == null)
-            cookieHeaders = new CopyOnWriteArrayList<String>();
-        if (cookies != null) {
-            Iterator<Cookie> iterator = cookies.iterator();
-            while (iterator.hasNext()) {
-                Cookie cc = iterator.next();
-                String cookieName = cc.getName();
-                if (cookieName == null) {
-                    cookies.remove(cc); /// remove this in order not to cause NPE!
-                    continue;
-                }
-
-                if (cookieName.equalsIgnoreCase(c.getName()))
-                    cookies.remove(cc);
-            }
-
-            List<String> toRemove = null;
-            for (String cookieHeader : cookieHeaders) {
-                if (c.getName().equalsIgnoreCase(cookieHeader.split("=")[0])) {
-                    if (toRemove == null)
-                        toRemove = new ArrayList<String>();
-                    toRemove.add(cookieHeader);
-                }
-            }
-            if (toRemove != null)
-                cookieHeaders.removeAll(toRemove);
-
-        } else
-            cookies = new CopyOnWriteArrayList<Cookie>();
-
-        cookies.add(c);
-        cookieHeaders.add(FriendlyCookie.toHeaderString(c));
-        updatedHeaders.put("COOKIE", cookieHeaders);
+        cookieList().put(c);
+        HeaderMap headers = headerChanges();
+        if (cookieHeader == null || !headers.isDeferred("Cookie", cookieHeader)) {
+            // the header was read or changed since the last cookie was added
+            Enumeration<String> current = getHeaders("Cookie");
+            cookieHeader = new CookieHeader(current == null ? Collections.<String> emptyList() : Collections.list(current));
+            headers.defer("Cookie", cookieHeader);
+        }
+        cookieHeader.add(c);
     }
 
     /**
@@ -613,7 +707,11 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public List<String> removeHeader(String name) {
-        return updatedHeaders.remove(name);
+        if (!lazy)
+            return updatedHeaders.remove(name);
+        Enumeration<String> previous = getHeaders(name);
+        headerChanges().set(name, Collections.<String> emptyList());
+        return previous == null ? null : Collections.list(previous);
     }
 
     /*
@@ -799,11 +897,13 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * Getter for the field <code>updatedHeaders</code>.
      * </p>
      *
-     * @return the updatedHeaders
+     * @return a live view of the headers, see {@link #getAllHeaders()}
      * @since 1.4.2
+     * @deprecated use {@link #getHeaderMap()}
      */
+    @Deprecated
     public Hashtable<String, List<String>> getUpdatedHeaders() {
-        return updatedHeaders;
+        return getAllHeaders();
     }
 
     /**
@@ -864,6 +964,8 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
             return wrappedRequest.getContentLength();
         if (body != null)
             return body.length;
+        if (requestBody != null && requestBody.getLength() >= 0 && requestBody.getLength() <= Integer.MAX_VALUE)
+            return (int) requestBody.getLength();
         return contentLength;
     }
 
@@ -880,7 +982,7 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     }
 
     /**
-     * Method getInputStream.
+     * Method getInputStream. Unless the wrapped request is read directly, each call returns a new stream reading the body from its start.
      *
      * @return ServletInputStream
      * @throws java.io.IOException
@@ -888,11 +990,13 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public ServletInputStream getInputStream() throws IOException {
+        if (requestBody != null)
+            return new WebAgentRequestWrapperInputStream(requestBody.openStream());
         if (wrappedRequest != null)
             return wrappedRequest.getInputStream();
-        if (is == null && body != null)
-            is = new WebAgentRequestWrapperInputStream(body);
-        return is;
+        if (body != null)
+            return new WebAgentRequestWrapperInputStream(new ByteArrayInputStream(body));
+        return null;
     }
 
     /**
@@ -1039,7 +1143,8 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     }
 
     /**
-     * Method getReader.
+     * Method getReader. A body read by the wrapper is decoded with the character encoding of the request, or ISO-8859-1, the servlet default, if the
+     * request declares none.
      *
      * @return BufferedReader
      * @throws java.io.IOException
@@ -1047,12 +1152,13 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public BufferedReader getReader() throws IOException {
-        if (wrappedRequest != null)
+        if (wrappedRequest != null && requestBody == null)
             return wrappedRequest.getReader();
-        if (is != null) {
-            return new BufferedReader(new InputStreamReader(is, getCharacterEncoding()));
-        }
-        return null;
+        ServletInputStream in = getInputStream();
+        if (in == null)
+            return null;
+        String encoding = getCharacterEncoding();
+        return new BufferedReader(new InputStreamReader(in, encoding != null ? encoding : StandardCharsets.ISO_8859_1.name()));
     }
 
     /**
@@ -1239,7 +1345,11 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public Cookie[] getCookies() {
-        return cookies.toArray(new Cookie[] {});
+        if (cookies == null && lazy) {
+            Cookie[] wrapped = wrappedRequest.getCookies();
+            return wrapped == null ? new Cookie[] {} : wrapped.clone();
+        }
+        return cookies.toArray();
     }
 
     /**
@@ -1250,10 +1360,10 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     public long getDateHeader(String name) {
         // if (wrappedRequest != null)
         // return wrappedRequest.getDateHeader(name);
-        List<String> v = updatedHeaders.get(name);
-        if ((v == null) || (v.size() == 0))
+        String v = getHeader(name);
+        if (v == null)
             return -1;
-        return Long.parseLong(v.get(0));
+        return Long.parseLong(v);
     }
 
     /**
@@ -1264,10 +1374,10 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     public int getIntHeader(String name) {
         // if (wrappedRequest != null)
         // return wrappedRequest.getIntHeader(name);
-        List<String> v = updatedHeaders.get(name);
-        if ((v == null) || (v.size() == 0))
+        String v = getHeader(name);
+        if (v == null)
             return -1;
-        return Integer.parseInt(v.get(0));
+        return Integer.parseInt(v);
     }
 
     /**
@@ -1502,6 +1612,18 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      */
     public void setWrappedRequest(HttpServletRequest wrappedRequest) {
         this.wrappedRequest = wrappedRequest;
+        if (wrappedRequest == null) {
+            // nothing to read the headers and cookies from
+            lazy = false;
+            updatedHeaders = new HeaderMap();
+            cookies = new CookieMap();
+            return;
+        }
+        if (lazy) {
+            updatedHeaders = null;
+            cookies = null;
+            return;
+        }
         loadHeadersAndCookies(wrappedRequest);
     }
 
@@ -1596,10 +1718,23 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     /**
      * Method getAllHeaders.
      *
-     * @return Hashtable<String,List<String>>
+     * @return a live view of the headers, Hashtable<String,List<String>>, changes to which are seen by the request; its value lists are read-only
      * @since 1.4.2
+     * @deprecated use {@link #getHeaderMap()}, which does not go through a {@link Hashtable}
      */
+    @Deprecated
     public Hashtable<String, List<String>> getAllHeaders() {
+        return getHeaderMap().asHashtable();
+    }
+
+    /**
+     * Method getHeaderMap.
+     *
+     * @return the headers of the request, changes to which are seen by the request
+     * @since 3.0.2
+     */
+    public HeaderMap getHeaderMap() {
+        materialize();
         return updatedHeaders;
     }
 
@@ -1611,7 +1746,7 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public void setAllCookies(Collection<Cookie> cookies) {
-        this.cookies = new CopyOnWriteArrayList<Cookie>(cookies);
+        this.cookies = new CookieMap(cookies);
     }
 
     /**
@@ -1622,7 +1757,7 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public void setAllCookies(Cookie[] cookies) {
-        this.cookies = new CopyOnWriteArrayList<Cookie>(cookies);
+        this.cookies = new CookieMap(cookies);
     }
 
     /**
@@ -1633,7 +1768,12 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      * @since 1.4.2
      */
     public void setAllHeaders(CaseInsensitiveHashtable<List<String>> updatedHeaders) {
-        this.updatedHeaders = updatedHeaders;
+        if (lazy) {
+            // keep the cookies of the wrapped request
+            cookieList();
+            lazy = false;
+        }
+        this.updatedHeaders = updatedHeaders == null ? null : new HeaderMap(updatedHeaders);
     }
 
     /**
@@ -1835,7 +1975,8 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
     }
 
     /**
-     * Sets the raw content body for the request object. Note that this has no effect if this object wraps an existing request object
+     * Sets the raw content body for the request object. Note that this has no effect if this object wraps an existing request object. A body set or
+     * buffered before is closed.
      *
      * @param body
      *            an array of byte.
@@ -1843,6 +1984,83 @@ public class WebAgentRequestWrapper implements HttpServletRequest, Serializable
      */
     public void setBody(byte[] body) {
         this.body = body;
+        replaceBody(null);
+    }
+
+    /**
+     * Sets the content body for the request object, which is then read instead of the body of the wrapped request. A different body set or buffered
+     * before is closed.
+     *
+     * @param requestBody
+     *            a {@link com.idfconnect.ssorest.common.http.RequestBody} object.
+     * @since 3.0.2
+     */
+    public void setBody(RequestBody requestBody) {
+        replaceBody(requestBody);
+        this.body = null;
+    }
+
+    /**
+     * Replaces the body, closing the previous one so that a temporary file it spilled to is deleted
+     */
+    private void replaceBody(RequestBody replacement) {
+        RequestBody previous = requestBody;
+        requestBody = replacement;
+        if (previous == null || previous == replacement)
+            return;
+        try {
+            previous.close();
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).warn("Could not close the replaced request body: {}", e.toString());
+        }
+    }
+
+    /**
+     * Returns the content body set for the request object, or buffered by {@link #bufferBody(int)}
+     *
+     * @return a {@link com.idfconnect.ssorest.common.http.RequestBody} object, or null if the body is read from the wrapped request or there is none
+     * @since 3.0.2
+     */
+    public RequestBody getBody() {
+        if (requestBody == null && body != null)
+            return new ByteArrayRequestBody(body);
+        return requestBody;
+    }
+
+    /**
+     * Method bufferBody, keeping up to {@link SpooledRequestBody#MEMORY_THRESHOLD_DEFAULT} bytes in memory.
+     *
+     * @return a {@link com.idfconnect.ssorest.common.http.RequestBody} object.
+     * @throws java.io.IOException
+     *             if any.
+     * @since 3.0.2
+     * @see #bufferBody(int)
+     */
+    public RequestBody bufferBody() throws IOException {
+        return bufferBody(SpooledRequestBody.MEMORY_THRESHOLD_DEFAULT);
+    }
+
+    /**
+     * Makes the body of the wrapped request readable several times, for instance by the agent and then by the application. The body is read from the
+     * wrapped request only as far as it is consumed, through a {@link SpooledRequestBody} spilling to a temporary file beyond
+     * <code>memoryThreshold</code> bytes, and {@link #getInputStream()} and {@link #getReader()} then read it from its start. The caller must close the
+     * returned body once the request is handled, to delete the file.
+     *
+     * @param memoryThreshold
+     *            bytes kept in memory before spilling to a file
+     * @return the body, or null if there is none
+     * @throws java.io.IOException
+     *             if the stream of the wrapped request could not be obtained
+     * @since 3.0.2
+     */
+    public RequestBody bufferBody(int memoryThreshold) throws IOException {
+        if (requestBody == null) {
+            if (wrappedRequest != null)
+                requestBody = new SpooledRequestBody(wrappedRequest.getInputStream(), wrappedRequest.getContentLength(), memoryThreshold);
+            else if (body != null)
+                requestBody = new ByteArrayRequestBody(body);
+        }
+        return requestBody;
     }
 
     /**
@@ -1,10 +1,10 @@
 package com.idfconnect.ssorest.common.http;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -67,11 +67,11 @@ public class WebAgentResponseWrapper implements FluentHttpServletResponse {
     /**
      */
     private static class WebAgentResponseWrapperOutputStream extends ServletOutputStream {
-        private ByteArrayOutputStream baos = null;
+        private ChunkedOutputBuffer baos = null;
 
         public WebAgentResponseWrapperOutputStream() {
             super();
-            baos = new ByteArrayOutputStream();
+            baos = new ChunkedOutputBuffer();
         }
 
         /**
@@ -132,15 +132,7 @@ public class WebAgentResponseWrapper implements FluentHttpServletResponse {
          */
         @Override
         public String toString() {
-            try {
-                baos.flush();
-            } catch (IOException e) {
-            }
-            try {
-                return baos.toString(StandardCharsets.UTF_8.name());
-            } catch (UnsupportedEncodingException e) {
-                return ""; // should never happen
-            }
+            return baos.toString(StandardCharsets.UTF_8);
         }
     }
 
@@ -195,6 +187,69 @@ public class WebAgentResponseWrapper implements FluentHttpServletResponse {
         return os.toString();
     }
 
+    /**
+     * Returns the length in bytes of the output body of the response IFF there is no underlying wrapped object
+     *
+     * @return the length, or -1 if the body is not captured
+     * @since 3.0.2
+     */
+    public long getBodyLength() {
+        if ((wrappedResponse != null) && (wrappedResponse instanceof WebAgentResponseWrapper))
+            return ((WebAgentResponseWrapper) wrappedResponse).getBodyLength();
+        if (os == null)
+            return -1;
+        return os.baos.size();
+    }
+
+    /**
+     * Writes the output body of the response IFF there is no underlying wrapped object, without decoding it to a String
+     *
+     * @param out
+     *            an {@link java.io.OutputStream} object.
+     * @return the number of bytes written, or -1 if the body is not captured
+     * @throws java.io.IOException
+     *             if any.
+     * @since 3.0.2
+     */
+    public long writeBodyTo(OutputStream out) throws IOException {
+        if ((wrappedResponse != null) && (wrappedResponse instanceof WebAgentResponseWrapper))
+            return ((WebAgentResponseWrapper) wrappedResponse).writeBodyTo(out);
+        if (os == null)
+            return -1;
+        return os.baos.writeTo(out);
+    }
+
+    /**
+     * Writes the output body of the response IFF there is no underlying wrapped object, without decoding it to a String
+     *
+     * @param channel
+     *            a {@link java.nio.channels.WritableByteChannel} object.
+     * @return the number of bytes written, or -1 if the body is not captured
+     * @throws java.io.IOException
+     *             if any.
+     * @since 3.0.2
+     */
+    public long writeBodyTo(WritableByteChannel channel) throws IOException {
+        if ((wrappedResponse != null) && (wrappedResponse instanceof WebAgentResponseWrapper))
+            return ((WebAgentResponseWrapper) wrappedResponse).writeBodyTo(channel);
+        if (os == null)
+            return -1;
+        return os.baos.writeTo(channel);
+    }
+
+    /**
+     * Returns the buffer of the output body of the response IFF there is no underlying wrapped object to the shared pool. The body is empty afterwards;
+     * call this once the body was used, such as at the end of the request. Not calling it only costs the reuse of the buffer.
+     *
+     * @since 3.0.2
+     */
+    public void releaseBody() {
+        if ((wrappedResponse != null) && (wrappedResponse instanceof WebAgentResponseWrapper))
+            ((WebAgentResponseWrapper) wrappedResponse).releaseBody();
+        else if (os != null)
+            os.baos.release();
+    }
+
     /**
      * Method getBufferSize.
      *
@@ -297,9 +352,13 @@ public class WebAgentResponseWrapper implements FluentHttpServletResponse {
      * @since 1.4
      */
     public void resetBuffer() {
-        if (wrappedResponse == null)
-            os = new WebAgentResponseWrapperOutputStream();
-        else
+        if (wrappedResponse == null) {
+            // the writers already handed out stay valid, as with a container buffer
+            if (os == null)
+                os = new WebAgentResponseWrapperOutputStream();
+            else
+                os.baos.reset();
+        } else
             wrappedResponse.resetBuffer();
     }
 
@@ -0,0 +1,64 @@
+package com.idfconnect.ssorest.common.json;
+
+import java.io.IOException;
+
+import javax.servlet.http.Cookie;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.idfconnect.ssorest.common.http.CookieMap;
+
+/**
+ * <p>
+ * Writes a {@link CookieMap} as an array of cookies, the form the cookie lists of the request wrappers always had in JSON. The cookies themselves are
+ * written by the adapter Gson has for {@link Cookie}.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class CookieMapTypeAdapterFactory implements TypeAdapterFactory {
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (!CookieMap.class.equals(type.getRawType()))
+            return null;
+        final TypeAdapter<Cookie> cookieAdapter = gson.getAdapter(Cookie.class);
+        return (TypeAdapter<T>) new TypeAdapter<CookieMap>() {
+            @Override
+            public void write(JsonWriter out, CookieMap cookies) throws IOException {
+                if (cookies == null) {
+                    out.nullValue();
+                    return;
+                }
+                out.beginArray();
+                for (Cookie cookie : cookies)
+                    cookieAdapter.write(out, cookie);
+                out.endArray();
+            }
+
+            @Override
+            public CookieMap read(JsonReader in) throws IOException {
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    return null;
+                }
+                CookieMap cookies = new CookieMap();
+                in.beginArray();
+                while (in.hasNext()) {
+                    Cookie cookie = cookieAdapter.read(in);
+                    if (cookie != null)
+                        cookies.add(cookie);
+                }
+                in.endArray();
+                return cookies;
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package com.idfconnect.ssorest.common.json;
+
+import java.io.IOException;
+import java.util.Enumeration;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.idfconnect.ssorest.common.http.HeaderMap;
+
+/**
+ * <p>
+ * Writes a {@link HeaderMap} as an object of header names to arrays of values, the form the header tables of the request wrappers always had in JSON.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class HeaderMapTypeAdapter extends TypeAdapter<HeaderMap> {
+    /** {@inheritDoc} */
+    @Override
+    public void write(JsonWriter out, HeaderMap headers) throws IOException {
+        if (headers == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        Enumeration<String> names = headers.names();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            out.name(name);
+            out.beginArray();
+            Enumeration<String> values = headers.getValues(name);
+            while (values.hasMoreElements())
+                out.value(values.nextElement());
+            out.endArray();
+        }
+        out.endObject();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public HeaderMap read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        HeaderMap headers = new HeaderMap();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() != JsonToken.BEGIN_ARRAY) {
+                headers.add(name, nextString(in));
+                continue;
+            }
+            in.beginArray();
+            while (in.hasNext())
+                headers.add(name, nextString(in));
+            in.endArray();
+        }
+        in.endObject();
+        return headers;
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
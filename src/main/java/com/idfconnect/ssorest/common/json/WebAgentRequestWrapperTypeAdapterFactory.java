@@ -0,0 +1,46 @@
+package com.idfconnect.ssorest.common.json;
+
+import java.io.IOException;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.idfconnect.ssorest.common.http.WebAgentRequestWrapper;
+
+/**
+ * <p>
+ * Calls {@link WebAgentRequestWrapper#prepareForSerialization()} before Gson writes a wrapper, copying the headers and cookies of a lazy wrapper and a
+ * body set as a {@link com.idfconnect.ssorest.common.http.RequestBody}, which would otherwise not be written. The wrapper is otherwise written and read by
+ * the adapter Gson would use without this factory.
+ * </p>
+ *
+ * @author rsand
+ * @since 3.0.2
+ */
+public class WebAgentRequestWrapperTypeAdapterFactory implements TypeAdapterFactory {
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (!WebAgentRequestWrapper.class.isAssignableFrom(type.getRawType()))
+            return null;
+        final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+        return (TypeAdapter<T>) new TypeAdapter<WebAgentRequestWrapper>() {
+            @Override
+            public void write(JsonWriter out, WebAgentRequestWrapper wrapper) throws IOException {
+                // as before Java serialization, so that neither the headers of a lazy wrapper nor a body set as a RequestBody are lost
+                if (wrapper != null)
+                    wrapper.prepareForSerialization();
+                delegate.write(out, (T) wrapper);
+            }
+
+            @Override
+            public WebAgentRequestWrapper read(JsonReader in) throws IOException {
+                return (WebAgentRequestWrapper) delegate.read(in);
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.idfconnect.ssorest.common.cache.BinaryValueCodec;
+import com.idfconnect.ssorest.common.cache.CacheValueCodec;
+
+public class BinaryValueCodecTest {
+
+    public static class Session {
+        String   user;
+        long     expires;
+        String[] roles;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        CacheValueCodec codec = new BinaryValueCodec();
+        assertEquals("value", codec.decode(codec.encode("value")));
+        assertEquals(42, codec.decode(codec.encode(42)));
+        assertEquals(42L, codec.decode(codec.encode(42L)));
+        assertEquals(1.5d, codec.decode(codec.encode(1.5d)));
+        assertEquals(Boolean.TRUE, codec.decode(codec.encode(true)));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) codec.decode(codec.encode(new byte[] { 1, 2, 3 })));
+
+        Session session = new Session();
+        session.user = "jdoe";
+        session.expires = 1234567890123L;
+        session.roles = new String[] { "admin", "user" };
+        Session decoded = (Session) codec.decode(codec.encode(session));
+        assertEquals("jdoe", decoded.user);
+        assertEquals(1234567890123L, decoded.expires);
+        assertArrayEquals(session.roles, decoded.roles);
+    }
+
+    @Test
+    public void testEmptyAndTruncatedValues() {
+        CacheValueCodec codec = new BinaryValueCodec();
+        assertNull(codec.decode(new byte[0]));
+        byte[] encoded = codec.encode(42L);
+        try {
+            codec.decode(Arrays.copyOf(encoded, 3));
+            fail("a truncated value should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompression() {
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        CacheValueCodec codec = new BinaryValueCodec();
+        byte[] encoded = codec.encode(large);
+        assertTrue(encoded.length < 1000);
+        assertEquals(large, codec.decode(encoded));
+
+        // smaller than the json encoding of the same string, even uncompressed
+        CacheValueCodec uncompressed = new BinaryValueCodec(-1);
+        assertTrue(uncompressed.encode("a \"quoted\" value").length < new Gson().toJson("a \"quoted\" value").length());
+        assertEquals(large, uncompressed.decode(uncompressed.encode(large)));
+    }
+
+    @Test
+    public void testCorruptUncompressedLength() {
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'x');
+        CacheValueCodec codec = new BinaryValueCodec();
+        byte[] encoded = codec.encode(new String(chars));
+        for (int length : new int[] { -1, 0, Integer.MAX_VALUE }) {
+            byte[] corrupt = encoded.clone();
+            ByteBuffer.wrap(corrupt, 1, 4).putInt(length);
+            try {
+                codec.decode(corrupt);
+                fail("an uncompressed length of " + length + " should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected, without allocating the declared length
+            }
+        }
+    }
+}
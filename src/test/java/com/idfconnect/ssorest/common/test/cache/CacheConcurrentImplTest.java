@@ -0,0 +1,345 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.Cache;
+import com.idfconnect.ssorest.common.cache.CacheException;
+import com.idfconnect.ssorest.common.cache.CacheConcurrentImpl;
+import com.idfconnect.ssorest.common.cache.CacheConstant;
+import com.idfconnect.ssorest.common.cache.RemovalCause;
+
+public class CacheConcurrentImplTest {
+
+    @Test
+    public void testPutGetAndReplace() {
+        Cache cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        assertTrue(cache.isEmpty());
+        assertNull(cache.put("key1", "value1"));
+        assertEquals("value1", cache.get("key1"));
+
+        // replacing an existing key returns the old value and does not grow the cache
+        assertEquals("value1", cache.put("key1", "value2"));
+        assertEquals("value2", cache.get("key1"));
+        assertEquals(1, cache.size());
+
+        assertEquals("value2", cache.remove("key1"));
+        assertNull(cache.get("key1"));
+        assertNull(cache.remove("key1"));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testGetAllAndPutAll() {
+        Cache cache = new CacheConcurrentImpl(100, Integer.MAX_VALUE, 4);
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 20; i++)
+            entries.put("key" + i, "value" + i);
+        cache.putAll(entries);
+        assertEquals(20, cache.size());
+
+        Map<Object, Object> found = cache.getAll(Arrays.asList("key0", "key19", "missing"));
+        assertEquals(2, found.size());
+        assertEquals("value0", found.get("key0"));
+        assertEquals("value19", found.get("key19"));
+        assertFalse(found.containsKey("missing"));
+    }
+
+    @Test
+    public void testEvictionKeepsSizeBounded() {
+        Cache cache = new CacheConcurrentImpl(50, Integer.MAX_VALUE, 4);
+        for (int i = 0; i < 1000; i++)
+            cache.put("key" + i, "value" + i);
+        assertEquals(50, cache.size());
+
+        // shrink the cache
+        cache.assertMaxCacheSize(10);
+        assertEquals(10, cache.size());
+
+        cache.removeTail();
+        assertEquals(9, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testReferencedEntriesSurviveEviction() {
+        Cache cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE, 1);
+        for (int i = 0; i < 10; i++)
+            cache.put("key" + i, "value" + i);
+        // touch the first half, then push the cache over capacity
+        for (int i = 0; i < 5; i++)
+            cache.get("key" + i);
+        for (int i = 10; i < 15; i++)
+            cache.put("key" + i, "value" + i);
+        for (int i = 0; i < 5; i++)
+            assertEquals("value" + i, cache.get("key" + i));
+        for (int i = 5; i < 10; i++)
+            assertNull(cache.get("key" + i));
+    }
+
+    @Test
+    public void testWeightBound() {
+        CacheConcurrentImpl cache = new CacheConcurrentImpl(100, Integer.MAX_VALUE, 2);
+        cache.setMaximumWeight(1000, (key, value) -> ((String) value).length());
+        char[] chars = new char[200];
+        for (int i = 0; i < 10; i++)
+            cache.put("key" + i, new String(chars));
+        assertTrue(cache.getWeightedSize() <= 1000);
+        assertEquals(5, cache.size());
+
+        // growing an entry evicts others to make room
+        cache.put("key9", new String(new char[600]));
+        assertTrue(cache.getWeightedSize() <= 1000);
+        assertEquals(600, ((String) cache.get("key9")).length());
+
+        // an entry heavier than the whole budget is not cached
+        cache.put("huge", new String(new char[2000]));
+        assertNull(cache.get("huge"));
+        assertEquals("key9 should survive", 600, ((String) cache.get("key9")).length());
+
+        cache.clear();
+        assertEquals(0, cache.getWeightedSize());
+    }
+
+    @Test
+    public void testPerEntryExpiry() throws Exception {
+        Cache cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        cache.put("shortLived", "value1", 50, TimeUnit.MILLISECONDS);
+        cache.put("longLived", "value2");
+        assertEquals("value1", cache.get("shortLived"));
+        Thread.sleep(100);
+        assertNull(cache.get("shortLived"));
+        assertEquals("value2", cache.get("longLived"));
+        assertEquals(1, cache.size());
+
+        // re-putting without a ttl falls back to the cache-wide time out, which here is never
+        cache.put("longLived", "value3", 50, TimeUnit.MILLISECONDS);
+        cache.put("longLived", "value4");
+        Thread.sleep(100);
+        assertEquals("value4", cache.get("longLived"));
+        cache.close();
+    }
+
+    @Test
+    public void testExpiredEntriesAreSweptWithoutReads() throws Exception {
+        Cache cache = new CacheConcurrentImpl(1000, Integer.MAX_VALUE);
+        for (int i = 0; i < 500; i++)
+            cache.put("key" + i, "value" + i, 10, TimeUnit.MILLISECONDS);
+        cache.put("keep", "value");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.size() > 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(50);
+        assertEquals(1, cache.size());
+        assertEquals("value", cache.get("keep"));
+        cache.close();
+
+        // a closed cache does not restart its sweeper, its entries only expire when read
+        cache.put("late", "value", 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(200);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("late"));
+    }
+
+    @Test
+    public void testSlidingExpiration() throws Exception {
+        CacheConcurrentImpl cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        cache.setSlidingExpiration(true);
+        cache.put("session", "value", 1500, TimeUnit.MILLISECONDS);
+        // keep reading well past the original deadline
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(400);
+            assertEquals("value", cache.get("session"));
+        }
+        cache.close();
+    }
+
+    @Test
+    public void testTinyLfuResistsScans() {
+        CacheConcurrentImpl lru = new CacheConcurrentImpl(200, Integer.MAX_VALUE, 4, CacheConstant.CACHE_EVICTION_LRU);
+        CacheConcurrentImpl tinyLfu = new CacheConcurrentImpl(200, Integer.MAX_VALUE, 4, CacheConstant.CACHE_EVICTION_TINY_LFU);
+        replayTrace(lru);
+        replayTrace(tinyLfu);
+        assertTrue(tinyLfu.size() <= 200);
+        assertTrue("TinyLFU hit ratio " + tinyLfu.getHitRatio() + " should beat LRU " + lru.getHitRatio(), tinyLfu.getHitRatio() > lru.getHitRatio());
+    }
+
+    /**
+     * Replays a skewed trace over 1000 popular keys interleaved with bursts of one-off keys, like a crawler walking unique URLs
+     */
+    private void replayTrace(Cache cache) {
+        Random random = new Random(42);
+        int scanKey = 0;
+        for (int i = 0; i < 200000; i++) {
+            String key;
+            if ((i / 1000) % 2 == 1 && random.nextBoolean())
+                key = "scan" + scanKey++;
+            else
+                key = "hot" + (int) Math.floor(Math.pow(1000, random.nextDouble()));
+            if (cache.get(key) == null)
+                cache.put(key, key);
+        }
+    }
+
+    @Test
+    public void testLoaderCoalescesConcurrentMisses() throws Exception {
+        final Cache cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int t = 0; t < 16; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cache.get("session", key -> {
+                    loads.incrementAndGet();
+                    Thread.sleep(200);
+                    return "loaded";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<Object> future : futures)
+            assertEquals("loaded", future.get());
+        executor.shutdown();
+        assertEquals(1, loads.get());
+        assertEquals("loaded", cache.get("session"));
+    }
+
+    @Test
+    public void testLoaderErrorReleasesWaiters() throws Exception {
+        final Cache cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch fail = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<Object> owner = executor.submit(() -> cache.get("session", key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            fail.await();
+            throw new AssertionError("loader failed");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<Object> waiter = executor.submit(() -> cache.get("session", key -> "loaded" + loads.incrementAndGet()));
+        Thread.sleep(200);
+        fail.countDown();
+        try {
+            owner.get(5, TimeUnit.SECONDS);
+            fail("the loader error should reach its caller");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+        try {
+            waiter.get(5, TimeUnit.SECONDS);
+            fail("the waiting thread should share the failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CacheException);
+            assertTrue(e.getCause().getCause() instanceof AssertionError);
+        }
+        executor.shutdown();
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        CacheConcurrentImpl cache = new CacheConcurrentImpl(10, Integer.MAX_VALUE);
+        cache.setRefreshAhead(0.5, null);
+        AtomicInteger loads = new AtomicInteger();
+        cache.put("session", "old", 10, TimeUnit.SECONDS);
+        // plenty of time to live left, nothing to do
+        assertEquals("old", cache.get("session", key -> "loaded" + loads.incrementAndGet()));
+        assertEquals(0, loads.get());
+
+        cache.put("session", "old", 1, TimeUnit.SECONDS);
+        Thread.sleep(600);
+        // within the refresh window: the current value is served while it is reloaded
+        assertEquals("old", cache.get("session", key -> "loaded" + loads.incrementAndGet()));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"loaded1".equals(cache.get("session")) && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals("loaded1", cache.get("session"));
+        assertEquals(1, loads.get());
+        cache.close();
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final Cache cache = new CacheConcurrentImpl(500, Integer.MAX_VALUE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    String key = "key" + random.nextInt(2000);
+                    if (random.nextInt(4) == 0) {
+                        cache.remove(key);
+                        continue;
+                    }
+                    Object value = cache.get(key);
+                    if (value == null)
+                        cache.put(key, key);
+                    else
+                        assertEquals(key, value);
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(cache.size() <= 500);
+        assertFalse(cache.isEmpty());
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        CacheConcurrentImpl cache = new CacheConcurrentImpl(2, Integer.MAX_VALUE, 1);
+        ConcurrentLinkedQueue<String> removals = new ConcurrentLinkedQueue<String>();
+        CountDownLatch delivered = new CountDownLatch(4);
+        cache.addRemovalListener((key, value, cause) -> {
+            removals.add(key + "=" + value + ":" + cause);
+            delivered.countDown();
+        });
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.remove("a");
+        cache.put("b", "1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        assertNull(cache.get("b"));
+        cache.put("c", "1");
+        cache.put("d", "1");
+        cache.put("e", "1");
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertTrue(removals.contains("a=1:" + RemovalCause.REPLACED));
+        assertTrue(removals.contains("a=2:" + RemovalCause.EXPLICIT));
+        assertTrue(removals.contains("b=1:" + RemovalCause.EXPIRED));
+        assertEquals(1, removals.stream().filter(removal -> removal.endsWith(":" + RemovalCause.SIZE)).count());
+        assertTrue(RemovalCause.SIZE.wasEvicted());
+        assertFalse(RemovalCause.REPLACED.wasEvicted());
+        cache.close();
+    }
+}
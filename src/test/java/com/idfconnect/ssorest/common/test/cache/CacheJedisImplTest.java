@@ -0,0 +1,285 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.BinaryValueCodec;
+import com.idfconnect.ssorest.common.cache.CacheConstant;
+import com.idfconnect.ssorest.common.cache.CacheJedisImpl;
+import com.idfconnect.ssorest.common.cache.CircuitBreaker;
+import com.idfconnect.ssorest.common.cache.RedisClusterTopology;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class CacheJedisImplTest {
+    // nothing listens on this port, so every redis call fails fast
+    static final String DOWN = "127.0.0.1:1";
+
+    @Test
+    public void testAsyncWhileRedisIsDown() throws Exception {
+        CacheJedisImpl cache = new CacheJedisImpl(DOWN, Collections.singletonList(DOWN));
+        try {
+            // like get(), a failed read completes as a miss
+            assertNull(cache.getAsync("key1").get(5, TimeUnit.SECONDS));
+            CompletableFuture<Object> put = cache.putAsync("key1", "value1");
+            try {
+                put.get(5, TimeUnit.SECONDS);
+                fail("put should fail while redis is down");
+            } catch (ExecutionException e) {
+                assertTrue(put.isCompletedExceptionally());
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testAsyncKeepsPerKeyOrder() throws Exception {
+        try (TestRedisServer redis = new TestRedisServer()) {
+            CacheJedisImpl cache = new CacheJedisImpl(redis.getEndPoint(), Collections.singletonList(redis.getEndPoint()));
+            try {
+                assertTrue(cache.isConnected());
+                cache.setValueCodec(new BinaryValueCodec());
+                List<CompletableFuture<Object>> reads = new ArrayList<CompletableFuture<Object>>();
+                List<CompletableFuture<Object>> removedReads = new ArrayList<CompletableFuture<Object>>();
+                for (int i = 0; i < 200; i++) {
+                    cache.putAsync("key" + i, "value" + i);
+                    reads.add(cache.getAsync("key" + i));
+                    cache.removeAsync("key" + i);
+                    removedReads.add(cache.getAsync("key" + i));
+                }
+                // every read sees the writes submitted before it, even when they are sent in the same batch
+                for (int i = 0; i < 200; i++) {
+                    assertEquals("value" + i, reads.get(i).get(5, TimeUnit.SECONDS));
+                    assertNull(removedReads.get(i).get(5, TimeUnit.SECONDS));
+                }
+            } finally {
+                cache.close();
+            }
+            try {
+                cache.putAsync("key1", "value1").get(5, TimeUnit.SECONDS);
+                fail("a closed cache should reject commands");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+                assertEquals("Cache closed", e.getCause().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultKeyPrefixScopesSizeAndClear() throws Exception {
+        try (TestRedisServer redis = new TestRedisServer()) {
+            redis.getData().put("other", "kept".getBytes(StandardCharsets.UTF_8));
+            CacheJedisImpl cache = new CacheJedisImpl(redis.getEndPoint(), Collections.singletonList(redis.getEndPoint()));
+            try {
+                assertEquals(CacheConstant.REDIS_KEY_PREFIX_DEFAULT, cache.getKeyPrefix());
+                cache.put("key1", "value1");
+                cache.put("key2", "value2");
+                assertEquals(2, cache.size());
+                cache.clear();
+                assertTrue(cache.isEmpty());
+                assertEquals(Collections.singleton("other"), redis.getData().keySet());
+                assertFalse(redis.getCommands().contains("DBSIZE"));
+                assertFalse(redis.getCommands().contains("FLUSHDB"));
+
+                // without a prefix the cache owns the database
+                cache.setKeyPrefix(null);
+                assertEquals(1, cache.size());
+                cache.clear();
+                assertTrue(redis.getData().isEmpty());
+                assertTrue(redis.getCommands().contains("FLUSHDB"));
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyKeyTypeUsesTheBaselineKeys() throws Exception {
+        try (TestRedisServer redis = new TestRedisServer()) {
+            // as written by an older version
+            redis.getData().put(Integer.toString("old".hashCode()), "\"value0\"".getBytes(StandardCharsets.UTF_8));
+            CacheJedisImpl cache = new CacheJedisImpl(redis.getEndPoint(), Collections.singletonList(redis.getEndPoint()),
+                    CacheConstant.CACHE_KEY_TYPE_HASH_CODE);
+            try {
+                assertEquals("", cache.getKeyPrefix());
+                assertEquals("\"value0\"", cache.get("old"));
+                cache.put("key1", "value1");
+                assertEquals("\"value1\"", new String(redis.getData().get(Integer.toString("key1".hashCode())), StandardCharsets.UTF_8));
+
+                // unless a prefix is set explicitly
+                cache.setKeyPrefix("app:");
+                cache.put("key2", "value2");
+                assertTrue(redis.getData().containsKey("app:" + "key2".hashCode()));
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void testNotConnectedFailsFast() throws Exception {
+        CacheJedisImpl cache = new CacheJedisImpl(DOWN, Collections.singletonList(DOWN));
+        try {
+            assertFalse(cache.isConnected());
+            assertNull(cache.get("key1"));
+            try {
+                cache.size();
+                fail("size cannot be known while not connected");
+            } catch (JedisConnectionException e) {
+                assertTrue(e.getMessage().startsWith("Not connected to Redis"));
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testClusterTopologyWhileRedisIsDown() throws Exception {
+        RedisClusterTopology topology = new RedisClusterTopology(Collections.singleton(DOWN), CacheJedisImpl.defaultPoolConfig());
+        assertTrue(topology.isSharded());
+        assertTrue(topology.getMasters().isEmpty());
+        assertNull(topology.getMaster("key1".getBytes("UTF-8")));
+
+        CacheJedisImpl cache = new CacheJedisImpl(500, Integer.MAX_VALUE, topology);
+        try {
+            assertFalse(cache.isConnected());
+            // no slot is known yet: reads miss and writes are dropped instead of throwing
+            cache.put("key1", "value1");
+            assertNull(cache.get("key1"));
+            assertTrue(cache.getAll(Arrays.asList("key1", "key2")).isEmpty());
+            assertTrue(cache.isEmpty());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testClusterWritesFollowRedirections() throws Exception {
+        try (TestRedisServer stale = new TestRedisServer(); TestRedisServer owner = new TestRedisServer()) {
+            // the slot table still routes the keys to a node that has handed them over
+            for (TestRedisServer node : Arrays.asList(stale, owner)) {
+                node.addSlots(0, CacheConstant.REDIS_CLUSTER_SLOTS - 2, stale.getEndPoint());
+                node.addSlots(CacheConstant.REDIS_CLUSTER_SLOTS - 1, CacheConstant.REDIS_CLUSTER_SLOTS - 1, owner.getEndPoint());
+            }
+            RedisClusterTopology topology = new RedisClusterTopology(Collections.singleton(stale.getEndPoint()), CacheJedisImpl.defaultPoolConfig());
+            CacheJedisImpl cache = new CacheJedisImpl(500, Integer.MAX_VALUE, topology);
+            try {
+                assertTrue(cache.isConnected());
+                stale.setRedirection("MOVED 0 " + owner.getEndPoint());
+                cache.put("key1", "value1");
+                assertTrue(stale.getCommands().contains("SETEX"));
+                assertEquals(1, owner.getData().size());
+
+                stale.setRedirection("ASK 0 " + owner.getEndPoint());
+                Map<String, String> entries = new HashMap<String, String>();
+                entries.put("key2", "value2");
+                entries.put("key3", "value3");
+                cache.putAll(entries);
+                assertEquals(3, owner.getData().size());
+                assertTrue(owner.getCommands().contains("ASKING"));
+                assertEquals("value2", cache.putAsync("key2", "value2").get(5, TimeUnit.SECONDS));
+                assertEquals(3, owner.getData().size());
+
+                stale.setRedirection("MOVED 0 " + owner.getEndPoint());
+                cache.remove("key1");
+                assertEquals(2, owner.getData().size());
+                assertTrue(stale.getData().isEmpty());
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void testClusterReadsFollowRedirections() throws Exception {
+        try (TestRedisServer stale = new TestRedisServer(); TestRedisServer owner = new TestRedisServer()) {
+            for (TestRedisServer node : Arrays.asList(stale, owner)) {
+                node.addSlots(0, CacheConstant.REDIS_CLUSTER_SLOTS - 2, stale.getEndPoint());
+                node.addSlots(CacheConstant.REDIS_CLUSTER_SLOTS - 1, CacheConstant.REDIS_CLUSTER_SLOTS - 1, owner.getEndPoint());
+            }
+            RedisClusterTopology topology = new RedisClusterTopology(Collections.singleton(stale.getEndPoint()), CacheJedisImpl.defaultPoolConfig());
+            CacheJedisImpl cache = new CacheJedisImpl(500, Integer.MAX_VALUE, topology);
+            // a single failure would open the breaker
+            cache.setCircuitBreaker(new CircuitBreaker(1, 60000));
+            try {
+                assertTrue(cache.isConnected());
+                cache.put("key1", "value1");
+                cache.put("key2", "value2");
+                owner.getData().putAll(stale.getData());
+                stale.getData().clear();
+
+                stale.setRedirection("MOVED 0 " + owner.getEndPoint());
+                assertEquals("\"value1\"", cache.get("key1"));
+                stale.setRedirection("ASK 0 " + owner.getEndPoint());
+                Map<Object, Object> found = cache.getAll(Arrays.asList("key1", "key2", "key3"));
+                assertEquals(2, found.size());
+                assertEquals("\"value2\"", found.get("key2"));
+                assertEquals("\"value1\"", cache.getAsync("key1").get(5, TimeUnit.SECONDS));
+                assertEquals(CircuitBreaker.State.CLOSED, cache.getCircuitBreaker().getState());
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReadBalancingOverDownEndPoints() throws Exception {
+        CacheJedisImpl cache = new CacheJedisImpl(DOWN, Arrays.asList(DOWN, "127.0.0.1:2"));
+        try {
+            assertEquals(CacheConstant.REDIS_READ_EWMA, cache.getReadBalancing());
+            cache.setReadBalancing(CacheConstant.REDIS_READ_LEAST_OUTSTANDING);
+            assertEquals(CacheConstant.REDIS_READ_LEAST_OUTSTANDING, cache.getReadBalancing());
+            try {
+                cache.setReadBalancing(42);
+                fail("unknown policies should be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // both endpoints are ejected, reads miss
+            assertNull(cache.get("key1"));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerFallsBackWhileRedisIsDown() throws Exception {
+        CacheJedisImpl cache = new CacheJedisImpl(DOWN, Collections.singletonList(DOWN));
+        try {
+            cache.setCircuitBreaker(new CircuitBreaker(2, 60000));
+            assertNull(cache.get("key1"));
+            assertEquals(CircuitBreaker.State.CLOSED, cache.getCircuitBreaker().getState());
+            assertNull(cache.get("key1"));
+            assertEquals(CircuitBreaker.State.OPEN, cache.getCircuitBreaker().getState());
+
+            // served by the local fallback without touching redis
+            cache.put("key1", "value1");
+            assertEquals("value1", cache.get("key1"));
+            assertEquals("value1", cache.getAsync("key1").get(1, TimeUnit.SECONDS));
+            assertEquals(1, cache.size());
+            assertEquals("value1", cache.remove("key1"));
+            assertNull(cache.get("key1"));
+            assertTrue(cache.isEmpty());
+            assertEquals(1, cache.getCircuitBreaker().getTripCount());
+        } finally {
+            cache.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.Cache;
+import com.idfconnect.ssorest.common.cache.CacheLocalImpl;
+import com.idfconnect.ssorest.common.cache.RemovalCause;
+
+public class CacheLocalImplTest {
+
+    @Test
+    public void testPerEntryExpiry() throws Exception {
+        Cache cache = new CacheLocalImpl(10, Integer.MAX_VALUE);
+        cache.put("shortLived", "value1", 50, TimeUnit.MILLISECONDS);
+        cache.put("longLived", "value2");
+        assertEquals("value1", cache.get("shortLived"));
+        Thread.sleep(100);
+        assertNull(cache.get("shortLived"));
+        assertEquals("value2", cache.get("longLived"));
+        assertEquals(1, cache.size());
+
+        // re-putting without a ttl falls back to the cache-wide time out, which here is never
+        cache.put("longLived", "value3", 50, TimeUnit.MILLISECONDS);
+        cache.put("longLived", "value4");
+        Thread.sleep(100);
+        assertEquals("value4", cache.get("longLived"));
+
+        // a ttl of Long.MAX_VALUE outlives the cache-wide time out, as in the other caches
+        Cache expiring = new CacheLocalImpl(10, 0);
+        expiring.put("forever", "value5", Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        expiring.put("default", "value6");
+        Thread.sleep(5);
+        assertEquals("value5", expiring.get("forever"));
+        assertNull(expiring.get("default"));
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        Cache cache = new CacheLocalImpl(2, Integer.MAX_VALUE);
+        List<String> removals = new ArrayList<String>();
+        // notified on the calling thread, so in order
+        cache.addRemovalListener((key, value, cause) -> removals.add(key + "=" + value + ":" + cause), Runnable::run);
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.remove("a");
+        assertNull(cache.remove("a"));
+        cache.put("b", "1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        assertNull(cache.get("b"));
+        cache.put("c", "1");
+        cache.put("d", "1");
+        cache.put("e", "1");
+        cache.removeTail();
+        assertNull(cache.get("d"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(Arrays.asList("a=1:" + RemovalCause.REPLACED, "a=2:" + RemovalCause.EXPLICIT, "b=1:" + RemovalCause.EXPIRED,
+                "c=1:" + RemovalCause.SIZE, "d=1:" + RemovalCause.SIZE, "e=1:" + RemovalCause.EXPLICIT), removals);
+    }
+}
@@ -0,0 +1,129 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.CacheMappedFileImpl;
+import com.idfconnect.ssorest.common.cache.RemovalCause;
+
+public class CacheMappedFileImplTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("cache", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testEntriesSurviveReopening() throws Exception {
+        CacheMappedFileImpl cache = new CacheMappedFileImpl(file, 1 << 20, 1000, Integer.MAX_VALUE);
+        for (int i = 0; i < 100; i++)
+            cache.put("key" + i, "value" + i);
+        cache.put("key1", "replaced");
+        cache.remove("key2");
+        cache.put("shortLived", "value", 50, TimeUnit.MILLISECONDS);
+        cache.close();
+        Thread.sleep(100);
+
+        cache = new CacheMappedFileImpl(file, 1 << 20, 1000, Integer.MAX_VALUE);
+        assertEquals(99, cache.size());
+        assertEquals("value0", cache.get("key0"));
+        assertEquals("replaced", cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertNull(cache.get("shortLived"));
+
+        // cleared entries are not replayed even though their records are still in the file
+        cache.clear();
+        cache.put("after", "clear");
+        cache.close();
+        cache = new CacheMappedFileImpl(file, 1 << 20, 1000, Integer.MAX_VALUE);
+        assertEquals(1, cache.size());
+        assertEquals("clear", cache.get("after"));
+        cache.close();
+    }
+
+    @Test
+    public void testCompactionKeepsLiveEntries() throws Exception {
+        CacheMappedFileImpl cache = new CacheMappedFileImpl(file, 4096, 20, Integer.MAX_VALUE);
+        // rewriting the same keys fills the log with superseded records
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++)
+                cache.put("key" + i, "value" + round);
+        }
+        assertEquals(10, cache.size());
+        assertTrue(cache.getUsedBytes() <= 4096);
+        assertEquals("value49", cache.get("key3"));
+
+        // more entries than fit in the file evicts the oldest
+        for (int i = 0; i < 500; i++)
+            cache.put("other" + i, "value" + i);
+        assertTrue(cache.size() <= 20);
+        assertEquals("value499", cache.get("other499"));
+        assertNull(cache.get("key0"));
+        cache.close();
+
+        cache = new CacheMappedFileImpl(file, 4096, 20, Integer.MAX_VALUE);
+        assertEquals("value499", cache.get("other499"));
+        cache.close();
+    }
+
+    @Test
+    public void testCompactsInPlaceWhenTheFileCannotBeReplaced() throws Exception {
+        // a directory in the way of the new file makes compacting into it fail
+        File blocker = new File(file.getPath() + ".compact");
+        assertTrue(blocker.mkdir());
+        CacheMappedFileImpl cache = new CacheMappedFileImpl(file, 4096, 20, Integer.MAX_VALUE);
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++)
+                cache.put("key" + i, "value" + round);
+        }
+        assertEquals(10, cache.size());
+        assertEquals("value49", cache.get("key3"));
+        cache.close();
+
+        cache = new CacheMappedFileImpl(file, 4096, 20, Integer.MAX_VALUE);
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 10; i++)
+            assertEquals("value49", cache.get("key" + i));
+        cache.close();
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        CacheMappedFileImpl cache = new CacheMappedFileImpl(file, 4096, 2, Integer.MAX_VALUE);
+        List<String> removals = new ArrayList<String>();
+        // notified on the calling thread, so in order
+        cache.addRemovalListener((key, value, cause) -> removals.add(key + "=" + value + ":" + cause), Runnable::run);
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.remove("a");
+        cache.put("b", "1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        assertNull(cache.get("b"));
+        cache.put("c", "1");
+        cache.put("d", "1");
+        cache.put("e", "1");
+        cache.removeTail();
+        cache.clear();
+        assertEquals(Arrays.asList("a=1:" + RemovalCause.REPLACED, "a=2:" + RemovalCause.EXPLICIT, "b=1:" + RemovalCause.EXPIRED,
+                "c=1:" + RemovalCause.SIZE, "d=1:" + RemovalCause.SIZE, "e=1:" + RemovalCause.EXPLICIT), removals);
+        cache.close();
+    }
+}
@@ -0,0 +1,138 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.BinaryValueCodec;
+import com.idfconnect.ssorest.common.cache.CacheJedisImpl;
+import com.idfconnect.ssorest.common.cache.CacheNearImpl;
+import com.idfconnect.ssorest.common.cache.CacheValueCodec;
+import com.idfconnect.ssorest.common.cache.CircuitBreaker;
+
+public class CacheNearImplTest {
+    // nothing listens on this port, so every redis call fails fast
+    static final String DOWN = "127.0.0.1:1";
+
+    @Test
+    public void testServesFromL1WhileRedisIsDown() {
+        CacheJedisImpl remote = new CacheJedisImpl(DOWN, Collections.singletonList(DOWN));
+        assertFalse(remote.isConnected());
+        remote.setValueCodec(new BinaryValueCodec());
+        CacheNearImpl cache = new CacheNearImpl(100, 60, remote);
+        try {
+            cache.put("key1", "value1");
+            assertEquals("value1", cache.get("key1"));
+            assertEquals(1, cache.getLocalCache().size());
+            assertNull(cache.get("missing"));
+
+            assertEquals("value1", cache.remove("key1"));
+            assertNull(cache.get("key1"));
+            assertFalse(cache.isSubscribed());
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testL1ReturnsTheTypeRedisReturns() {
+        CacheJedisImpl remote = new CacheJedisImpl(DOWN, Collections.singletonList(DOWN));
+        CacheNearImpl cache = new CacheNearImpl(100, 60, remote);
+        try {
+            // the default codec reads back the raw JSON, and so does the L1
+            cache.put("key1", Collections.singletonMap("a", 1));
+            assertEquals("{\"a\":1}", cache.get("key1"));
+
+            remote.setValueCodec(new BinaryValueCodec());
+            List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+            cache.put("key2", value);
+            Object cached = cache.get("key2");
+            assertEquals(value, cached);
+            assertNotSame(value, cached);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testEncodesEachValueOnce() throws Exception {
+        AtomicInteger encodes = new AtomicInteger();
+        BinaryValueCodec binary = new BinaryValueCodec();
+        try (TestRedisServer server = new TestRedisServer()) {
+            String endPoint = server.getEndPoint();
+            CacheJedisImpl remote = new CacheJedisImpl(endPoint, Collections.singletonList(endPoint));
+            remote.setValueCodec(new CacheValueCodec() {
+                @Override
+                public byte[] encode(Object value) {
+                    encodes.incrementAndGet();
+                    return binary.encode(value);
+                }
+
+                @Override
+                public Object decode(byte[] bytes) {
+                    return binary.decode(bytes);
+                }
+            });
+            CacheNearImpl cache = new CacheNearImpl(100, 60, remote);
+            try {
+                cache.put("key1", "value1");
+                cache.put("key2", "value2", 60, TimeUnit.SECONDS);
+                Map<String, String> entries = new HashMap<String, String>();
+                entries.put("key3", "value3");
+                entries.put("key4", "value4");
+                cache.putAll(entries);
+                assertEquals(4, encodes.get());
+                // Redis was sent the bytes encoded for the L1
+                assertEquals(4, server.getData().size());
+                cache.getLocalCache().clear();
+                assertEquals("value3", cache.get("key3"));
+            } finally {
+                cache.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWritesDoNotWaitOnAHangingRedis() throws Exception {
+        try (TestRedisServer server = new TestRedisServer()) {
+            String endPoint = server.getEndPoint();
+            CacheJedisImpl remote = new CacheJedisImpl(100, Integer.MAX_VALUE, endPoint, Collections.singletonList(endPoint), CacheJedisImpl.defaultPoolConfig(),
+                    500, 500);
+            remote.setCircuitBreaker(new CircuitBreaker(1, 60000));
+            CacheNearImpl cache = new CacheNearImpl(100, 60, remote);
+            try {
+                cache.put("key1", "value1");
+                assertTrue(server.getCommands().contains("PUBLISH"));
+
+                server.setHanging(true);
+                // the first write times out and opens the breaker
+                cache.put("key2", "value2");
+                assertEquals(CircuitBreaker.State.OPEN, remote.getCircuitBreaker().getState());
+                long start = System.nanoTime();
+                for (int i = 0; i < 10; i++) {
+                    cache.put("key" + i, "value" + i);
+                    cache.remove("key" + i);
+                }
+                cache.clear();
+                // none of them waited on the read time out to publish its invalidation
+                assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+            } finally {
+                server.setHanging(false);
+                cache.close();
+            }
+        }
+    }
+}
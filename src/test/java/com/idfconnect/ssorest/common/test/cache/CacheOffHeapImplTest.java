@@ -0,0 +1,101 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.BinaryValueCodec;
+import com.idfconnect.ssorest.common.cache.CacheOffHeapImpl;
+import com.idfconnect.ssorest.common.cache.RemovalCause;
+
+public class CacheOffHeapImplTest {
+
+    @Test
+    public void testPutGetAndReplace() {
+        CacheOffHeapImpl cache = new CacheOffHeapImpl(1 << 20, 1000, Integer.MAX_VALUE);
+        assertTrue(cache.isEmpty());
+        assertNull(cache.put("key1", "value1"));
+        assertEquals("value1", cache.get("key1"));
+        assertEquals("value1", cache.put("key1", "value2"));
+        assertEquals("value2", cache.get("key1"));
+        assertEquals(1, cache.size());
+
+        cache.put("number", 42L);
+        assertEquals(42L, cache.get("number"));
+
+        assertEquals("value2", cache.remove("key1"));
+        assertNull(cache.get("key1"));
+        assertNull(cache.remove("key1"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testRingOverwritesOldestEntries() {
+        // a single 4KB ring holds far fewer than the 1000 entries written
+        CacheOffHeapImpl cache = new CacheOffHeapImpl(4096, 100000, Integer.MAX_VALUE, 1, new BinaryValueCodec());
+        for (int i = 0; i < 1000; i++)
+            cache.put("key" + i, "value" + i);
+        assertTrue(cache.size() < 1000);
+        assertTrue(cache.getUsedBytes() <= cache.getCapacityBytes());
+        assertEquals("value999", cache.get("key999"));
+        assertNull(cache.get("key0"));
+        assertEquals(1000 - cache.size(), cache.getStats().getEvictionCount());
+
+        // an entry larger than the ring, even compressed, is not cached
+        Random random = new Random(42);
+        StringBuilder huge = new StringBuilder();
+        for (int i = 0; i < 8192; i++)
+            huge.append((char) ('a' + random.nextInt(26)));
+        cache.put("huge", huge.toString());
+        assertNull(cache.get("huge"));
+    }
+
+    @Test
+    public void testMaxSizeAndExpiry() throws Exception {
+        CacheOffHeapImpl cache = new CacheOffHeapImpl(1 << 20, 64, Integer.MAX_VALUE, 4, new BinaryValueCodec());
+        for (int i = 0; i < 1000; i++)
+            cache.put("key" + i, "value" + i);
+        assertTrue(cache.size() <= 64);
+        cache.assertMaxCacheSize(8);
+        assertTrue(cache.size() <= 8);
+        int before = cache.size();
+        cache.removeTail();
+        assertEquals(before - 1, cache.size());
+
+        cache.put("shortLived", "value", 50, TimeUnit.MILLISECONDS);
+        assertEquals("value", cache.get("shortLived"));
+        Thread.sleep(100);
+        assertNull(cache.get("shortLived"));
+    }
+
+    @Test
+    public void testRemovalListener() throws Exception {
+        CacheOffHeapImpl cache = new CacheOffHeapImpl(1 << 16, 2, Integer.MAX_VALUE, 1, new BinaryValueCodec());
+        List<String> removals = new ArrayList<String>();
+        // notified on the calling thread, so in order
+        cache.addRemovalListener((key, value, cause) -> removals.add(key + "=" + value + ":" + cause), Runnable::run);
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.remove("a");
+        cache.put("b", "1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        assertNull(cache.get("b"));
+        cache.put("c", "1");
+        cache.put("d", "1");
+        cache.put("e", "1");
+        cache.removeTail();
+        cache.clear();
+        assertEquals(Arrays.asList("a=1:" + RemovalCause.REPLACED, "a=2:" + RemovalCause.EXPLICIT, "b=1:" + RemovalCause.EXPIRED,
+                "c=1:" + RemovalCause.SIZE, "d=1:" + RemovalCause.SIZE, "e=1:" + RemovalCause.EXPLICIT), removals);
+    }
+}
@@ -0,0 +1,61 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.Cache;
+import com.idfconnect.ssorest.common.cache.CacheConcurrentImpl;
+import com.idfconnect.ssorest.common.cache.CacheLocalImpl;
+import com.idfconnect.ssorest.common.cache.CacheStats;
+
+public class CacheStatsTest {
+
+    @Test
+    public void testCounters() {
+        for (Cache cache : new Cache[] { new CacheLocalImpl(2, Integer.MAX_VALUE), new CacheConcurrentImpl(2, Integer.MAX_VALUE, 1) }) {
+            cache.put("key1", "value1");
+            cache.put("key2", "value2");
+            cache.get("key1");
+            cache.get("missing");
+            cache.put("key3", "value3");
+            cache.remove("key3");
+            CacheStats stats = cache.getStats();
+            assertEquals(cache.getClass().getSimpleName(), 1, stats.getHitCount());
+            assertEquals(1, stats.getMissCount());
+            assertEquals(0.5, stats.getHitRatio(), 0.0);
+            assertEquals(3, stats.getPutCount());
+            assertEquals(1, stats.getEvictionCount());
+            assertEquals(1, stats.getRemovalCount());
+            stats.reset();
+            assertEquals(0, stats.getPutCount());
+        }
+    }
+
+    @Test
+    public void testLatencyAndJmx() throws Exception {
+        Cache cache = new CacheConcurrentImpl(100, Integer.MAX_VALUE);
+        CacheStats stats = cache.getStats();
+        stats.setLatencyTracking(true);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key" + i, "value");
+            cache.get("key" + i);
+        }
+        assertEquals(1000, stats.getLatencyCount(CacheStats.Operation.GET));
+        assertTrue(stats.getLatencyPercentileNanos(CacheStats.Operation.GET, 99) >= stats.getLatencyPercentileNanos(CacheStats.Operation.GET, 50));
+
+        ObjectName name = stats.register("CacheStatsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1000L, server.getAttribute(name, "PutCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.cache.CacheKeyEncoder;
+import com.idfconnect.ssorest.common.cache.HashedKeyEncoder;
+
+public class HashedKeyEncoderTest {
+
+    @Test
+    public void testEncode() {
+        CacheKeyEncoder encoder = new HashedKeyEncoder();
+        String key = encoder.encode("session-1");
+        assertEquals(22, key.length());
+        assertTrue(key.matches("[A-Za-z0-9_-]+"));
+        // remembered, and stable across encoders
+        assertSame(key, encoder.encode("session-1"));
+        assertEquals(key, new HashedKeyEncoder(0).encode("session-1"));
+    }
+
+    @Test
+    public void testNoCollisions() {
+        CacheKeyEncoder encoder = new HashedKeyEncoder(0);
+        // same String.hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(encoder.encode("Aa"), encoder.encode("BB"));
+        // same string form
+        assertNotEquals(encoder.encode(1), encoder.encode("1"));
+        Set<String> keys = new HashSet<String>();
+        for (int i = 0; i < 100000; i++)
+            keys.add(encoder.encode("user-" + i));
+        assertEquals(100000, keys.size());
+    }
+}
@@ -0,0 +1,283 @@
+package com.idfconnect.ssorest.common.test.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal in-process Redis server speaking RESP, implementing the commands the caches send: PING, GET, MGET, SET, SETEX, DEL, DBSIZE, FLUSHDB, SCAN,
+ * PUBLISH and QUIT, and CLUSTER SLOTS and ASKING to act as a cluster node. Expiry is ignored. It can also be made to hang or to redirect the key
+ * commands.
+ */
+public class TestRedisServer implements Closeable {
+    // keys are held as ISO-8859-1 strings, which map every byte to one char
+    final Map<String, byte[]>                  data     = new ConcurrentHashMap<String, byte[]>();
+    final ConcurrentLinkedQueue<String>        commands = new ConcurrentLinkedQueue<String>();
+    private final ServerSocket                 server;
+    private final ConcurrentLinkedQueue<Socket> clients = new ConcurrentLinkedQueue<Socket>();
+    private final List<Object[]>               slots    = new ArrayList<Object[]>();
+    private volatile String                    redirection;
+    private volatile boolean                   hanging;
+
+    public TestRedisServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "TestRedisServer-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getEndPoint() {
+        return "127.0.0.1:" + server.getLocalPort();
+    }
+
+    public Map<String, byte[]> getData() {
+        return data;
+    }
+
+    /**
+     * Adds a range of slots to the CLUSTER SLOTS reply
+     */
+    public synchronized void addSlots(int first, int last, String endPoint) {
+        slots.add(new Object[] { first, last, endPoint });
+    }
+
+    /**
+     * Answers the key commands with the error, such as <code>MOVED 0 host:port</code>, or normally again if null
+     */
+    public void setRedirection(String redirection) {
+        this.redirection = redirection;
+    }
+
+    /**
+     * Leaves the commands received from now on unanswered, as a server that hangs, or answers them again if false
+     */
+    public void setHanging(boolean hanging) {
+        this.hanging = hanging;
+    }
+
+    /**
+     * Returns the names of the commands received so far, in upper case
+     */
+    public List<String> getCommands() {
+        return new ArrayList<String>(commands);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                clients.add(socket);
+                Thread client = new Thread(() -> serve(socket), "TestRedisServer-client");
+                client.setDaemon(true);
+                client.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            while (true) {
+                List<byte[]> args = readCommand(in);
+                if (args == null)
+                    return;
+                boolean quit = execute(args, out);
+                // flush once the pipelined commands received so far are answered
+                if (in.available() == 0)
+                    out.flush();
+                if (quit) {
+                    out.flush();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // client gone
+        }
+    }
+
+    private boolean execute(List<byte[]> args, OutputStream out) throws IOException {
+        String name = str(args.get(0)).toUpperCase();
+        commands.add(name);
+        if (hanging)
+            return false;
+        String redirection = this.redirection;
+        if (redirection != null && (name.equals("GET") || name.equals("SET") || name.equals("SETEX") || name.equals("DEL"))) {
+            out.write(('-' + redirection + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            return false;
+        }
+        switch (name) {
+            case "PING":
+                simple(out, "PONG");
+                break;
+            case "QUIT":
+                simple(out, "OK");
+                return true;
+            case "GET":
+                bulk(out, data.get(str(args.get(1))));
+                break;
+            case "MGET":
+                header(out, '*', args.size() - 1);
+                for (int i = 1; i < args.size(); i++)
+                    bulk(out, data.get(str(args.get(i))));
+                break;
+            case "SET":
+                data.put(str(args.get(1)), args.get(2));
+                simple(out, "OK");
+                break;
+            case "SETEX":
+                data.put(str(args.get(1)), args.get(3));
+                simple(out, "OK");
+                break;
+            case "DEL":
+                int deleted = 0;
+                for (int i = 1; i < args.size(); i++)
+                    deleted += data.remove(str(args.get(i))) != null ? 1 : 0;
+                header(out, ':', deleted);
+                break;
+            case "DBSIZE":
+                header(out, ':', data.size());
+                break;
+            case "FLUSHDB":
+                data.clear();
+                simple(out, "OK");
+                break;
+            case "ASKING":
+                simple(out, "OK");
+                break;
+            case "CLUSTER":
+                synchronized (this) {
+                    header(out, '*', slots.size());
+                    for (Object[] range : slots) {
+                        String endPoint = (String) range[2];
+                        header(out, '*', 3);
+                        header(out, ':', (Integer) range[0]);
+                        header(out, ':', (Integer) range[1]);
+                        header(out, '*', 2);
+                        bulk(out, endPoint.substring(0, endPoint.indexOf(':')).getBytes(StandardCharsets.ISO_8859_1));
+                        header(out, ':', Integer.parseInt(endPoint.substring(endPoint.indexOf(':') + 1)));
+                    }
+                }
+                break;
+            case "PUBLISH":
+                header(out, ':', 0);
+                break;
+            case "SCAN":
+                Pattern match = null;
+                for (int i = 2; i + 1 < args.size(); i += 2) {
+                    if ("MATCH".equalsIgnoreCase(str(args.get(i))))
+                        match = glob(str(args.get(i + 1)));
+                }
+                List<String> keys = new ArrayList<String>();
+                for (String key : data.keySet()) {
+                    if (match == null || match.matcher(key).matches())
+                        keys.add(key);
+                }
+                header(out, '*', 2);
+                bulk(out, "0".getBytes(StandardCharsets.ISO_8859_1));
+                header(out, '*', keys.size());
+                for (String key : keys)
+                    bulk(out, key.getBytes(StandardCharsets.ISO_8859_1));
+                break;
+            default:
+                out.write(("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return false;
+    }
+
+    private static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\' && i + 1 < glob.length())
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            else if (c == '*')
+                regex.append(".*");
+            else if (c == '?')
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(c)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null)
+            return null;
+        if (line.charAt(0) != '*')
+            throw new IOException("Unexpected " + line);
+        int count = Integer.parseInt(line.substring(1));
+        List<byte[]> args = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] arg = new byte[length];
+            for (int off = 0; off < length;) {
+                int read = in.read(arg, off, length - off);
+                if (read < 0)
+                    throw new IOException("Unexpected end of stream");
+                off += read;
+            }
+            in.read();
+            in.read();
+            args.add(arg);
+        }
+        return args;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c; (c = in.read()) >= 0;) {
+            if (c == '\r') {
+                in.read();
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+
+    private static String str(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void simple(OutputStream out, String reply) throws IOException {
+        out.write(('+' + reply + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void header(OutputStream out, char type, int n) throws IOException {
+        out.write((type + Integer.toString(n) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void bulk(OutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            return;
+        }
+        header(out, '$', value.length);
+        out.write(value);
+        out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket client : clients)
+            client.close();
+    }
+}
@@ -0,0 +1,77 @@
+package com.idfconnect.ssorest.common.test.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.idfconnect.ssorest.common.http.ChunkedOutputBuffer;
+import com.idfconnect.ssorest.common.http.SegmentPool;
+import com.idfconnect.ssorest.common.http.WebAgentResponseWrapper;
+
+/**
+ */
+public class ChunkedOutputBufferTest {
+
+    @Test
+    public void testSegmentsAndPool() throws Exception {
+        SegmentPool pool = new SegmentPool(16, 2);
+        ChunkedOutputBuffer buffer = new ChunkedOutputBuffer(pool);
+        // multi-byte characters straddle the 16 byte segments
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            text.append("aé€😀");
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+        buffer.write(content, 0, 5);
+        for (int i = 5; i < 9; i++)
+            buffer.write(content[i]);
+        buffer.write(content, 9, content.length - 9);
+
+        assertEquals(content.length, buffer.size());
+        assertArrayEquals(content, buffer.toByteArray());
+        assertEquals(text.toString(), buffer.toString(StandardCharsets.UTF_8));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, buffer.writeTo(out));
+        assertArrayEquals(content, out.toByteArray());
+        out.reset();
+        assertEquals(content.length, buffer.writeTo(Channels.newChannel(out)));
+        assertArrayEquals(content, out.toByteArray());
+
+        // the pool keeps no more than its bound
+        buffer.release();
+        assertEquals(0, buffer.size());
+        assertEquals(2, pool.getPooledCount());
+        buffer.write(1);
+        assertEquals(1, pool.getPooledCount());
+        assertEquals("\u0001", buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testResponseBody() throws Exception {
+        WebAgentResponseWrapper response = new WebAgentResponseWrapper();
+        PrintWriter writer = response.getWriter();
+        writer.print("discarded");
+        writer.flush();
+        response.resetBuffer();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            text.append("café ");
+        writer.print(text);
+        writer.flush();
+
+        byte[] expected = text.toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals(text.toString(), response.getBodyContent());
+        assertEquals(expected.length, response.getBodyLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(expected.length, new WebAgentResponseWrapper(response).writeBodyTo(out));
+        assertArrayEquals(expected, out.toByteArray());
+
+        response.releaseBody();
+        assertEquals("", response.getBodyContent());
+    }
+}
@@ -0,0 +1,106 @@
+package com.idfconnect.ssorest.common.test.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.idfconnect.ssorest.common.http.HeaderMap;
+
+/**
+ */
+public class HeaderMapTest {
+
+    @Test
+    public void testCaseInsensitiveMultimap() {
+        HeaderMap headers = new HeaderMap();
+        headers.add("accept", "text/html");
+        headers.add("ACCEPT", "text/plain");
+        headers.add("X-Custom", "one");
+        assertEquals(Arrays.asList("text/html", "text/plain"), headers.get("Accept"));
+        assertEquals("one", headers.getFirst("x-custom"));
+        assertEquals(2, headers.count("aCCept"));
+        assertEquals(0, headers.count("Missing"));
+        assertNull(headers.get("Missing"));
+        assertNull(headers.getValues("Missing"));
+        // well-known names are spelled the usual way
+        assertEquals(Arrays.asList("Accept", "X-Custom"), sorted(headers));
+
+        assertEquals(Arrays.asList("one"), headers.set("X-CUSTOM", "two"));
+        assertEquals(Arrays.asList("two"), Collections.list(headers.getValues("x-custom")));
+        assertEquals(Arrays.asList("two"), headers.remove("X-Custom"));
+        assertFalse(headers.contains("X-Custom"));
+        assertEquals(1, headers.size());
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        HeaderMap headers = new HeaderMap(1);
+        for (int i = 0; i < 200; i++)
+            headers.add("X-Header-" + i, Integer.toString(i));
+        for (int i = 0; i < 200; i += 2)
+            headers.remove("x-header-" + i);
+        assertEquals(100, headers.size());
+        for (int i = 0; i < 200; i++)
+            assertEquals(i % 2 == 0 ? null : Integer.toString(i), headers.getFirst("X-HEADER-" + i));
+        assertEquals(100, Collections.list(headers.names()).size());
+    }
+
+    @Test
+    public void testApplyChanges() {
+        HeaderMap headers = new HeaderMap();
+        headers.add("Host", "www.example.com");
+        headers.add("X-Removed", "removed");
+        HeaderMap changes = new HeaderMap();
+        changes.set("x-removed", Collections.<String> emptyList());
+        changes.add("X-Added", "added");
+        assertTrue(changes.contains("X-Removed"));
+        assertEquals(Collections.singletonList("X-Added"), Collections.list(changes.names()));
+
+        headers.apply(changes);
+        Set<String> names = new HashSet<String>(Collections.list(headers.names()));
+        assertEquals(new HashSet<String>(Arrays.asList("Host", "X-Added")), names);
+        assertEquals(2, headers.toHashtable().size());
+        assertEquals(Arrays.asList("added"), headers.toHashtable().get("x-added"));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        HeaderMap headers = new HeaderMap();
+        headers.add("Cookie", "a=1");
+        headers.add("Cookie", "b=2");
+        headers.add("X-Custom", "value");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(headers);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(headers.toHashtable(), ((HeaderMap) in.readObject()).toHashtable());
+        }
+
+        Gson gson = new Gson();
+        String json = gson.toJson(headers);
+        assertTrue(json, json.startsWith("{\"Cookie\":[") || json.contains(",\"Cookie\":["));
+        assertEquals(headers.toHashtable(), gson.fromJson(json, HeaderMap.class).toHashtable());
+    }
+
+    private static List<String> sorted(HeaderMap headers) {
+        List<String> names = Collections.list(headers.names());
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,173 @@
+package com.idfconnect.ssorest.common.test.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.idfconnect.ssorest.common.http.RequestBody;
+import com.idfconnect.ssorest.common.http.SpooledRequestBody;
+import com.idfconnect.ssorest.common.http.WebAgentRequestWrapper;
+
+/**
+ */
+public class SpooledRequestBodyTest {
+
+    @Test
+    public void testSmallBodyStaysInMemory() throws Exception {
+        byte[] content = random(500);
+        try (SpooledRequestBody body = new SpooledRequestBody(new ByteArrayInputStream(content), content.length, 1024)) {
+            assertArrayEquals(content, readAll(body.openStream()));
+            assertArrayEquals(content, readAll(body.openStream()));
+            assertFalse(body.isSpilled());
+            assertEquals(content.length, body.getLength());
+        }
+    }
+
+    @Test
+    public void testLargeBodySpillsAndReplays() throws Exception {
+        byte[] content = random(100000);
+        SpooledRequestBody body = new SpooledRequestBody(new ByteArrayInputStream(content), -1, 1024);
+        assertEquals(-1, body.getLength());
+
+        // a first reader stops halfway, marks, and a second reader goes past it
+        InputStream first = body.openStream();
+        byte[] half = new byte[50000];
+        readFully(first, half);
+        first.mark(0);
+        InputStream second = body.openStream();
+        assertArrayEquals(content, readAll(second));
+        assertTrue(body.isSpilled());
+        assertEquals(content.length, body.getLength());
+
+        byte[] rest = readAll(first);
+        assertEquals(50000, rest.length);
+        assertEquals(content[50000], rest[0]);
+        first.reset();
+        assertEquals(content[50000] & 0xff, first.read());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, body.writeTo(out));
+        assertArrayEquals(content, out.toByteArray());
+        assertArrayEquals(content, body.toByteArray());
+
+        body.close();
+        try {
+            first.read();
+            fail("A closed body cannot be read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWrapperBufferBody() throws Exception {
+        TestHttpServletRequest request = new TestHttpServletRequest("http://www.example.com/path");
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper(request);
+        try (RequestBody body = wrapper.bufferBody()) {
+            byte[] expected = request.toString().getBytes("ISO-8859-1");
+            assertSame(body, wrapper.getBody());
+            // the agent reads the body, and the application can still read it
+            assertArrayEquals(expected, readAll(wrapper.getInputStream()));
+            assertArrayEquals(expected, readAll(wrapper.getInputStream()));
+            assertEquals(request.toString(), wrapper.getReader().readLine());
+        }
+    }
+
+    @Test
+    public void testWrapperReaderWithoutCharacterEncoding() throws Exception {
+        TestHttpServletRequest request = new TestHttpServletRequest("http://www.example.com/path");
+        // as a servlet container reports a request declaring no charset
+        request.setCharacterEncoding(null);
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper(request);
+        try (RequestBody body = wrapper.bufferBody()) {
+            assertEquals(request.toString().length(), body.getLength());
+            assertEquals(request.toString(), wrapper.getReader().readLine());
+        }
+    }
+
+    @Test
+    public void testWrapperBodySerialized() throws Exception {
+        byte[] content = random(5000);
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper();
+        try (SpooledRequestBody body = new SpooledRequestBody(new ByteArrayInputStream(content), content.length, 1024)) {
+            wrapper.setBody(body);
+            Gson gson = new Gson();
+            WebAgentRequestWrapper copy = gson.fromJson(gson.toJson(wrapper), WebAgentRequestWrapper.class);
+            assertArrayEquals(content, readAll(copy.getInputStream()));
+            // the wrapper still reads its body
+            assertArrayEquals(content, readAll(wrapper.getInputStream()));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(wrapper);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                assertArrayEquals(content, readAll(((WebAgentRequestWrapper) in.readObject()).getInputStream()));
+            }
+        }
+    }
+
+    @Test
+    public void testWrapperClosesReplacedBody() throws Exception {
+        byte[] content = random(10000);
+        SpooledRequestBody spooled = new SpooledRequestBody(new ByteArrayInputStream(content), content.length, 1024);
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper();
+        wrapper.setBody(spooled);
+        // the stream of the wrapper delegates mark, reset and skip to the body
+        InputStream in = wrapper.getInputStream();
+        assertTrue(in.markSupported());
+        assertEquals(2000, in.skip(2000));
+        in.mark(0);
+        assertEquals(content[2000] & 0xff, in.read());
+        in.reset();
+        byte[] rest = readAll(in);
+        assertEquals(8000, rest.length);
+        assertTrue(spooled.isSpilled());
+
+        wrapper.setBody(content);
+        try {
+            spooled.openStream();
+            fail("The replaced body should be closed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertArrayEquals(content, readAll(wrapper.getInputStream()));
+    }
+
+    private static byte[] random(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static void readFully(InputStream in, byte[] b) throws IOException {
+        for (int off = 0; off < b.length;) {
+            int read = in.read(b, off, b.length - off);
+            if (read < 0)
+                throw new IOException("Unexpected end of stream");
+            off += read;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) >= 0;)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
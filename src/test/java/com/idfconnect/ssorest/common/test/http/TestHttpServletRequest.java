@@ -39,6 +39,7 @@ import javax.servlet.http.Part;
 import org.apache.commons.codec.binary.Base64;
 
 import com.idfconnect.ssorest.common.http.FriendlyCookie;
+import com.idfconnect.ssorest.common.utils.CaseInsensitiveHashtable;
 
 /**
  * A simple POJO implementation of HttpServletRequest, mainly for use with JUnit
@@ -51,7 +52,7 @@ public class TestHttpServletRequest implements HttpServletRequest {
     CopyOnWriteArrayList<Cookie>    cookies           = new CopyOnWriteArrayList<Cookie>();
     HashMap<String, Object>         attributes        = new HashMap<String, Object>();
     Map<String, String[]>           parameters        = new HashMap<String, String[]>();
-    HashMap<String, Vector<String>> headers           = new HashMap<String, Vector<String>>();
+    Map<String, Vector<String>>     headers           = new CaseInsensitiveHashtable<Vector<String>>();
     Vector<Locale>                  locales           = new Vector<Locale>();
     String                          contentType       = "text/html";
     String                          characterEncoding = "ISO-8859-1";
@@ -0,0 +1,199 @@
+package com.idfconnect.ssorest.common.test.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.idfconnect.ssorest.common.http.WebAgentRequestWrapper;
+
+/**
+ */
+public class WebAgentRequestWrapperTest {
+
+    @Test
+    public void testLazyMatchesEager() throws Exception {
+        TestHttpServletRequest request = createRequest();
+        WebAgentRequestWrapper eager = new WebAgentRequestWrapper(request);
+        WebAgentRequestWrapper lazy = new WebAgentRequestWrapper(request, true);
+        assertTrue(lazy.isLazy());
+        for (WebAgentRequestWrapper wrapper : new WebAgentRequestWrapper[] { eager, lazy }) {
+            wrapper.addHeader("X-Added", "added");
+            wrapper.addHeader("Accept", "text/plain");
+            wrapper.removeHeader("X-Removed");
+            wrapper.addCookie(new Cookie("added", "2"));
+        }
+
+        // the lazy wrapper kept reading the wrapped request
+        assertTrue(lazy.isLazy());
+        for (WebAgentRequestWrapper wrapper : new WebAgentRequestWrapper[] { eager, lazy }) {
+            assertEquals("kept", wrapper.getHeader("X-Kept"));
+            assertEquals("added", wrapper.getHeader("X-Added"));
+            assertEquals(Collections.list(eager.getHeaders("Accept")), Collections.list(wrapper.getHeaders("Accept")));
+            assertNull(wrapper.getHeader("X-Removed"));
+            assertFalse(wrapper.containsHeader("X-Removed"));
+            assertEquals(42, wrapper.getIntHeader("X-Number"));
+            assertEquals(names(eager), names(wrapper));
+            assertEquals(2, wrapper.getCookies().length);
+            assertEquals(2, Collections.list(wrapper.getHeaders("Cookie")).size());
+        }
+        assertFalse(names(lazy).contains("x-removed"));
+
+        // the complete table includes the changes
+        List<String> accept = lazy.getHeaderMap().get("accept");
+        assertFalse(lazy.isLazy());
+        assertEquals(2, accept.size());
+        assertNull(lazy.getHeaderMap().get("X-Removed"));
+        assertEquals(eager.getHeaderMap().size(), lazy.getHeaderMap().size());
+        assertEquals(2, lazy.getCookies().length);
+    }
+
+    @Test
+    public void testLazyReadsWrappedRequest() throws Exception {
+        TestHttpServletRequest request = createRequest();
+        WebAgentRequestWrapper lazy = new WebAgentRequestWrapper(request, true);
+        assertEquals(1, lazy.getCookies().length);
+        // nothing was copied, so later changes of the wrapped request are seen
+        request.addHeader("X-Late", "late");
+        assertEquals("late", lazy.getHeader("X-Late"));
+    }
+
+    @Test
+    public void testLazyGsonRoundTrip() throws Exception {
+        TestHttpServletRequest request = createRequest();
+        WebAgentRequestWrapper lazy = new WebAgentRequestWrapper(request, true);
+        lazy.addHeader("X-Added", "added");
+        Gson gson = new Gson();
+        String json = gson.toJson(lazy);
+        // the headers and cookies were copied before writing, and the mode is not written
+        assertFalse(lazy.isLazy());
+        assertFalse(json.contains("\"lazy\""));
+
+        WebAgentRequestWrapper copy = gson.fromJson(json, WebAgentRequestWrapper.class);
+        assertFalse(copy.isLazy());
+        assertEquals("kept", copy.getHeader("X-Kept"));
+        assertEquals("added", copy.getHeader("X-Added"));
+        assertEquals(names(lazy), names(copy));
+        assertEquals(1, copy.getCookies().length);
+    }
+
+    @Test
+    public void testNeverLazyWithoutWrappedRequest() throws Exception {
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper((HttpServletRequest) null, true);
+        assertFalse(wrapper.isLazy());
+        assertNull(wrapper.getHeader("X-Kept"));
+        assertFalse(wrapper.getHeaderNames().hasMoreElements());
+
+        wrapper = new WebAgentRequestWrapper(createRequest(), true);
+        wrapper.setWrappedRequest(null);
+        assertFalse(wrapper.isLazy());
+        assertNull(wrapper.getHeader("X-Kept"));
+    }
+
+    @Test
+    public void testAddCookies() throws Exception {
+        TestHttpServletRequest request = createRequest();
+        Cookie otherPath = cookie("EXISTING", "other-path");
+        otherPath.setPath("/other");
+        request.addCookie(otherPath);
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper(request);
+        // cookies of the same name sent by the browser are kept
+        assertEquals(2, wrapper.getCookies().length);
+
+        for (int i = 0; i < 60; i++)
+            wrapper.addCookie(new Cookie("c" + i, "v" + i));
+        assertEquals(62, wrapper.getCookies().length);
+        assertEquals(61, Collections.list(wrapper.getHeaders("Cookie")).size());
+
+        // replacing a cookie replaces every cookie and header value of its name, ignoring case
+        wrapper.addCookie(new Cookie("c0", "replaced"));
+        wrapper.addCookie(new Cookie("Existing", "replaced"));
+        assertEquals(61, wrapper.getCookies().length);
+        List<String> header = Collections.list(wrapper.getHeaders("COOKIE"));
+        assertEquals(61, header.size());
+        assertFalse(header.contains("existing=1"));
+        assertTrue(header.get(60).startsWith("Existing=replaced;"));
+        assertEquals(header, wrapper.getHeaderMap().get("cookie"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testAllHeadersIsALiveView() throws Exception {
+        WebAgentRequestWrapper wrapper = new WebAgentRequestWrapper(createRequest(), true);
+        Hashtable<String, List<String>> headers = wrapper.getAllHeaders();
+        assertFalse(wrapper.isLazy());
+        assertSame(headers, wrapper.getAllHeaders());
+        assertSame(headers, wrapper.getUpdatedHeaders());
+
+        // changes made through the table are seen by the request, and the other way round
+        headers.put("x-put", Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), Collections.list(wrapper.getHeaders("X-Put")));
+        assertEquals(Arrays.asList("kept"), headers.remove("X-KEPT"));
+        assertNull(wrapper.getHeader("X-Kept"));
+        wrapper.addHeader("X-Added", "added");
+        assertEquals(Collections.singletonList("added"), headers.get("x-added"));
+        assertTrue(headers.containsKey("X-ADDED"));
+        assertEquals(names(wrapper), headers.keySet().stream().map(String::toLowerCase).collect(Collectors.toSet()));
+        assertEquals(names(wrapper).size(), headers.size());
+        wrapper.addCookie(new Cookie("added", "2"));
+        assertEquals(2, headers.get("Cookie").size());
+
+        // the table is serialized as a copy
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(headers);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            Map<String, List<String>> copy = (Map<String, List<String>>) in.readObject();
+            assertEquals(headers, copy);
+        }
+        headers.clear();
+        assertFalse(wrapper.getHeaderNames().hasMoreElements());
+    }
+
+    private TestHttpServletRequest createRequest() throws Exception {
+        TestHttpServletRequest request = new TestHttpServletRequest("http://www.example.com/path");
+        request.addHeader("X-Kept", "kept");
+        request.addHeader("X-Removed", "removed");
+        request.addHeader("X-Number", "42");
+        request.addHeader("Accept", "text/html");
+        request.addHeader("Cookie", "existing=1");
+        request.setCookies(new Cookie[] { cookie("existing", "1") });
+        return request;
+    }
+
+    private static Cookie cookie(String name, String value) {
+        Cookie c = new Cookie(name, value);
+        c.setPath("/");
+        c.setDomain("www.example.com");
+        return c;
+    }
+
+    private static Set<String> names(WebAgentRequestWrapper wrapper) {
+        Set<String> names = new HashSet<String>();
+        for (String name : Collections.list(wrapper.getHeaderNames()))
+            names.add(name.toLowerCase());
+        return names;
+    }
+}